@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query sets shared by the benchmarks, read from the same parameter files the unit tests
+ * use. Benchmarks must be run from the project root so these files can be found.
+ */
+final class BenchData {
+    static final String PATH_PARAMS = "path_params.txt";
+    static final String RASTER_PARAMS = "raster_params.txt";
+    /** Number of leading comment lines in each parameter file. */
+    private static final int HEADER_LINES = 2;
+
+    private BenchData() {
+    }
+
+    /**
+     * Returns the routing queries as {start_lon, start_lat, end_lon, end_lat} rows.
+     */
+    static double[][] pathQueries() throws IOException {
+        List<Double> values = numbers(PATH_PARAMS);
+        double[][] queries = new double[values.size() / 4][4];
+        for (int i = 0; i < queries.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                queries[i][j] = values.get(4 * i + j);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the raster queries as parameter maps, keyed like MapServer's request params.
+     */
+    static List<Map<String, Double>> rasterQueries() throws IOException {
+        String[] keys = {"ullon", "ullat", "lrlon", "lrlat", "w", "h"};
+        List<Double> values = numbers(RASTER_PARAMS);
+        List<Map<String, Double>> queries = new ArrayList<>();
+        for (int i = 0; i + keys.length <= values.size(); i += keys.length) {
+            Map<String, Double> params = new HashMap<>();
+            for (int j = 0; j < keys.length; j++) {
+                params.put(keys[j], values.get(i + j));
+            }
+            queries.add(params);
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the graph to benchmark: the OSM file named by osmPath, or a synthetic grid of
+     * the given size when osmPath is empty.
+     */
+    static Path osmFile(String osmPath, int gridSize) throws IOException {
+        if (osmPath != null && !osmPath.isEmpty()) {
+            return Paths.get(osmPath);
+        }
+        return SyntheticOsm.temp(gridSize, gridSize);
+    }
+
+    private static List<Double> numbers(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        List<Double> values = new ArrayList<>();
+        for (String line : lines.subList(HEADER_LINES, lines.size())) {
+            if (!line.trim().isEmpty()) {
+                values.add(Double.parseDouble(line.trim()));
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,120 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Method handles onto the application classes. Those classes live in the unnamed package,
+ * which Java code in a named package cannot refer to, while JMH refuses benchmarks in the
+ * unnamed package. The handles are looked up reflectively once, with every application type
+ * in their signatures widened to Object, and are static final so the JIT inlines calls
+ * through them like direct calls.
+ */
+final class Bridge {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** new GraphDB(String dbPath): (String)Object. */
+    static final MethodHandle NEW_GRAPH = constructor("GraphDB", String.class);
+    /** OsmIngest.read(String dbPath): (String)Object. */
+    static final MethodHandle INGEST = method("OsmIngest", "read", String.class);
+    /** GraphDB.closest(double lon, double lat): (Object, double, double)long. */
+    static final MethodHandle CLOSEST = method("GraphDB", "closest", double.class,
+            double.class);
+    /** Router.shortestPath(GraphDB, double, double, double, double): List. */
+    static final MethodHandle SHORTEST_PATH = method("Router", "shortestPath",
+            type("GraphDB"), double.class, double.class, double.class, double.class);
+    /** Router.Algorithm.parse(String): (String)Object. */
+    static final MethodHandle PARSE_ALGORITHM = method("Router$Algorithm", "parse",
+            String.class);
+    /** Router.route(GraphDB, double, double, double, double, Algorithm): SearchResult. */
+    static final MethodHandle ROUTE = method("Router", "route", type("GraphDB"), double.class,
+            double.class, double.class, double.class, type("Router$Algorithm"));
+    /** SearchResult.settled(): (Object)int. */
+    static final MethodHandle SETTLED = method("SearchResult", "settled");
+    /** new Rasterer(): ()Object. */
+    static final MethodHandle NEW_RASTERER = constructor("Rasterer");
+    /** Rasterer.getMapRaster(Map): (Object, Map)Map. */
+    static final MethodHandle GET_MAP_RASTER = method("Rasterer", "getMapRaster", Map.class);
+    /** MapServer.writeImagesToOutputStream(Map, List, ByteArrayOutputStream): void. */
+    static final MethodHandle WRITE_IMAGES = method("MapServer", "writeImagesToOutputStream",
+            Map.class, List.class, ByteArrayOutputStream.class);
+    /** new LongIntMap(int noValue): (int)Object. */
+    static final MethodHandle NEW_LONG_INT_MAP = constructor("LongIntMap", int.class);
+    /** LongIntMap.put(long, int): (Object, long, int)int. */
+    static final MethodHandle LONG_INT_PUT = method("LongIntMap", "put", long.class,
+            int.class);
+    /** LongIntMap.get(long): (Object, long)int. */
+    static final MethodHandle LONG_INT_GET = method("LongIntMap", "get", long.class);
+    /** new LongDoubleMap(double noValue): (double)Object. */
+    static final MethodHandle NEW_LONG_DOUBLE_MAP = constructor("LongDoubleMap", double.class);
+    /** LongDoubleMap.put(long, double): (Object, long, double)double. */
+    static final MethodHandle LONG_DOUBLE_PUT = method("LongDoubleMap", "put", long.class,
+            double.class);
+    /** LongDoubleMap.get(long): (Object, long)double. */
+    static final MethodHandle LONG_DOUBLE_GET = method("LongDoubleMap", "get", long.class);
+    /** new LongArrayList(): ()Object. */
+    static final MethodHandle NEW_LONG_LIST = constructor("LongArrayList");
+    /** LongArrayList.add(long): (Object, long)void. */
+    static final MethodHandle LONG_LIST_ADD = method("LongArrayList", "add", long.class);
+    /** LongArrayList.get(int): (Object, int)long. */
+    static final MethodHandle LONG_LIST_GET = method("LongArrayList", "get", int.class);
+
+    private Bridge() {
+    }
+
+    /**
+     * Loads an application class without initializing it, so that system properties set
+     * by a benchmark's setup are still seen by its static initializers.
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name, false, Bridge.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... params) {
+        try {
+            Constructor<?> c = type(className).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return widen(LOOKUP.unreflectConstructor(c));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?>... params) {
+        try {
+            Method m = type(className).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return widen(LOOKUP.unreflect(m));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Replaces every unnamed-package type in the handle's signature with Object. */
+    private static MethodHandle widen(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isApplicationType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isApplicationType(Class<?> c) {
+        return !c.isPrimitive() && !c.isArray() && c.getName().indexOf('.') < 0;
+    }
+}
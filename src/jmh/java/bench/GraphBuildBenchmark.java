@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall time of building a GraphDB from an OSM XML file, parsing included. Each measurement
+ * is a single cold-ish build, since startup is what this number stands for. construct is the
+ * single-threaded SAX build, ingest the staged OsmIngest pipeline that GraphDB.load uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBuildBenchmark {
+    /** OSM file to load; empty for a synthetic grid of gridSize x gridSize intersections. */
+    @Param("")
+    public String osm;
+    @Param({"100", "300"})
+    public int gridSize;
+
+    private String path;
+
+    @Setup
+    public void setUp() throws Exception {
+        path = BenchData.osmFile(osm, gridSize).toString();
+    }
+
+    @Benchmark
+    public Object construct() throws Throwable {
+        return (Object) Bridge.NEW_GRAPH.invokeExact(path);
+    }
+
+    @Benchmark
+    public Object ingest() throws Throwable {
+        return (Object) Bridge.INGEST.invokeExact(path);
+    }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the great-circle heuristic of plain A* with the landmark heuristic of ALT, on
+ * random routes across the map. Besides the time per route, JMH reports the secondary
+ * metrics "settled" and "routes"; their ratio is the number of vertices settled per route.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeuristicBenchmark {
+    private static final int NUM_ROUTES = 512;
+
+    /** OSM file to load; empty for a synthetic grid of gridSize x gridSize intersections. */
+    @Param("")
+    public String osm;
+    @Param("150")
+    public int gridSize;
+    @Param({"astar", "alt"})
+    public String algorithm;
+
+    private Object graph;
+    private Object routingAlgorithm;
+    private double[][] routes;
+    private int next;
+
+    /** Per-thread event counts reported next to the timing. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long settled;
+        public long routes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            settled = 0;
+            routes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Throwable {
+        graph = (Object) Bridge.NEW_GRAPH.invokeExact(
+                BenchData.osmFile(osm, gridSize).toString());
+        routingAlgorithm = (Object) Bridge.PARSE_ALGORITHM.invokeExact(algorithm);
+        Random r = new Random(13);
+        routes = new double[NUM_ROUTES][4];
+        for (double[] route : routes) {
+            for (int i = 0; i < 4; i += 2) {
+                route[i] = SyntheticOsm.ULLON + r.nextDouble() * (SyntheticOsm.LRLON
+                        - SyntheticOsm.ULLON);
+                route[i + 1] = SyntheticOsm.LRLAT + r.nextDouble() * (SyntheticOsm.ULLAT
+                        - SyntheticOsm.LRLAT);
+            }
+        }
+        /* Build the landmark tables outside the measurement. */
+        Object ignored = (Object) Bridge.ROUTE.invokeExact(graph, routes[0][0], routes[0][1],
+                routes[0][2], routes[0][3], routingAlgorithm);
+    }
+
+    @Benchmark
+    public Object route(Counters counters) throws Throwable {
+        double[] q = routes[next];
+        next = (next + 1) % routes.length;
+        Object result = (Object) Bridge.ROUTE.invokeExact(graph, q[0], q[1], q[2], q[3],
+                routingAlgorithm);
+        counters.settled += (int) Bridge.SETTLED.invokeExact(result);
+        counters.routes += 1;
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package bench;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wall time of building a GraphDB with OsmIngest from the same extract stored as plain XML,
+ * gzip or bzip2 compressed XML, or PBF. The copies are made once per trial from the XML, so
+ * every format holds the same graph; the file sizes are printed alongside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IngestFormatBenchmark {
+    /** PbfWriter.convert(String osmPath, Path pbfPath): void. */
+    private static final MethodHandle TO_PBF = Bridge.method("PbfWriter", "convert",
+            String.class, Path.class);
+
+    /** OSM XML file to start from; empty for a synthetic grid of gridSize x gridSize. */
+    @Param("")
+    public String osm;
+    @Param("300")
+    public int gridSize;
+    @Param({"xml", "gz", "bz2", "pbf"})
+    public String format;
+
+    private String path;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Path xml = BenchData.osmFile(osm, gridSize);
+        Path file;
+        switch (format) {
+            case "xml":
+                file = xml;
+                break;
+            case "gz":
+                file = temp(".osm.xml.gz");
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file),
+                        1 << 16)) {
+                    copy(xml, out);
+                }
+                break;
+            case "bz2":
+                file = temp(".osm.bz2");
+                try (OutputStream out = new BZip2CompressorOutputStream(
+                        Files.newOutputStream(file))) {
+                    copy(xml, out);
+                }
+                break;
+            case "pbf":
+                file = temp(".osm.pbf");
+                TO_PBF.invoke(xml.toString(), file);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+        System.out.println(format + ": " + Files.size(file) + " bytes");
+        path = file.toString();
+    }
+
+    private static Path temp(String suffix) throws IOException {
+        Path file = Files.createTempFile("ingest-", suffix);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static void copy(Path from, OutputStream to) throws IOException {
+        try (InputStream in = Files.newInputStream(from)) {
+            byte[] buf = new byte[1 << 16];
+            for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                to.write(buf, 0, n);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object ingest() throws Throwable {
+        return (Object) Bridge.INGEST.invokeExact(path);
+    }
+}
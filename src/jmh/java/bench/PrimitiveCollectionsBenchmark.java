@@ -0,0 +1,178 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LongIntMap, LongDoubleMap and LongArrayList against the boxed JDK collections they replace
+ * while GraphDB is built. Keys look like the node ids of an extract: increasing with small
+ * random gaps, visited in shuffled order as ways visit them. Each put benchmark fills a new
+ * collection, so allocation and boxing are part of the cost, as they are at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrimitiveCollectionsBenchmark {
+    @Param({"100000", "2000000"})
+    public int size;
+
+    private long[] keys;
+    private Object longIntMap;
+    private Map<Long, Integer> intHashMap;
+    private Object longDoubleMap;
+    private Map<Long, Double> doubleHashMap;
+    private Object longList;
+    private List<Long> arrayList;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Random r = new Random(24);
+        keys = new long[size];
+        long id = 26_000_000L;
+        for (int i = 0; i < size; i++) {
+            id += 1 + r.nextInt(20);
+            keys[i] = id;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            long t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        longIntMap = longIntMapPut();
+        intHashMap = hashMapIntPut();
+        longDoubleMap = longDoubleMapPut();
+        doubleHashMap = hashMapDoublePut();
+        longList = longArrayListAdd();
+        arrayList = arrayListAdd();
+    }
+
+    @Benchmark
+    public Object longIntMapPut() throws Throwable {
+        Object map = (Object) Bridge.NEW_LONG_INT_MAP.invokeExact(-1);
+        for (int i = 0; i < keys.length; i++) {
+            /* invokeExact needs the exact return type, so the unused result is assigned. */
+            int previous = (int) Bridge.LONG_INT_PUT.invokeExact(map, keys[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<Long, Integer> hashMapIntPut() {
+        Map<Long, Integer> map = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public long longIntMapGet() throws Throwable {
+        long sum = 0;
+        for (long key : keys) {
+            sum += (int) Bridge.LONG_INT_GET.invokeExact(longIntMap, key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashMapIntGet() {
+        long sum = 0;
+        for (long key : keys) {
+            sum += intHashMap.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Object longDoubleMapPut() throws Throwable {
+        Object map = (Object) Bridge.NEW_LONG_DOUBLE_MAP.invokeExact(Double.NaN);
+        for (int i = 0; i < keys.length; i++) {
+            double previous = (double) Bridge.LONG_DOUBLE_PUT.invokeExact(map, keys[i],
+                    i * 1e-6);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<Long, Double> hashMapDoublePut() {
+        Map<Long, Double> map = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i * 1e-6);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public double longDoubleMapGet() throws Throwable {
+        double sum = 0;
+        for (long key : keys) {
+            sum += (double) Bridge.LONG_DOUBLE_GET.invokeExact(longDoubleMap, key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double hashMapDoubleGet() {
+        double sum = 0;
+        for (long key : keys) {
+            sum += doubleHashMap.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Object longArrayListAdd() throws Throwable {
+        Object list = (Object) Bridge.NEW_LONG_LIST.invokeExact();
+        for (long key : keys) {
+            Bridge.LONG_LIST_ADD.invokeExact(list, key);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public List<Long> arrayListAdd() {
+        List<Long> list = new ArrayList<>();
+        for (long key : keys) {
+            list.add(key);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public long longArrayListGet() throws Throwable {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (long) Bridge.LONG_LIST_GET.invokeExact(longList, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long arrayListGet() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += arrayList.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rastering the queries of raster_params.txt, and compositing and encoding the resulting
+ * images. Tiles are synthetic PNGs written to a temporary directory that MapServer is pointed
+ * at through -Dbearmaps.imgRoot. The tile cache is warm after the first iteration, so
+ * writeImages measures compositing and PNG encoding rather than tile decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterBenchmark {
+    private Object rasterer;
+    private List<Map<String, Double>> queries;
+    private List<Map<String, Object>> rasters;
+    private int nextQuery;
+    private int nextRaster;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        rasterer = (Object) Bridge.NEW_RASTERER.invokeExact();
+        queries = BenchData.rasterQueries();
+        rasters = new ArrayList<>();
+        Path tiles = Files.createTempDirectory("tiles");
+        tiles.toFile().deleteOnExit();
+        Random r = new Random(7);
+        for (Map<String, Double> query : queries) {
+            Map<String, Object> raster = (Map<String, Object>) Bridge.GET_MAP_RASTER
+                    .invokeExact(rasterer, (Map) query);
+            if (!(Boolean) raster.get("query_success")) {
+                continue;
+            }
+            for (String[] row : (String[][]) raster.get("render_grid")) {
+                for (String tile : row) {
+                    writeTile(tiles.resolve(tile), r);
+                }
+            }
+            rasters.add(raster);
+        }
+        /* Must be set before MapServer is initialized by the first call below. */
+        System.setProperty("bearmaps.imgRoot", tiles.toString() + "/");
+    }
+
+    private static void writeTile(Path file, Random r) throws IOException {
+        if (Files.exists(file)) {
+            return;
+        }
+        BufferedImage img = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(230, 228, 224));
+        g.fillRect(0, 0, 256, 256);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256)));
+            g.drawLine(r.nextInt(256), r.nextInt(256), r.nextInt(256), r.nextInt(256));
+        }
+        g.dispose();
+        ImageIO.write(img, "png", file.toFile());
+        file.toFile().deleteOnExit();
+    }
+
+    @Benchmark
+    public Map<?, ?> getMapRaster() throws Throwable {
+        Map<String, Double> query = queries.get(nextQuery);
+        nextQuery = (nextQuery + 1) % queries.size();
+        return (Map<?, ?>) Bridge.GET_MAP_RASTER.invokeExact(rasterer, (Map) query);
+    }
+
+    @Benchmark
+    public int writeImagesToOutputStream() throws Throwable {
+        Map<String, Object> raster = rasters.get(nextRaster);
+        nextRaster = (nextRaster + 1) % rasters.size();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Bridge.WRITE_IMAGES.invokeExact((Map) raster, (List) null, os);
+        return os.size();
+    }
+}
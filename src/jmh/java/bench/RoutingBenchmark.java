@@ -0,0 +1,95 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing and nearest-vertex queries. Each invocation answers one query, cycling through the
+ * routes of path_params.txt or through a fixed set of random points in the map's bounding
+ * box. Pass -p osm=path/to/file.osm.xml to run on real data instead of the synthetic grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    private static final int NUM_POINTS = 1024;
+
+    /** OSM file to load; empty for a synthetic grid of gridSize x gridSize intersections. */
+    @Param("")
+    public String osm;
+    @Param("150")
+    public int gridSize;
+    /**
+     * Router.Algorithm used by route(). The contraction hierarchy is built during the first
+     * warmup iteration.
+     */
+    @Param({"astar", "bidirectional", "ch", "alt"})
+    public String algorithm;
+    /** Where the graph's columns live: heap or mapped (see ColumnStore). */
+    @Param("heap")
+    public String storage;
+
+    private Object graph;
+    private Object routingAlgorithm;
+    private double[][] routes;
+    private double[][] points;
+    private int nextRoute;
+    private int nextPoint;
+
+    @Setup
+    public void setUp() throws Throwable {
+        /* Must be set before ColumnStore is initialized by loading the graph below. */
+        System.setProperty("bearmaps.storage", storage);
+        graph = (Object) Bridge.NEW_GRAPH.invokeExact(
+                BenchData.osmFile(osm, gridSize).toString());
+        routingAlgorithm = (Object) Bridge.PARSE_ALGORITHM.invokeExact(algorithm);
+        routes = BenchData.pathQueries();
+        Random r = new Random(42);
+        points = new double[NUM_POINTS][2];
+        for (double[] point : points) {
+            point[0] = SyntheticOsm.ULLON + r.nextDouble() * (SyntheticOsm.LRLON
+                    - SyntheticOsm.ULLON);
+            point[1] = SyntheticOsm.LRLAT + r.nextDouble() * (SyntheticOsm.ULLAT
+                    - SyntheticOsm.LRLAT);
+        }
+    }
+
+    @Benchmark
+    public List<?> shortestPath() throws Throwable {
+        double[] q = routes[nextRoute];
+        nextRoute = (nextRoute + 1) % routes.length;
+        return (List<?>) Bridge.SHORTEST_PATH.invokeExact(graph, q[0], q[1], q[2], q[3]);
+    }
+
+    /** Same as shortestPath, with the algorithm given by the algorithm parameter. */
+    @Benchmark
+    public Object route() throws Throwable {
+        double[] q = routes[nextRoute];
+        nextRoute = (nextRoute + 1) % routes.length;
+        return (Object) Bridge.ROUTE.invokeExact(graph, q[0], q[1], q[2], q[3],
+                routingAlgorithm);
+    }
+
+    @Benchmark
+    public long closest() throws Throwable {
+        double[] p = points[nextPoint];
+        nextPoint = (nextPoint + 1) % points.length;
+        return (long) Bridge.CLOSEST.invokeExact(graph, p[0], p[1]);
+    }
+}
@@ -0,0 +1,174 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates OSM XML files that look enough like a city for benchmarking without the
+ * library-sp18 data: a jittered street grid spanning the map's root bounding box, broken
+ * into named ways of mixed highway types and speed limits, plus buildings and points of
+ * interest that are not part of the road network and get removed by GraphDB's clean().
+ * Output is deterministic for a given size and seed.
+ */
+public final class SyntheticOsm {
+    /** Bounding box of the root map tile; see MapServer.ROOT_*. */
+    static final double ULLON = -122.2998046875;
+    static final double ULLAT = 37.892195547244356;
+    static final double LRLON = -122.2119140625;
+    static final double LRLAT = 37.82280243352756;
+
+    private static final String[] ROAD_TYPES = {"residential", "residential", "residential",
+        "tertiary", "secondary", "primary", "unclassified", "living_street", "service",
+        "footway", "cycleway"};
+    private static final String[] SPEEDS = {"25 mph", "30 mph", "35", "40 mph", "50 km/h"};
+    private static final String[] STREET_WORDS = {"Oak", "Cedar", "Shattuck", "Telegraph",
+        "Hearst", "Bancroft", "Durant", "Channing", "Ashby", "Dwight", "Derby", "College"};
+
+    private SyntheticOsm() {
+    }
+
+    /**
+     * Writes a size x size street grid to a temporary file that is deleted on exit.
+     * @param size Number of intersections along each side of the grid.
+     * @param seed Seed for the jitter and tags.
+     * @return The path of the new file.
+     */
+    public static Path temp(int size, long seed) throws IOException {
+        Path file = Files.createTempFile("synthetic-" + size + "-", ".osm.xml");
+        file.toFile().deleteOnExit();
+        return write(file, size, seed);
+    }
+
+    /**
+     * Writes a size x size street grid to file.
+     * @param file The file to write.
+     * @param size Number of intersections along each side of the grid.
+     * @param seed Seed for the jitter and tags.
+     * @return file.
+     */
+    public static Path write(Path file, int size, long seed) throws IOException {
+        try (Writer w = new BufferedWriter(Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8), 1 << 16)) {
+            write(w, size, seed);
+        }
+        return file;
+    }
+
+    /** Writes the grid described by size and seed to w. */
+    public static void write(Writer w, int size, long seed) throws IOException {
+        Random r = new Random(seed);
+        double dLon = (LRLON - ULLON) / size;
+        double dLat = (ULLAT - LRLAT) / size;
+        long nextNode = 1;
+        long nextWay = 1;
+
+        w.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+        w.write("<osm version=\"0.6\" generator=\"bench.SyntheticOsm\">\n");
+
+        long firstGridNode = nextNode;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                double lon = ULLON + (col + 0.5 + jitter(r)) * dLon;
+                double lat = LRLAT + (row + 0.5 + jitter(r)) * dLat;
+                if (r.nextInt(40) == 0) {
+                    writeNode(w, nextNode, lon, lat, "Corner " + word(r) + " " + row);
+                } else {
+                    writeNode(w, nextNode, lon, lat, null);
+                }
+                nextNode += 1;
+            }
+        }
+
+        /* Buildings and shops sit between the streets and never join the road network. */
+        long firstBuildingNode = nextNode;
+        for (int cell = 0; cell < size * size / 4; cell++) {
+            double lon = ULLON + r.nextDouble() * (LRLON - ULLON);
+            double lat = LRLAT + r.nextDouble() * (ULLAT - LRLAT);
+            for (int corner = 0; corner < 4; corner++) {
+                String name = corner == 0 && r.nextInt(8) == 0 ? word(r) + " Cafe" : null;
+                writeNode(w, nextNode, lon + (corner % 2) * 1e-4, lat + (corner / 2) * 1e-4,
+                        name);
+                nextNode += 1;
+            }
+        }
+
+        for (int row = 0; row < size; row++) {
+            int start = 0;
+            while (start < size - 1) {
+                int end = Math.min(size - 1, start + 2 + r.nextInt(size));
+                long[] refs = new long[end - start + 1];
+                for (int col = start; col <= end; col++) {
+                    refs[col - start] = firstGridNode + (long) row * size + col;
+                }
+                writeWay(w, nextWay, refs, road(r), word(r) + " Street", speed(r));
+                nextWay += 1;
+                start = end;
+            }
+        }
+        for (int col = 0; col < size; col++) {
+            long[] refs = new long[size];
+            for (int row = 0; row < size; row++) {
+                refs[row] = firstGridNode + (long) row * size + col;
+            }
+            writeWay(w, nextWay, refs, road(r), col + "th Avenue", speed(r));
+            nextWay += 1;
+        }
+        for (long node = firstBuildingNode; node < nextNode; node += 4) {
+            long[] refs = {node, node + 1, node + 3, node + 2, node};
+            w.write("  <way id=\"" + nextWay + "\">\n");
+            for (long ref : refs) {
+                w.write("    <nd ref=\"" + ref + "\"/>\n");
+            }
+            w.write("    <tag k=\"building\" v=\"yes\"/>\n  </way>\n");
+            nextWay += 1;
+        }
+        w.write("</osm>\n");
+    }
+
+    private static double jitter(Random r) {
+        return (r.nextDouble() - 0.5) * 0.3;
+    }
+
+    private static String word(Random r) {
+        return STREET_WORDS[r.nextInt(STREET_WORDS.length)];
+    }
+
+    private static String road(Random r) {
+        return ROAD_TYPES[r.nextInt(ROAD_TYPES.length)];
+    }
+
+    private static String speed(Random r) {
+        return r.nextInt(3) == 0 ? SPEEDS[r.nextInt(SPEEDS.length)] : null;
+    }
+
+    private static void writeNode(Writer w, long id, double lon, double lat, String name)
+            throws IOException {
+        w.write(String.format(Locale.ROOT, "  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"",
+                id, lat, lon));
+        if (name == null) {
+            w.write("/>\n");
+        } else {
+            w.write(">\n    <tag k=\"name\" v=\"" + name + "\"/>\n  </node>\n");
+        }
+    }
+
+    private static void writeWay(Writer w, long id, long[] refs, String highway, String name,
+                                 String maxSpeed) throws IOException {
+        w.write("  <way id=\"" + id + "\">\n");
+        for (long ref : refs) {
+            w.write("    <nd ref=\"" + ref + "\"/>\n");
+        }
+        w.write("    <tag k=\"highway\" v=\"" + highway + "\"/>\n");
+        w.write("    <tag k=\"name\" v=\"" + name + "\"/>\n");
+        if (maxSpeed != null) {
+            w.write("    <tag k=\"maxspeed\" v=\"" + maxSpeed + "\"/>\n");
+        }
+        w.write("  </way>\n");
+    }
+}
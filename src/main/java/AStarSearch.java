@@ -0,0 +1,57 @@
+/**
+ * A* search over the dense int vertices of a CSRGraph, using the great-circle distance to
+ * the target, scaled to the unit of the edge weights, as the heuristic. Distances and
+ * parents live in primitive arrays and the frontier is an IndexMinPQ with decrease-key, so
+ * no objects are created per expanded vertex. The arrays belong to a per-thread SearchSpace
+ * that is reused across queries, so in steady state a query allocates only its result list.
+ */
+public class AStarSearch {
+    private static final ThreadLocal<SearchSpace> SPACE =
+            ThreadLocal.withInitial(SearchSpace::new);
+
+    /**
+     * Finds the shortest path from source to target.
+     * @param g The graph to search.
+     * @param source Dense index of the start vertex.
+     * @param target Dense index of the destination vertex.
+     * @return The path, its length, and the number of vertices settled.
+     */
+    static SearchResult search(CSRGraph g, int source, int target) {
+        SearchSpace s = SPACE.get();
+        s.prepare(g.size());
+        double targetLon = g.lon(target);
+        double targetLat = g.lat(target);
+
+        s.reach(source, 0.0, -1);
+        s.frontier.insertOrDecrease(source, g.estimate(source, targetLon, targetLat));
+        int settled = 0;
+        boolean found = false;
+        while (!s.frontier.isEmpty()) {
+            int v = s.frontier.delMin();
+            settled += 1;
+            if (v == target) {
+                found = true;
+                break;
+            }
+            s.settle(v);
+            double dist = s.dist[v];
+            for (int e = g.firstEdge(v), end = g.endEdge(v); e < end; e++) {
+                int w = g.target(e);
+                if (s.isSettled(w)) {
+                    continue;
+                }
+                double candidate = dist + g.weight(e);
+                if (!s.isReached(w) || candidate < s.dist[w]) {
+                    s.reach(w, candidate, v);
+                    s.frontier.insertOrDecrease(w,
+                            candidate + g.estimate(w, targetLon, targetLat));
+                }
+            }
+        }
+        s.frontier.clear();
+        if (!found) {
+            return SearchResult.none(settled);
+        }
+        return new SearchResult(s.path(g, target), s.dist[target], settled);
+    }
+}
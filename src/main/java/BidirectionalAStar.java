@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bidirectional A* over a CSRGraph: one search grows from the source toward the target
+ * while another grows from the target toward the source, and the route is found where they
+ * meet. Each side is ordered by the average potentials
+ * <pre>
+ *   pf(v) = (h_t(v) - h_s(v)) / 2  forward,   pr(v) = -pf(v)  reverse,
+ * </pre>
+ * where h_t and h_s are the scaled great-circle distances of CSRGraph.estimate to the
+ * target and to the source. Both are consistent because no edge costs less than its scaled
+ * great-circle length, and pf + pr = 0, so the search can stop as soon as topF + topR >= mu,
+ * where topF and topR are the smallest keys of the two frontiers and mu is the shortest
+ * path through any vertex reached from both sides so far. See Goldberg and Harrelson,
+ * "Computing the shortest path: A* search meets graph theory" (2005).
+ *
+ * The reverse search walks the same adjacency as the forward search, which is correct
+ * because every road is added to the graph in both directions.
+ */
+public class BidirectionalAStar {
+    private static final ThreadLocal<SearchSpace[]> SPACES =
+            ThreadLocal.withInitial(() -> new SearchSpace[]{new SearchSpace(),
+                new SearchSpace()});
+
+    /**
+     * Finds the shortest path from source to target.
+     * @param g The graph to search.
+     * @param source Dense index of the start vertex.
+     * @param target Dense index of the destination vertex.
+     * @return The path, its length, and the number of vertices settled by both sides.
+     */
+    static SearchResult search(CSRGraph g, int source, int target) {
+        SearchSpace[] spaces = SPACES.get();
+        SearchSpace fwd = spaces[0];
+        SearchSpace rev = spaces[1];
+        fwd.prepare(g.size());
+        rev.prepare(g.size());
+        double sLon = g.lon(source);
+        double sLat = g.lat(source);
+        double tLon = g.lon(target);
+        double tLat = g.lat(target);
+
+        fwd.reach(source, 0.0, -1);
+        fwd.frontier.insertOrDecrease(source, potential(g, source, sLon, sLat, tLon, tLat));
+        rev.reach(target, 0.0, -1);
+        rev.frontier.insertOrDecrease(target, -potential(g, target, sLon, sLat, tLon, tLat));
+        double mu = source == target ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = source == target ? source : -1;
+        int settled = 0;
+        boolean forward = true;
+
+        while (!fwd.frontier.isEmpty() && !rev.frontier.isEmpty()
+                && fwd.frontier.minKey() + rev.frontier.minKey() < mu) {
+            SearchSpace s = forward ? fwd : rev;
+            SearchSpace other = forward ? rev : fwd;
+            /* The reverse side is ordered by pr = -pf. */
+            double sign = forward ? 1.0 : -1.0;
+            int v = s.frontier.delMin();
+            s.settle(v);
+            settled += 1;
+            double dist = s.dist[v];
+            for (int e = g.firstEdge(v), end = g.endEdge(v); e < end; e++) {
+                int w = g.target(e);
+                if (s.isSettled(w)) {
+                    continue;
+                }
+                double candidate = dist + g.weight(e);
+                if (!s.isReached(w) || candidate < s.dist[w]) {
+                    s.reach(w, candidate, v);
+                    s.frontier.insertOrDecrease(w, candidate
+                            + sign * potential(g, w, sLon, sLat, tLon, tLat));
+                    if (other.isReached(w) && candidate + other.dist[w] < mu) {
+                        mu = candidate + other.dist[w];
+                        meet = w;
+                    }
+                }
+            }
+            /* Grow whichever side has the smaller frontier. */
+            forward = fwd.frontier.size() <= rev.frontier.size();
+        }
+        fwd.frontier.clear();
+        rev.frontier.clear();
+        if (meet < 0) {
+            return SearchResult.none(settled);
+        }
+
+        List<Long> path = new ArrayList<>();
+        fwd.appendReversed(g, meet, path);
+        Collections.reverse(path);
+        rev.appendReversed(g, rev.parent[meet], path);
+        return new SearchResult(path, mu, settled);
+    }
+
+    /** Returns the forward potential pf(v) = (h_t(v) - h_s(v)) / 2. */
+    private static double potential(CSRGraph g, int v, double sLon, double sLat, double tLon,
+                                    double tLat) {
+        return (g.estimate(v, tLon, tLat) - g.estimate(v, sLon, sLat)) / 2;
+    }
+}
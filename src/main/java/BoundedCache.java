@@ -0,0 +1,216 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache bounded by the total weight (usually bytes) of its values, evicting the
+ * least recently used entries first. Concurrent get calls for the same missing key are
+ * collapsed: one thread runs the loader and the others wait for its value instead of loading
+ * it again. Hit, miss and eviction counts are kept for monitoring.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class BoundedCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    /** Entries in access order, least recently used first. Guarded by itself. */
+    private final LinkedHashMap<K, Weighted<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    /** Loads in progress, so that other threads asking for the same key can wait for them. */
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param maxWeight The largest total weight the cache may hold.
+     * @param weigher Computes the weight of a value.
+     */
+    public BoundedCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value cached for key, loading it with loader if it is absent. If another
+     * thread is already loading the key, waits for that load instead. Null values are
+     * returned but not cached.
+     * @param key The key to look up.
+     * @param loader Computes the value of a missing key.
+     * @return The cached or loaded value.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        misses.incrementAndGet();
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+        try {
+            /* A load may have finished between the lookup above and claiming the key. */
+            value = peek(key);
+            if (value == null) {
+                value = loader.apply(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Returns the value cached for key, or null, counting a hit if it is present.
+     */
+    public V getIfPresent(K key) {
+        V value = peek(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Caches value under key, evicting least recently used entries if the cache is over its
+     * weight limit afterwards. A value heavier than the whole cache is not stored.
+     */
+    public void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            Weighted<V> old = entries.put(key, new Weighted<>(value, w));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += w;
+            Iterator<Weighted<V>> eldest = entries.values().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Removes the entry of key, if any. */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            Weighted<V> old = entries.remove(key);
+            if (old != null) {
+                weight -= old.weight;
+            }
+        }
+    }
+
+    /** Removes every entry whose key matches the predicate. */
+    public void invalidateIf(Predicate<? super K> predicate) {
+        synchronized (entries) {
+            Iterator<Map.Entry<K, Weighted<V>>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, Weighted<V>> entry = it.next();
+                if (predicate.test(entry.getKey())) {
+                    weight -= entry.getValue().weight;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Returns the number of cached entries. */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Returns the total weight of the cached entries. */
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the counters, suitable for encoding as Json:
+     * "hits", "misses", "evictions", "entries", "weight" and "max_weight".
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits());
+        stats.put("misses", misses());
+        stats.put("evictions", evictions());
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("weight", weight);
+        }
+        stats.put("max_weight", maxWeight);
+        return stats;
+    }
+
+    /** Looks up key without touching the counters. */
+    private V peek(K key) {
+        synchronized (entries) {
+            Weighted<V> entry = entries.get(key);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    private static class Weighted<V> {
+        final V value;
+        final long weight;
+
+        Weighted(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Frozen, compressed-sparse-row (CSR) form of the road graph. Vertices are renumbered to dense
+ * int indices 0..size()-1 in ascending OSM id order by an IdMap, which turns an index back
+ * into its OSM id with an array read and an OSM id into its index with a bucketed search. The
+ * neighbors of vertex v are the targets in
+ * targets[offsets[v]] .. targets[offsets[v + 1] - 1]. Coordinates live in parallel primitive
+ * columns, so the whole graph costs a handful of arrays instead of one boxed object per vertex
+ * and edge. The columns come from a ColumnStore, which keeps them either in heap arrays or in
+ * memory-mapped files; graphs derived from this one allocate theirs from the same store.
+ */
+public class CSRGraph {
+    /** Bytes of a primitive array header on a 64-bit JVM with compressed oops. */
+    private static final long ARRAY_HEADER_BYTES = 16;
+
+    private final ColumnStore store;
+    private final IdMap ids;
+    private final DoubleBuffer lons;
+    private final DoubleBuffer lats;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    /** Cost of each edge slot, by default its great-circle length, precomputed. */
+    private final DoubleBuffer weights;
+    /**
+     * Factor that turns a great-circle distance in miles into a lower bound on the cost of
+     * any path covering it; 1 when weights are lengths in miles.
+     */
+    private final double heuristicScale;
+
+    CSRGraph(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets) {
+        this(new IdMap(ids), lons, lats, offsets, targets);
+    }
+
+    CSRGraph(IdMap ids, double[] lons, double[] lats, int[] offsets, int[] targets) {
+        this(ids, DoubleBuffer.wrap(lons), DoubleBuffer.wrap(lats), IntBuffer.wrap(offsets),
+                IntBuffer.wrap(targets), ColumnStore.HEAP);
+    }
+
+    /**
+     * Creates a graph over columns of a store and computes its edge lengths in the same
+     * store.
+     * @param store The store the columns come from.
+     */
+    CSRGraph(IdMap ids, DoubleBuffer lons, DoubleBuffer lats, IntBuffer offsets,
+             IntBuffer targets, ColumnStore store) {
+        this.store = store;
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = store.doubles(targets.limit());
+        this.heuristicScale = 1.0;
+        for (int v = 0; v < ids.size(); v++) {
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                int w = targets.get(e);
+                weights.put(e, GraphDB.distance(lons.get(v), lats.get(v), lons.get(w),
+                        lats.get(w)));
+            }
+        }
+    }
+
+    private CSRGraph(IdMap ids, DoubleBuffer lons, DoubleBuffer lats, IntBuffer offsets,
+                     IntBuffer targets, DoubleBuffer weights, double heuristicScale,
+                     ColumnStore store) {
+        this.store = store;
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.heuristicScale = heuristicScale;
+    }
+
+    /**
+     * Returns this graph with its columns in another store, copying them unless they are
+     * already there.
+     * @param to The store to move to.
+     */
+    CSRGraph storedIn(ColumnStore to) {
+        if (to == store) {
+            return this;
+        }
+        return new CSRGraph(ids.storedIn(to), to.copyOf(lons), to.copyOf(lats),
+                to.copyOf(offsets), to.copyOf(targets), to.copyOf(weights), heuristicScale, to);
+    }
+
+    /**
+     * Returns a graph with the same vertices and edges but other edge costs. The columns of
+     * this graph are shared, not copied; the weights are copied into its store unless that
+     * keeps columns on the heap.
+     * @param weights Cost of each edge slot.
+     * @param heuristicScale Factor such that heuristicScale times the great-circle distance
+     *                       between two vertices never exceeds the cost of a path between
+     *                       them.
+     */
+    CSRGraph reweighted(double[] weights, double heuristicScale) {
+        if (weights.length != targets.limit()) {
+            throw new IllegalArgumentException("Expected " + targets.limit() + " weights, got "
+                    + weights.length);
+        }
+        DoubleBuffer column = DoubleBuffer.wrap(weights);
+        if (store.isMapped()) {
+            column = store.copyOf(column);
+        }
+        return new CSRGraph(ids, lons, lats, offsets, targets, column, heuristicScale, store);
+    }
+
+    /**
+     * Returns the graph over the same vertices with only some of the edge slots, in the
+     * same order. Vertex ids and coordinates are shared, not copied, so dense indices mean
+     * the same vertex in both graphs.
+     * @param keep Whether to keep each edge slot of this graph.
+     */
+    CSRGraph subgraph(boolean[] keep) {
+        int n = ids.size();
+        int kept = 0;
+        for (boolean k : keep) {
+            kept += k ? 1 : 0;
+        }
+        IntBuffer newOffsets = store.ints(n + 1);
+        IntBuffer newTargets = store.ints(kept);
+        DoubleBuffer newWeights = store.doubles(kept);
+        int i = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                if (keep[e]) {
+                    newTargets.put(i, targets.get(e));
+                    newWeights.put(i, weights.get(e));
+                    i += 1;
+                }
+            }
+            newOffsets.put(v + 1, i);
+        }
+        return new CSRGraph(ids, lons, lats, newOffsets, newTargets, newWeights,
+                heuristicScale, store);
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.size();
+    }
+
+    /** Returns the number of directed edges; every road contributes two. */
+    int numEdges() {
+        return targets.limit();
+    }
+
+    /**
+     * Returns the dense index of an OSM id.
+     * @param id The OSM id of the vertex.
+     * @return Its index, or -1 if the id is not a vertex of this graph.
+     */
+    int index(long id) {
+        return ids.index(id);
+    }
+
+    /** Returns the OSM id of the vertex with dense index v. */
+    long id(int v) {
+        return ids.id(v);
+    }
+
+    double lon(int v) {
+        return lons.get(v);
+    }
+
+    double lat(int v) {
+        return lats.get(v);
+    }
+
+    /** Returns the first edge slot of v. */
+    int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    /** Returns one past the last edge slot of v. */
+    int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    /** Returns the dense index of the head of edge slot e. */
+    int target(int e) {
+        return targets.get(e);
+    }
+
+    /**
+     * Returns the edge slot from v to w.
+     * @param v Dense index of the tail, or -1.
+     * @param w Dense index of the head, or -1.
+     * @return The slot, or -1 if there is no such edge.
+     */
+    int edge(int v, int w) {
+        if (v < 0 || w < 0) {
+            return -1;
+        }
+        /* Every producer of CSR arrays sorts the rows by target. */
+        int lo = offsets.get(v);
+        int hi = offsets.get(v + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int t = targets.get(mid);
+            if (t < w) {
+                lo = mid + 1;
+            } else if (t > w) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the cost of edge slot e; its length in miles unless reweighted. */
+    double weight(int e) {
+        return weights.get(e);
+    }
+
+    /**
+     * Returns a lower bound on the cost of any path from v to the point (lon, lat): the
+     * great-circle distance between them, scaled to the unit of the weights.
+     */
+    double estimate(int v, double lon, double lat) {
+        return heuristicScale * GraphDB.distance(lons.get(v), lats.get(v), lon, lat);
+    }
+
+    /** Returns the OSM ids of all vertices, in ascending order. */
+    Iterable<Long> ids() {
+        return () -> new IdIterator(0, ids.size(), false);
+    }
+
+    /** Returns the OSM ids of the vertices with at least one edge, in ascending order. */
+    Iterable<Long> connectedIds() {
+        return () -> new ConnectedIterator();
+    }
+
+    /** Returns the OSM ids of the neighbors of the vertex with dense index v. */
+    Iterable<Long> neighbors(int v) {
+        return () -> new IdIterator(offsets.get(v), offsets.get(v + 1), true);
+    }
+
+    /** Returns the store the columns of this graph come from. */
+    ColumnStore store() {
+        return store;
+    }
+
+    /** Returns the number of heap bytes held by the arrays of this graph. */
+    long footprintBytes() {
+        return ARRAY_HEADER_BYTES + ids.footprintBytes() + heapBytes(lons, 8)
+                + heapBytes(lats, 8) + heapBytes(offsets, 4) + heapBytes(targets, 4)
+                + heapBytes(weights, 8);
+    }
+
+    /** Returns the number of bytes of the columns of this graph held outside the heap. */
+    long mappedBytes() {
+        return ids.mappedBytes() + mappedBytes(lons, 8) + mappedBytes(lats, 8)
+                + mappedBytes(offsets, 4) + mappedBytes(targets, 4) + mappedBytes(weights, 8);
+    }
+
+    private static long heapBytes(Buffer column, int width) {
+        return column.hasArray() ? ARRAY_HEADER_BYTES + (long) width * column.capacity() : 0;
+    }
+
+    private static long mappedBytes(Buffer column, int width) {
+        return column.hasArray() ? 0 : (long) width * column.capacity();
+    }
+
+    /** Walks the vertices that have edges, boxing OSM ids lazily. */
+    private class ConnectedIterator implements Iterator<Long> {
+        private int next = advance(0);
+
+        private int advance(int v) {
+            while (v < ids.size() && offsets.get(v) == offsets.get(v + 1)) {
+                v += 1;
+            }
+            return v;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < ids.size();
+        }
+
+        @Override
+        public Long next() {
+            if (next >= ids.size()) {
+                throw new NoSuchElementException();
+            }
+            long id = ids.id(next);
+            next = advance(next + 1);
+            return id;
+        }
+    }
+
+    /** Walks a range of either vertex indices or edge slots, boxing OSM ids lazily. */
+    private class IdIterator implements Iterator<Long> {
+        private int next;
+        private final int end;
+        private final boolean edges;
+
+        IdIterator(int start, int end, boolean edges) {
+            this.next = start;
+            this.end = end;
+            this.edges = edges;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public Long next() {
+            if (next >= end) {
+                throw new NoSuchElementException();
+            }
+            int i = next;
+            next += 1;
+            return ids.id(edges ? targets.get(i) : i);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary files kept next to an OSM file: the graph snapshot, the
+ * contraction hierarchies and the landmark tables. Each is a big-endian body followed by
+ * the CRC32 of that body. Both directions go through a buffer of CHUNK_BYTES and map the
+ * large fixed-width columns, so neither needs memory in proportion to the file, and files
+ * larger than 2 GB are fine.
+ *
+ * A string is an int byte length, or -1 for null, followed by that many bytes of UTF-8.
+ */
+public class ChecksummedFile {
+    /** Bytes buffered at a time while a file is written or read. */
+    private static final int CHUNK_BYTES = 1 << 20;
+    /** Bytes mapped at a time to checksum a file. */
+    private static final long CHECKSUM_WINDOW = 1L << 30;
+
+    private ChecksummedFile() {
+    }
+
+    /** Writes the body of a file. */
+    interface Body {
+        void write(Output out) throws IOException;
+    }
+
+    /**
+     * Writes a file under a temporary name and moves it into place, so a reader never sees
+     * a partial file.
+     * @param file The file to create or replace.
+     * @param body Writes everything but the trailing CRC32.
+     */
+    static void write(Path file, Body body) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            body.write(out);
+            out.finish();
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether the last 8 bytes of a file hold the CRC32 of all bytes before them.
+     * The file is mapped CHECKSUM_WINDOW bytes at a time.
+     */
+    static boolean checksumMatches(FileChannel channel) throws IOException {
+        long body = channel.size() - 8;
+        if (body < 0) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        for (long p = 0; p < body; p += CHECKSUM_WINDOW) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, p,
+                    Math.min(CHECKSUM_WINDOW, body - p)));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, body, 8).getLong() == crc.getValue();
+    }
+
+    /**
+     * Writes big-endian values to a channel through a buffer of CHUNK_BYTES, keeping the
+     * CRC32 of everything written.
+     */
+    static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES);
+        private final CRC32 crc = new CRC32();
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Returns the buffer with room for at least bytes more, writing it out if needed. */
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+            return buf;
+        }
+
+        private void flush() throws IOException {
+            crc.update(buf.array(), 0, buf.position());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        void put(byte x) throws IOException {
+            room(1).put(x);
+        }
+
+        void putInt(int x) throws IOException {
+            room(4).putInt(x);
+        }
+
+        void putLong(long x) throws IOException {
+            room(8).putLong(x);
+        }
+
+        void putFloat(float x) throws IOException {
+            room(4).putFloat(x);
+        }
+
+        void putDouble(double x) throws IOException {
+            room(8).putDouble(x);
+        }
+
+        void putString(String s) throws IOException {
+            if (s == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int i = 0; i < bytes.length;) {
+                int count = Math.min(bytes.length - i, room(1).remaining());
+                buf.put(bytes, i, count);
+                i += count;
+            }
+        }
+
+        /** Writes out the buffer, followed by the CRC32 of everything written before. */
+        void finish() throws IOException {
+            flush();
+            buf.putLong(crc.getValue()).flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Reads big-endian values from a channel through a buffer of CHUNK_BYTES. Reading past
+     * the end of the file throws BufferUnderflowException, as reading past a buffer does.
+     */
+    static class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES);
+        /** File position of the byte after the last one in buf. */
+        private long end;
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buf.limit(0);
+        }
+
+        /** Returns the file position of the next byte to be read. */
+        long position() {
+            return end - buf.remaining();
+        }
+
+        /** Returns the buffer holding at least bytes unread bytes, reading more if needed. */
+        private ByteBuffer need(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                buf.compact();
+                while (buf.position() < bytes) {
+                    int read = channel.read(buf, end);
+                    if (read < 0) {
+                        throw new BufferUnderflowException();
+                    }
+                    end += read;
+                }
+                buf.flip();
+            }
+            return buf;
+        }
+
+        byte get() throws IOException {
+            return need(1).get();
+        }
+
+        int getInt() throws IOException {
+            return need(4).getInt();
+        }
+
+        long getLong() throws IOException {
+            return need(8).getLong();
+        }
+
+        float getFloat() throws IOException {
+            return need(4).getFloat();
+        }
+
+        double getDouble() throws IOException {
+            return need(8).getDouble();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] s = new byte[length];
+            for (int i = 0; i < length;) {
+                int count = Math.min(length - i, need(1).remaining());
+                buf.get(s, i, count);
+                i += count;
+            }
+            return new String(s, StandardCharsets.UTF_8);
+        }
+
+        /** Maps the next bytes of the file as one big-endian buffer and moves past them. */
+        ByteBuffer column(long bytes) throws IOException {
+            long start = position();
+            ByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, start, bytes)
+                    .order(ByteOrder.BIG_ENDIAN);
+            if (bytes <= buf.remaining()) {
+                buf.position(buf.position() + (int) bytes);
+            } else {
+                end = start + bytes;
+                buf.limit(0);
+            }
+            return column;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocates the primitive columns of CSR graphs and spatial indexes: coordinates, offsets,
+ * targets and weights, and the columns derived from them, such as landmark distances and
+ * vertex names. The heap store wraps ordinary arrays. The mapped store gives every
+ * column its own memory-mapped file in a scratch directory, so the data lives in the OS page
+ * cache instead of the Java heap: the heap a server needs no longer grows with the extract,
+ * and the collector never has to scan or copy the graph.
+ *
+ * The store is chosen at startup with -Dbearmaps.storage=heap (the default) or mapped; mapped
+ * columns go to -Dbearmaps.storageDir, by default the temporary directory. Each file is
+ * deleted as soon as it is mapped where the platform allows it, so nothing is left behind,
+ * and the pages return to the OS once the column is garbage. A mapping holds at most 2 GB,
+ * so a mapped column holds at most 268 million doubles.
+ *
+ * Columns are read with absolute get(i) only, which does not move the buffer's position,
+ * so any number of threads can share them once they are filled.
+ */
+public class ColumnStore {
+    /** Keeps columns in arrays on the heap. */
+    static final ColumnStore HEAP = new ColumnStore(null);
+    /** The store GraphDB keeps its graphs in, from -Dbearmaps.storage. */
+    static final ColumnStore CONFIGURED = fromProperties();
+
+    /** Where mapped columns are created, or null for the heap store. */
+    private final Path directory;
+
+    private ColumnStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a store that keeps each column in a memory-mapped file.
+     * @param directory The directory the files are created in.
+     */
+    static ColumnStore mapped(Path directory) {
+        return new ColumnStore(directory);
+    }
+
+    private static ColumnStore fromProperties() {
+        String storage = System.getProperty("bearmaps.storage", "heap");
+        switch (storage) {
+            case "heap":
+                return HEAP;
+            case "mapped":
+                return mapped(Paths.get(System.getProperty("bearmaps.storageDir",
+                        System.getProperty("java.io.tmpdir"))));
+            default:
+                throw new IllegalArgumentException("Unknown bearmaps.storage " + storage
+                        + "; expected heap or mapped");
+        }
+    }
+
+    /** Returns whether columns of this store live outside the heap. */
+    boolean isMapped() {
+        return directory != null;
+    }
+
+    /** Returns a zeroed column of n longs. */
+    LongBuffer longs(int n) {
+        return isMapped() ? map(8L * n).asLongBuffer() : LongBuffer.wrap(new long[n]);
+    }
+
+    /** Returns a zeroed column of n ints. */
+    IntBuffer ints(int n) {
+        return isMapped() ? map(4L * n).asIntBuffer() : IntBuffer.wrap(new int[n]);
+    }
+
+    /** Returns a zeroed column of n doubles. */
+    DoubleBuffer doubles(int n) {
+        return isMapped() ? map(8L * n).asDoubleBuffer() : DoubleBuffer.wrap(new double[n]);
+    }
+
+    /** Returns a zeroed column of n floats. */
+    FloatBuffer floats(int n) {
+        return isMapped() ? map(4L * n).asFloatBuffer() : FloatBuffer.wrap(new float[n]);
+    }
+
+    /** Returns a zeroed column of n bytes. */
+    ByteBuffer bytes(int n) {
+        return isMapped() ? map(n) : ByteBuffer.wrap(new byte[n]);
+    }
+
+    /** Returns a column of this store holding the remaining values of source. */
+    LongBuffer copyOf(LongBuffer source) {
+        LongBuffer column = longs(source.remaining());
+        column.put(source.duplicate()).flip();
+        return column;
+    }
+
+    /** Returns a column of this store holding the remaining values of source. */
+    IntBuffer copyOf(IntBuffer source) {
+        IntBuffer column = ints(source.remaining());
+        column.put(source.duplicate()).flip();
+        return column;
+    }
+
+    /** Returns a column of this store holding the remaining values of source. */
+    DoubleBuffer copyOf(DoubleBuffer source) {
+        DoubleBuffer column = doubles(source.remaining());
+        column.put(source.duplicate()).flip();
+        return column;
+    }
+
+    /** Returns a column of this store holding the remaining values of source. */
+    FloatBuffer copyOf(FloatBuffer source) {
+        FloatBuffer column = floats(source.remaining());
+        column.put(source.duplicate()).flip();
+        return column;
+    }
+
+    /** Returns a column of this store holding the remaining values of source. */
+    ByteBuffer copyOf(ByteBuffer source) {
+        ByteBuffer column = bytes(source.remaining());
+        column.put(source.duplicate()).flip();
+        return column;
+    }
+
+    /**
+     * Maps a new scratch file of the given size in native byte order.
+     * @throws UncheckedIOException If the file cannot be created or mapped.
+     */
+    private ByteBuffer map(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Column of " + bytes
+                    + " bytes exceeds one mapping");
+        }
+        try {
+            Path file = Files.createTempFile(directory, "bearmaps-", ".col");
+            ByteBuffer buf;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            }
+            try {
+                /* The mapping outlives the name on POSIX systems. */
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+            return buf.order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
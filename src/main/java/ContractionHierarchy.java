@@ -0,0 +1,579 @@
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contraction hierarchy over a CSRGraph, for routes whose query time hardly depends on the
+ * size of the map. Preprocessing contracts the vertices one at a time, least important
+ * first, where importance is the edge difference: the number of shortcuts contracting a
+ * vertex would add minus the number of edges it removes, plus the number of its neighbors
+ * already contracted and its depth in the hierarchy so far, which spread contraction evenly
+ * over the map. Priorities are updated lazily, when a vertex comes up for contraction.
+ * Contracting v adds a shortcut u-w for each pair of its neighbors whose shortest connection
+ * runs through v, as determined by a bounded witness search. The rank of a vertex is its
+ * position in this order.
+ *
+ * Every edge, original or shortcut, is stored once, at its lower-ranked end, so the
+ * upward graph is a CSR graph of edges toward higher rank. Because the road graph is
+ * undirected, the downward graph is the same set of edges read the other way, and a query
+ * runs Dijkstra upward from both the source and the target; the two searches meet at the
+ * highest-ranked vertex of the shortest path. Both searches stall vertices that are
+ * provably reached suboptimally ("stall-on-demand"). A shortcut remembers the vertex it
+ * bypasses, so the route is unpacked back to original edges at the end.
+ *
+ * The rank and upward-graph columns come from the ColumnStore of the graph, like its own
+ * columns, so a mapped store keeps the hierarchy off the heap too. Contraction itself still
+ * works on adjacency arrays on the heap; that is skipped when the hierarchy is read from its
+ * file.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x424d4348;
+    /** Bump whenever the file layout or the meaning of a field changes. */
+    static final int VERSION = 1;
+    /** Bytes of the fixed-size header, from MAGIC through the number of upward edges. */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    /** Middle vertex of an original edge. */
+    private static final int NO_MIDDLE = -1;
+    /**
+     * Number of vertices a witness search may settle. Stopping early only adds shortcuts
+     * that were not strictly needed, so it trades a larger hierarchy for faster
+     * preprocessing.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final ThreadLocal<SearchSpace[]> SPACES =
+            ThreadLocal.withInitial(() -> new SearchSpace[]{new SearchSpace(),
+                new SearchSpace()});
+
+    private final CSRGraph g;
+    /** Contraction order of each vertex; higher is more important. */
+    private final IntBuffer rank;
+    /** Upward edges of v are upTargets[upOffsets[v]] .. upTargets[upOffsets[v + 1] - 1]. */
+    private final IntBuffer upOffsets;
+    private final IntBuffer upTargets;
+    private final DoubleBuffer upWeights;
+    /** Vertex bypassed by each upward edge, or NO_MIDDLE for an original edge. */
+    private final IntBuffer upMiddles;
+
+    private ContractionHierarchy(CSRGraph g, IntBuffer rank, IntBuffer upOffsets,
+                                 IntBuffer upTargets, DoubleBuffer upWeights,
+                                 IntBuffer upMiddles) {
+        this.g = g;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    /**
+     * Contracts g into a hierarchy.
+     * @param g The graph; every edge must be present in both directions with equal weight.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy build(CSRGraph g) {
+        return new Builder(g).contract();
+    }
+
+    /** Returns the number of upward edges that are shortcuts. */
+    int numShortcuts() {
+        int shortcuts = 0;
+        for (int e = 0; e < upMiddles.limit(); e++) {
+            if (upMiddles.get(e) != NO_MIDDLE) {
+                shortcuts += 1;
+            }
+        }
+        return shortcuts;
+    }
+
+    /** Returns the number of upward edges, original and shortcut. */
+    int numEdges() {
+        return upTargets.limit();
+    }
+
+    /** Returns the number of bytes of the columns of this hierarchy held outside the heap. */
+    long mappedBytes() {
+        return g.store().isMapped() ? 4L * (2 * g.size() + 1) + 16L * numEdges() : 0;
+    }
+
+    /**
+     * Finds the shortest path from source to target.
+     * @param source Dense index of the start vertex.
+     * @param target Dense index of the destination vertex.
+     * @return The path, its length, and the number of vertices settled by both searches.
+     */
+    SearchResult search(int source, int target) {
+        SearchSpace[] spaces = SPACES.get();
+        SearchSpace fwd = spaces[0];
+        SearchSpace rev = spaces[1];
+        fwd.prepare(g.size());
+        rev.prepare(g.size());
+        fwd.reach(source, 0.0, -1);
+        fwd.frontier.insertOrDecrease(source, 0.0);
+        rev.reach(target, 0.0, -1);
+        rev.frontier.insertOrDecrease(target, 0.0);
+        double mu = source == target ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = source == target ? source : -1;
+        int settled = 0;
+        boolean forward = true;
+
+        while (true) {
+            boolean fwdDone = fwd.frontier.isEmpty() || fwd.frontier.minKey() >= mu;
+            boolean revDone = rev.frontier.isEmpty() || rev.frontier.minKey() >= mu;
+            if (fwdDone && revDone) {
+                break;
+            }
+            if (fwdDone || revDone) {
+                forward = revDone;
+            }
+            SearchSpace s = forward ? fwd : rev;
+            SearchSpace other = forward ? rev : fwd;
+            forward = !forward;
+
+            int v = s.frontier.delMin();
+            s.settle(v);
+            settled += 1;
+            double dist = s.dist[v];
+            if (isStalled(s, v, dist)) {
+                continue;
+            }
+            for (int e = upOffsets.get(v), end = upOffsets.get(v + 1); e < end; e++) {
+                int w = upTargets.get(e);
+                double candidate = dist + upWeights.get(e);
+                if (!s.isReached(w) || candidate < s.dist[w]) {
+                    s.reach(w, candidate, v);
+                    s.frontier.insertOrDecrease(w, candidate);
+                    if (other.isReached(w) && candidate + other.dist[w] < mu) {
+                        mu = candidate + other.dist[w];
+                        meet = w;
+                    }
+                }
+            }
+        }
+        fwd.frontier.clear();
+        rev.frontier.clear();
+        if (meet < 0) {
+            return SearchResult.none(settled);
+        }
+
+        /* The searches' parent chains run up the hierarchy from source and target. */
+        List<Integer> up = new ArrayList<>();
+        for (int v = meet; v >= 0; v = fwd.parent[v]) {
+            up.add(v);
+        }
+        Collections.reverse(up);
+        for (int v = rev.parent[meet]; v >= 0; v = rev.parent[v]) {
+            up.add(v);
+        }
+        List<Long> path = new ArrayList<>();
+        path.add(g.id(source));
+        for (int i = 0; i + 1 < up.size(); i++) {
+            unpack(up.get(i), up.get(i + 1), path);
+        }
+        return new SearchResult(path, mu, settled);
+    }
+
+    /**
+     * Returns whether v is reached more cheaply through a higher-ranked neighbor than by
+     * its current parent, in which case its upward edges cannot lie on a shortest path.
+     * In an undirected hierarchy, the edges from higher-ranked vertices down to v are
+     * exactly v's upward edges.
+     */
+    private boolean isStalled(SearchSpace s, int v, double dist) {
+        for (int e = upOffsets.get(v), end = upOffsets.get(v + 1); e < end; e++) {
+            int u = upTargets.get(e);
+            if (s.isReached(u) && s.dist[u] + upWeights.get(e) < dist) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the OSM ids of the original path behind the edge a-b, excluding a itself.
+     */
+    private void unpack(int a, int b, List<Long> path) {
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = a;
+        stack[top++] = b;
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            int middle = upMiddles.get(edge(x, y));
+            if (middle == NO_MIDDLE) {
+                path.add(g.id(y));
+                continue;
+            }
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            /* Push the second half first so the first half is unpacked first. */
+            stack[top++] = middle;
+            stack[top++] = y;
+            stack[top++] = x;
+            stack[top++] = middle;
+        }
+    }
+
+    /** Returns the upward edge between a and b, which is stored at the lower-ranked one. */
+    private int edge(int a, int b) {
+        int low = rank.get(a) < rank.get(b) ? a : b;
+        int high = low == a ? b : a;
+        for (int e = upOffsets.get(low), end = upOffsets.get(low + 1); e < end; e++) {
+            if (upTargets.get(e) == high) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No edge between " + g.id(a) + " and " + g.id(b));
+    }
+
+    /**
+     * Returns where the car hierarchy of an OSM file is kept: next to it, with a .ch suffix.
+     */
+    static Path pathFor(Path source) {
+        return pathFor(source, Router.Profile.CAR, Router.Weighting.DISTANCE);
+    }
+
+    /**
+     * Returns where the hierarchy of a profile's graph under a weighting is kept: next to
+     * the OSM file, with a .ch suffix (see GraphDB.pathFor).
+     */
+    static Path pathFor(Path source, Router.Profile profile, Router.Weighting weighting) {
+        return GraphDB.pathFor(source, profile, weighting, ".ch");
+    }
+
+    /**
+     * Writes this hierarchy. The layout, big-endian, is MAGIC, VERSION, the source CRC32
+     * and length, the number of vertices, of graph edges and of upward edges, then rank,
+     * upOffsets, upTargets, upWeights and upMiddles, and a CRC32 of everything before it
+     * (see ChecksummedFile).
+     * @param file The file to create or replace.
+     * @param sourceChecksum CRC32 of the OSM file the graph was built from.
+     * @param sourceLength Length in bytes of the OSM file the graph was built from.
+     */
+    void write(Path file, long sourceChecksum, long sourceLength) throws IOException {
+        ChecksummedFile.write(file, out -> {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(sourceChecksum);
+            out.putLong(sourceLength);
+            out.putInt(g.size());
+            out.putInt(g.numEdges());
+            out.putInt(upTargets.limit());
+            for (IntBuffer column : new IntBuffer[] {rank, upOffsets, upTargets}) {
+                for (int i = 0; i < column.limit(); i++) {
+                    out.putInt(column.get(i));
+                }
+            }
+            for (int e = 0; e < upWeights.limit(); e++) {
+                out.putDouble(upWeights.get(e));
+            }
+            for (int e = 0; e < upMiddles.limit(); e++) {
+                out.putInt(upMiddles.get(e));
+            }
+        });
+    }
+
+    /**
+     * Loads a hierarchy written by write.
+     * @param file The file.
+     * @param g The graph the hierarchy was built over.
+     * @param sourceChecksum CRC32 the source OSM file has now.
+     * @param sourceLength Length the source OSM file has now.
+     * @return The hierarchy, or null if the file is missing, of another version, built for
+     *         a different graph, or damaged.
+     */
+    static ContractionHierarchy read(Path file, CSRGraph g, long sourceChecksum,
+                                     long sourceLength) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChecksummedFile.Input in = new ChecksummedFile.Input(channel);
+            if (channel.size() < HEADER_BYTES + 8 || in.getInt() != MAGIC
+                    || in.getInt() != VERSION || in.getLong() != sourceChecksum
+                    || in.getLong() != sourceLength || in.getInt() != g.size()
+                    || in.getInt() != g.numEdges()) {
+                return null;
+            }
+            int n = g.size();
+            int m = in.getInt();
+            long expected = HEADER_BYTES + 4L * n + 4L * (n + 1) + 16L * m + 8;
+            if (m < 0 || channel.size() != expected
+                    || !ChecksummedFile.checksumMatches(channel)) {
+                return null;
+            }
+
+            ColumnStore store = g.store();
+            IntBuffer rank = store.copyOf(in.column(4L * n).asIntBuffer());
+            IntBuffer upOffsets = store.copyOf(in.column(4L * (n + 1)).asIntBuffer());
+            IntBuffer upTargets = store.copyOf(in.column(4L * m).asIntBuffer());
+            DoubleBuffer upWeights = store.copyOf(in.column(8L * m).asDoubleBuffer());
+            IntBuffer upMiddles = store.copyOf(in.column(4L * m).asIntBuffer());
+            return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights,
+                    upMiddles);
+        } catch (RuntimeException e) {
+            /* A buffer underflow means the file does not match its header. */
+            return null;
+        }
+    }
+
+    /**
+     * Mutable adjacency lists of the remaining graph during contraction. Contracted
+     * vertices are removed from their neighbors' lists, so a list only ever holds
+     * uncontracted vertices.
+     */
+    private static class Builder {
+        private final CSRGraph g;
+        private final int n;
+        private final int[][] neighbors;
+        private final double[][] weights;
+        private final int[][] middles;
+        private final int[] degree;
+        private final int[] contractedNeighbors;
+        /** Number of levels of contracted vertices below each vertex. */
+        private final int[] depth;
+        private final int[] rank;
+        /** Upward edges of each contracted vertex: its remaining edges when contracted. */
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+        private final SearchSpace witness = new SearchSpace();
+        /** Generation of the witness search for which each vertex is a target. */
+        private final int[] isTarget;
+        /** Shortcuts found by the last call to shortcuts, as (u, w) pairs and weights. */
+        private int[] pairs = new int[16];
+        private double[] pairWeights = new double[8];
+        private int numPairs;
+
+        Builder(CSRGraph g) {
+            this.g = g;
+            n = g.size();
+            neighbors = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            contractedNeighbors = new int[n];
+            depth = new int[n];
+            rank = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            isTarget = new int[n];
+            for (int v = 0; v < n; v++) {
+                int capacity = Math.max(4, g.endEdge(v) - g.firstEdge(v));
+                neighbors[v] = new int[capacity];
+                weights[v] = new double[capacity];
+                middles[v] = new int[capacity];
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    if (g.target(e) != v) {
+                        connect(v, g.target(e), g.weight(e), NO_MIDDLE);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy contract() {
+            IndexMinPQ queue = new IndexMinPQ(n);
+            for (int v = 0; v < n; v++) {
+                queue.insertOrDecrease(v, priority(v));
+            }
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.delMin();
+                /* Priorities go stale as the graph changes; re-check before contracting. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.minKey()) {
+                    queue.insertOrDecrease(v, p);
+                    continue;
+                }
+                /* priority(v) left the shortcuts v needs in pairs. */
+                contractVertex(v);
+                rank[v] = next;
+                next += 1;
+                /* Only bump the neighbors' priorities by their new contracted neighbor;
+                 * recomputing their edge differences here would cost a witness search per
+                 * pair of their neighbors, and the check above catches them when stale. */
+                for (int i = 0; i < upTargets[v].length; i++) {
+                    int u = upTargets[v][i];
+                    contractedNeighbors[u] += 1;
+                    depth[u] = Math.max(depth[u], depth[v] + 1);
+                    queue.changeKey(u, queue.key(u) + 1);
+                }
+            }
+
+            /* Pack the upward edges into columns of the graph's store. */
+            ColumnStore store = g.store();
+            IntBuffer offsets = store.ints(n + 1);
+            for (int v = 0; v < n; v++) {
+                offsets.put(v + 1, offsets.get(v) + upTargets[v].length);
+            }
+            int m = offsets.get(n);
+            IntBuffer targets = store.ints(m);
+            DoubleBuffer edgeWeights = store.doubles(m);
+            IntBuffer edgeMiddles = store.ints(m);
+            for (int v = 0; v < n; v++) {
+                int first = offsets.get(v);
+                for (int i = 0; i < upTargets[v].length; i++) {
+                    targets.put(first + i, upTargets[v][i]);
+                    edgeWeights.put(first + i, upWeights[v][i]);
+                    edgeMiddles.put(first + i, upMiddles[v][i]);
+                }
+            }
+            return new ContractionHierarchy(g, store.copyOf(IntBuffer.wrap(rank)), offsets,
+                    targets, edgeWeights, edgeMiddles);
+        }
+
+        /**
+         * Returns the edge difference of v plus its number of contracted neighbors and its
+         * depth, the length of the longest chain of contracted vertices below it.
+         */
+        private double priority(int v) {
+            return shortcuts(v) - degree[v] + contractedNeighbors[v] + depth[v];
+        }
+
+        /**
+         * Finds the shortcuts that contracting v would need, leaving them in pairs.
+         * @return The number of shortcuts.
+         */
+        private int shortcuts(int v) {
+            numPairs = 0;
+            int d = degree[v];
+            for (int i = 0; i < d - 1; i++) {
+                int u = neighbors[v][i];
+                double toU = weights[v][i];
+                double limit = 0;
+                for (int j = i + 1; j < d; j++) {
+                    limit = Math.max(limit, toU + weights[v][j]);
+                }
+                witnessSearch(u, v, i + 1, limit);
+                for (int j = i + 1; j < d; j++) {
+                    int w = neighbors[v][j];
+                    double via = toU + weights[v][j];
+                    if (!witness.isReached(w) || witness.dist[w] > via) {
+                        addPair(u, w, via);
+                    }
+                }
+            }
+            return numPairs;
+        }
+
+        /**
+         * Runs Dijkstra from u in the remaining graph without v, until the neighbors of v
+         * from index first on are settled, the distance exceeds limit, or
+         * WITNESS_SETTLE_LIMIT vertices are settled.
+         */
+        private void witnessSearch(int u, int v, int first, double limit) {
+            witness.prepare(n);
+            int remaining = degree[v] - first;
+            for (int j = first; j < degree[v]; j++) {
+                isTarget[neighbors[v][j]] = witness.generation;
+            }
+            witness.reach(u, 0.0, -1);
+            witness.frontier.insertOrDecrease(u, 0.0);
+            int settled = 0;
+            while (!witness.frontier.isEmpty() && settled < WITNESS_SETTLE_LIMIT
+                    && witness.frontier.minKey() <= limit) {
+                int x = witness.frontier.delMin();
+                settled += 1;
+                if (isTarget[x] == witness.generation) {
+                    remaining -= 1;
+                    if (remaining == 0) {
+                        break;
+                    }
+                }
+                double dist = witness.dist[x];
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = neighbors[x][i];
+                    double candidate = dist + weights[x][i];
+                    if (y != v && (!witness.isReached(y) || candidate < witness.dist[y])) {
+                        witness.reach(y, candidate, x);
+                        witness.frontier.insertOrDecrease(y, candidate);
+                    }
+                }
+            }
+            witness.frontier.clear();
+        }
+
+        private void addPair(int u, int w, double weight) {
+            if (2 * numPairs + 2 > pairs.length) {
+                pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+                pairWeights = Arrays.copyOf(pairWeights, 2 * pairWeights.length);
+            }
+            pairs[2 * numPairs] = u;
+            pairs[2 * numPairs + 1] = w;
+            pairWeights[numPairs] = weight;
+            numPairs += 1;
+        }
+
+        /**
+         * Adds the shortcuts in pairs, which must have been found for v by the last call to
+         * shortcuts, records v's remaining edges as its upward edges, and removes v from the
+         * remaining graph.
+         */
+        private void contractVertex(int v) {
+            for (int i = 0; i < numPairs; i++) {
+                int u = pairs[2 * i];
+                int w = pairs[2 * i + 1];
+                connect(u, w, pairWeights[i], v);
+                connect(w, u, pairWeights[i], v);
+            }
+            int d = degree[v];
+            upTargets[v] = Arrays.copyOf(neighbors[v], d);
+            upWeights[v] = Arrays.copyOf(weights[v], d);
+            upMiddles[v] = Arrays.copyOf(middles[v], d);
+            for (int i = 0; i < d; i++) {
+                disconnect(neighbors[v][i], v);
+            }
+            neighbors[v] = null;
+            weights[v] = null;
+            middles[v] = null;
+            degree[v] = 0;
+        }
+
+        /** Adds the edge a-b, or lowers its weight if it exists with a larger one. */
+        private void connect(int a, int b, double weight, int middle) {
+            for (int i = 0; i < degree[a]; i++) {
+                if (neighbors[a][i] == b) {
+                    if (weight < weights[a][i]) {
+                        weights[a][i] = weight;
+                        middles[a][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[a] == neighbors[a].length) {
+                int capacity = 2 * degree[a];
+                neighbors[a] = Arrays.copyOf(neighbors[a], capacity);
+                weights[a] = Arrays.copyOf(weights[a], capacity);
+                middles[a] = Arrays.copyOf(middles[a], capacity);
+            }
+            neighbors[a][degree[a]] = b;
+            weights[a][degree[a]] = weight;
+            middles[a][degree[a]] = middle;
+            degree[a] += 1;
+        }
+
+        /** Removes b from the list of a. */
+        private void disconnect(int a, int b) {
+            for (int i = 0; i < degree[a]; i++) {
+                if (neighbors[a][i] == b) {
+                    int last = degree[a] - 1;
+                    neighbors[a][i] = neighbors[a][last];
+                    weights[a][i] = weights[a][last];
+                    middles[a][i] = middles[a][last];
+                    degree[a] = last;
+                    return;
+                }
+            }
+        }
+    }
+}
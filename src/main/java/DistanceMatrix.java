@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * Shortest-path distances between every source and every target of a batch, as needed for
+ * ETAs from a depot to many stops. Each source grows a single Dijkstra tree that stops once
+ * every distinct target vertex is settled, instead of one search per source and target
+ * pair. The trees reuse one per-thread SearchSpace, so a matrix allocates only its result.
+ */
+public class DistanceMatrix {
+    /** Entry of the matrix for a target that cannot be reached from the source. */
+    static final double UNREACHABLE = -1;
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Computes the distance from each source to each target.
+     * @param g The graph to search.
+     * @param sources Dense indices of the source vertices.
+     * @param targets Dense indices of the target vertices; may repeat.
+     * @return matrix[i][j] is the length of the shortest path from sources[i] to
+     *         targets[j], or UNREACHABLE.
+     */
+    static double[][] compute(CSRGraph g, int[] sources, int[] targets) {
+        double[][] matrix = new double[sources.length][];
+        for (int i = 0; i < sources.length; i++) {
+            matrix[i] = oneToMany(g, sources[i], targets);
+        }
+        return matrix;
+    }
+
+    /**
+     * Computes the distance from source to each target with one Dijkstra search.
+     * @param g The graph to search.
+     * @param source Dense index of the source vertex.
+     * @param targets Dense indices of the target vertices; may repeat.
+     * @return The distance to each target, or UNREACHABLE.
+     */
+    static double[] oneToMany(CSRGraph g, int source, int[] targets) {
+        State state = STATE.get();
+        SearchSpace s = state.space;
+        s.prepare(g.size());
+        if (state.isTarget.length < g.size()) {
+            state.isTarget = new int[g.size()];
+        }
+        int[] isTarget = state.isTarget;
+        int remaining = 0;
+        for (int t : targets) {
+            if (isTarget[t] != s.generation) {
+                isTarget[t] = s.generation;
+                remaining += 1;
+            }
+        }
+
+        s.reach(source, 0.0, -1);
+        s.frontier.insertOrDecrease(source, 0.0);
+        while (remaining > 0 && !s.frontier.isEmpty()) {
+            int v = s.frontier.delMin();
+            s.settle(v);
+            if (isTarget[v] == s.generation) {
+                remaining -= 1;
+            }
+            double dist = s.dist[v];
+            for (int e = g.firstEdge(v), end = g.endEdge(v); e < end; e++) {
+                int w = g.target(e);
+                double candidate = dist + g.weight(e);
+                if (!s.isSettled(w) && (!s.isReached(w) || candidate < s.dist[w])) {
+                    s.reach(w, candidate, v);
+                    s.frontier.insertOrDecrease(w, candidate);
+                }
+            }
+        }
+        s.frontier.clear();
+
+        double[] row = new double[targets.length];
+        Arrays.fill(row, UNREACHABLE);
+        for (int j = 0; j < targets.length; j++) {
+            if (s.isSettled(targets[j])) {
+                row[j] = s.dist[targets[j]];
+            }
+        }
+        return row;
+    }
+
+    /** Scratch space for one thread's searches. */
+    private static class State {
+        private final SearchSpace space = new SearchSpace();
+        /** Generation of the search for which each vertex is a target. */
+        private int[] isTarget = new int[0];
+    }
+}
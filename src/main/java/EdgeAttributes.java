@@ -0,0 +1,298 @@
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Attributes of the way each CSR edge belongs to: its name, highway class, speed limit and
+ * the Router.Profile mask of the ways of travel allowed on it. Ways that agree on all four
+ * share one record, so the store is an int record index per edge slot plus a small table of
+ * distinct records; a city has far fewer distinct records than ways. Names are interned, so
+ * equal names are the same String and can be compared by reference. Every read is a
+ * lookup in the record column and the table. The record column comes from a ColumnStore,
+ * like the columns of the CSRGraph it describes, so a mapped store keeps it off the heap.
+ */
+public class EdgeAttributes {
+    /** Record index of an edge that belongs to no way. */
+    static final int NO_WAY = -1;
+    /**
+     * Highway classes, stored by position. Bump GraphSnapshot.VERSION if this list changes.
+     */
+    static final String[] HIGHWAY_CLASSES = {"motorway", "trunk", "primary", "secondary",
+        "tertiary", "unclassified", "residential", "living_street", "motorway_link",
+        "trunk_link", "primary_link", "secondary_link", "tertiary_link", "service", "track",
+        "path", "cycleway", "footway", "pedestrian", "steps"};
+    /** Profile mask of an edge that belongs to no way: every profile may use it. */
+    private static final byte ALL_PROFILES = (byte) ((1 << Router.Profile.values().length) - 1);
+    private static final double KMH_PER_MPH = 1.609344;
+
+    /** Record of each edge slot, or NO_WAY; a column of store. */
+    private final IntBuffer edgeWays;
+    private final ColumnStore store;
+    /** Name of each record, or null. */
+    private final String[] names;
+    /** Position in HIGHWAY_CLASSES of each record, or -1. */
+    private final byte[] highways;
+    /** Speed limit of each record in miles per hour, or NaN if unknown. */
+    private final float[] maxSpeeds;
+    /** Mask of the Router.Profile bits of each record. */
+    private final byte[] profiles;
+
+    EdgeAttributes(int[] edgeWays, String[] names, byte[] highways, float[] maxSpeeds,
+                   byte[] profiles) {
+        this(IntBuffer.wrap(edgeWays), names, highways, maxSpeeds, profiles, ColumnStore.HEAP);
+    }
+
+    /**
+     * Creates attributes whose per-edge record column comes from a store.
+     * @param edgeWays Record of each edge slot, or NO_WAY; a column of store.
+     * @param store The store the column comes from.
+     */
+    EdgeAttributes(IntBuffer edgeWays, String[] names, byte[] highways, float[] maxSpeeds,
+                   byte[] profiles, ColumnStore store) {
+        this.edgeWays = edgeWays;
+        this.names = names;
+        this.highways = highways;
+        this.maxSpeeds = maxSpeeds;
+        this.profiles = profiles;
+        this.store = store;
+    }
+
+    /**
+     * Returns these attributes with the per-edge record column in another store, copying it
+     * unless it is already there. The record table is shared.
+     * @param to The store to move to.
+     */
+    EdgeAttributes storedIn(ColumnStore to) {
+        if (to == store) {
+            return this;
+        }
+        return new EdgeAttributes(to.copyOf(edgeWays), names, highways, maxSpeeds, profiles,
+                to);
+    }
+
+    /**
+     * Returns the attributes of the edge slots that are kept, in the same order, sharing
+     * the record table, with the column in the same store. Matches CSRGraph.subgraph with
+     * the same mask.
+     * @param keep Whether to keep each edge slot.
+     */
+    EdgeAttributes subset(boolean[] keep) {
+        int m = 0;
+        for (boolean k : keep) {
+            m += k ? 1 : 0;
+        }
+        IntBuffer kept = store.ints(m);
+        int i = 0;
+        for (int e = 0; e < keep.length; e++) {
+            if (keep[e]) {
+                kept.put(i, edgeWays.get(e));
+                i += 1;
+            }
+        }
+        return new EdgeAttributes(kept, names, highways, maxSpeeds, profiles, store);
+    }
+
+    /** Returns whether a profile may use edge slot e. */
+    boolean allows(int e, Router.Profile profile) {
+        int way = edgeWays.get(e);
+        return ((way == NO_WAY ? ALL_PROFILES : profiles[way]) & profile.bit()) != 0;
+    }
+
+    /** Returns the record of edge slot e, or NO_WAY. */
+    int way(int e) {
+        return edgeWays.get(e);
+    }
+
+    /** Returns the number of distinct records. */
+    int numWays() {
+        return names.length;
+    }
+
+    /** Returns the way name of edge slot e, or null if it is unnamed. */
+    String name(int e) {
+        int way = edgeWays.get(e);
+        return way == NO_WAY ? null : names[way];
+    }
+
+    /** Returns the highway class of edge slot e, or null if it is unknown. */
+    String highway(int e) {
+        int way = edgeWays.get(e);
+        return way == NO_WAY || highways[way] < 0 ? null : HIGHWAY_CLASSES[highways[way]];
+    }
+
+    /** Returns the speed limit of edge slot e in miles per hour, or NaN if it is unknown. */
+    double maxSpeed(int e) {
+        int way = edgeWays.get(e);
+        return way == NO_WAY ? Double.NaN : maxSpeeds[way];
+    }
+
+    /** Returns the name of record i, or null. */
+    String recordName(int i) {
+        return names[i];
+    }
+
+    /** Returns the highway class position of record i, or -1. */
+    byte recordHighway(int i) {
+        return highways[i];
+    }
+
+    /** Returns the speed limit of record i in miles per hour, or NaN. */
+    float recordMaxSpeed(int i) {
+        return maxSpeeds[i];
+    }
+
+    /** Returns the profile mask of record i. */
+    byte recordProfiles(int i) {
+        return profiles[i];
+    }
+
+    /** Returns the heap bytes held by the per-edge indices and the record table. */
+    long footprintBytes() {
+        return (edgeWays.hasArray() ? 4L * edgeWays.capacity() : 0) + 10L * names.length;
+    }
+
+    /** Returns the bytes of the per-edge indices held outside the heap. */
+    long mappedBytes() {
+        return edgeWays.hasArray() ? 0 : 4L * edgeWays.capacity();
+    }
+
+    /**
+     * Parses an OSM maxspeed value: a number of km/h, or a number followed by "mph".
+     * @param maxSpeed The tag value, or null.
+     * @return The speed in miles per hour, or NaN if it is missing or not numeric, such as
+     *         "none" or "signals".
+     */
+    static float parseMaxSpeed(String maxSpeed) {
+        if (maxSpeed == null) {
+            return Float.NaN;
+        }
+        String s = maxSpeed.trim().toLowerCase(Locale.ROOT);
+        boolean mph = s.endsWith("mph");
+        if (mph) {
+            s = s.substring(0, s.length() - 3);
+        } else if (s.endsWith("km/h")) {
+            s = s.substring(0, s.length() - 4);
+        }
+        try {
+            double speed = Double.parseDouble(s.trim());
+            return (float) (mph ? speed : speed / KMH_PER_MPH);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    /** Returns the position of a highway class in HIGHWAY_CLASSES, or -1. */
+    static byte highwayClass(String highway) {
+        if (highway != null) {
+            for (int i = 0; i < HIGHWAY_CLASSES.length; i++) {
+                if (HIGHWAY_CLASSES[i].equals(highway)) {
+                    return (byte) i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** The attributes a record stands for, as a key of EdgeAttributes.Builder. */
+    private static final class Record {
+        private final String name;
+        private final byte highway;
+        private final float maxSpeed;
+        private final byte profiles;
+
+        Record(String name, byte highway, float maxSpeed, byte profiles) {
+            this.name = name;
+            this.highway = highway;
+            this.maxSpeed = maxSpeed;
+            this.profiles = profiles;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            Record other = (Record) o;
+            /* Compares bits, so that unknown (NaN) speed limits are equal. */
+            return Objects.equals(name, other.name) && highway == other.highway
+                    && Float.floatToIntBits(maxSpeed) == Float.floatToIntBits(other.maxSpeed)
+                    && profiles == other.profiles;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, highway, maxSpeed, profiles);
+        }
+    }
+
+    /** Collects the distinct way records while a graph is built. */
+    static class Builder {
+        private final Map<String, String> interned = new HashMap<>();
+        private final Map<Record, Integer> records = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private byte[] highways = new byte[16];
+        private float[] maxSpeeds = new float[16];
+        private byte[] profiles = new byte[16];
+
+        /**
+         * Returns the record for a way, adding it if no earlier way had the same attributes.
+         * @param way The way.
+         * @return The record index to store on each of its edges.
+         */
+        int add(GraphDB.Way way) {
+            byte highway = highwayClass(way.highway);
+            float maxSpeed = parseMaxSpeed(way.maxSpeed);
+            byte mask = (byte) Router.Profile.mask(way);
+            Record key = new Record(way.name, highway, maxSpeed, mask);
+            Integer record = records.get(key);
+            if (record != null) {
+                return record;
+            }
+            int i = names.size();
+            if (i == highways.length) {
+                highways = Arrays.copyOf(highways, 2 * i);
+                maxSpeeds = Arrays.copyOf(maxSpeeds, 2 * i);
+                profiles = Arrays.copyOf(profiles, 2 * i);
+            }
+            names.add(intern(way.name));
+            highways[i] = highway;
+            maxSpeeds[i] = maxSpeed;
+            profiles[i] = mask;
+            records.put(key, i);
+            return i;
+        }
+
+        private String intern(String name) {
+            if (name == null) {
+                return null;
+            }
+            String existing = interned.putIfAbsent(name, name);
+            return existing == null ? name : existing;
+        }
+
+        /**
+         * Freezes the records together with the record index of every edge slot.
+         * @param edgeWays Record of each edge slot, or NO_WAY.
+         */
+        EdgeAttributes build(int[] edgeWays) {
+            return build(IntBuffer.wrap(edgeWays), ColumnStore.HEAP);
+        }
+
+        /**
+         * Freezes the records together with a column of the record index of every edge slot.
+         * @param edgeWays Record of each edge slot, or NO_WAY; a column of store.
+         * @param store The store the column comes from.
+         */
+        EdgeAttributes build(IntBuffer edgeWays, ColumnStore store) {
+            int n = names.size();
+            return new EdgeAttributes(edgeWays, names.toArray(new String[n]),
+                    Arrays.copyOf(highways, n), Arrays.copyOf(maxSpeeds, n),
+                    Arrays.copyOf(profiles, n), store);
+        }
+    }
+}
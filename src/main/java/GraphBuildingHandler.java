@@ -27,27 +27,23 @@ import java.util.Set;
  */
 public class GraphBuildingHandler extends DefaultHandler {
     /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
+     * Access tags kept on ways. Which highways each way of travel may use is decided by
+     * Router.Profile once the whole way has been read; a way is kept if any profile can use
+     * it, and each edge remembers which profiles those are. OsmXmlReader keeps the same tags.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
+    static final Set<String> ACCESS_KEYS = new HashSet<>(Arrays.asList("foot",
+            "bicycle"));
     private String activeState = "";
-    private final GraphDB g;
+    private final OsmSink sink;
     private GraphDB.Way currentWay;
-    private Long currentNodeID;
-    private boolean validWay;
+    private long currentNodeID;
 
     /**
      * Create a new GraphBuildingHandler.
-     * @param g The graph to populate with the XML data.
+     * @param sink The graph, or other sink, to populate with the XML data.
      */
-    public GraphBuildingHandler(GraphDB g) {
-        this.g = g;
+    public GraphBuildingHandler(OsmSink sink) {
+        this.sink = sink;
     }
 
     /**
@@ -72,9 +68,9 @@ public class GraphBuildingHandler extends DefaultHandler {
             /* We encountered a new <node...> tag. */
             activeState = "node";
             currentNodeID = Long.parseLong(attributes.getValue("id"));
-            Double lon = Double.parseDouble(attributes.getValue("lon"));
-            Double lat = Double.parseDouble(attributes.getValue("lat"));
-            g.addNode(currentNodeID, lon, lat);
+            double lon = Double.parseDouble(attributes.getValue("lon"));
+            double lat = Double.parseDouble(attributes.getValue("lat"));
+            sink.node(currentNodeID, lon, lat);
 
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
@@ -93,7 +89,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             cumbersome since you might have to remove the connections if you later see a tag that
             makes this way invalid. Instead, think of keeping a list of possible connections and
             remember whether this way is valid or not. */
-            Long nodeID = Long.parseLong(attributes.getValue("ref"));
+            long nodeID = Long.parseLong(attributes.getValue("ref"));
             currentWay.addWay(nodeID);
 
         } else if (activeState.equals("way") && qName.equals("tag")) {
@@ -103,15 +99,17 @@ public class GraphBuildingHandler extends DefaultHandler {
             if (k.equals("maxspeed")) {
                 currentWay.setSpeed(v);
             } else if (k.equals("highway")) {
-                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
+                currentWay.setHighway(v);
             } else if (k.equals("name")) {
                 currentWay.setName(v);
+            } else if (ACCESS_KEYS.contains(k)) {
+                currentWay.setAccess(k, v);
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
             /* While looking at a node, we found a <tag...> with k="name". */
-            g.setName(currentNodeID, attributes.getValue("v"));
+            sink.nodeName(currentNodeID, attributes.getValue("v"));
         }
     }
 
@@ -133,11 +131,12 @@ public class GraphBuildingHandler extends DefaultHandler {
             /* Hint1: If you have stored the possible connections for this way, here's your
             chance to actually connect the nodes together if the way is valid. */
 //            System.out.println("Finishing a way...");
-            if (validWay) {
-                g.addWay(currentWay);
-                validWay = false;
-                currentWay = null;
+            if (Router.Profile.mask(currentWay) != 0) {
+                sink.way(currentWay);
             }
+            /* Tags of any relation that follows do not belong to this way. */
+            activeState = "";
+            currentWay = null;
         }
     }
 
@@ -1,17 +1,26 @@
 
 import org.xml.sax.SAXException;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.HashSet;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
  * Uses your GraphBuildingHandler to convert the XML files into a graph. Your
@@ -21,99 +30,346 @@ import java.util.List;
  *
  * @author Alan Yao, Josh Hug
  */
-public class GraphDB {
+public class GraphDB implements OsmSink {
+    private static final int PROFILES = Router.Profile.values().length;
+    private static final int WEIGHTINGS = Router.Weighting.values().length;
+    /** Marks the end of a build-time edge list. */
+    private static final int NO_EDGE = -1;
+    /**
+     * Graphs whose contraction hierarchy load() reads or builds before it returns, from
+     * -Dbearmaps.hierarchies: a comma-separated list of profile:weighting pairs, by default
+     * car:distance. The hierarchies of other graphs are prepared on first use.
+     */
+    private static final boolean[] PRELOADED_HIERARCHIES =
+            slots("bearmaps.hierarchies", "car:distance");
+    /** Graphs whose ALT landmark tables load() prepares, from -Dbearmaps.landmarks. */
+    private static final boolean[] PRELOADED_LANDMARKS = slots("bearmaps.landmarks", "");
+
     /** Your instance variables for storing the graph. You should consider
-     * creating helper classes, e.g. Node, Edge, etc. */
-    private Map<Long, Node> vertices;
-    private Map<Long, HashSet<Long>> adj;
+     * creating helper classes, e.g. Node, Edge, etc.
+     * The maps and lists below are only used while the graph is being built. They hold OSM
+     * ids unboxed, except for the few named nodes; clean() freezes them into csr and drops
+     * them.
+     */
+    private LongDoubleMap lons;
+    private LongDoubleMap lats;
+    /** Names of the nodes that have one. */
+    private Map<Long, String> nodeNames;
+    /** Slot in edgeTargets of the first edge out of each node that has edges. */
+    private LongIntMap firstEdge;
+    /**
+     * Edges out of each node as linked lists of slots. edgeTargets holds the OSM id of the
+     * target; edgeLinks packs the slot of the next edge of the same source, or NO_EDGE, in
+     * its high half and the EdgeAttributes record of the joining way in its low half.
+     */
+    private LongArrayList edgeTargets;
+    private LongArrayList edgeLinks;
+    /**
+     * Every road any Router.Profile may use. The per-profile graphs share its vertex ids
+     * and coordinates, so a dense index means the same vertex in all of them. Graphs built
+     * or loaded from a file keep their columns in ColumnStore.CONFIGURED, which
+     * -Dbearmaps.storage=mapped moves off the heap.
+     */
+    private CSRGraph csr;
+    /** Name of each vertex, indexed by its dense CSR index, in the store of csr. */
+    private NameColumn names;
+    /** Way name, highway class and speed limit of each CSR edge slot, in the store of csr. */
+    private EdgeAttributes edgeAttributes;
+    /** Distinct way records seen while building; frozen into edgeAttributes by clean(). */
+    private EdgeAttributes.Builder ways = new EdgeAttributes.Builder();
+    /** Named locations seen while building; frozen into locationIndex by clean(). */
+    private LocationIndex.Builder locations = new LocationIndex.Builder();
+    private LocationIndex locationIndex;
+    /**
+     * Spatial index over the vertices each profile can use, by Router.Profile ordinal, for
+     * closest() queries.
+     */
+    private final KdTree[] spatialIndexes = new KdTree[PROFILES];
+    /**
+     * The graph of each profile under each weighting, at slot(profile, weighting). All are
+     * built with the graph, before it is published, so they are read without locking; the
+     * other weightings share the vertex and edge arrays of the DISTANCE graph.
+     */
+    private final CSRGraph[] graphs = new CSRGraph[PROFILES * WEIGHTINGS];
+    /**
+     * Contraction hierarchy of each graph, at slot(profile, weighting). Each slot has its
+     * own task, which reads the hierarchy from its file next to the OSM file or builds and
+     * saves it, and is run once, by load() or by the first query that needs it. A query
+     * only waits for the slot it uses, and not at all once that slot is done.
+     */
+    private final List<FutureTask<ContractionHierarchy>> hierarchies = new ArrayList<>();
+    /** ALT landmark tables of each graph, prepared the same way as hierarchies. */
+    private final List<FutureTask<Landmarks>> landmarks = new ArrayList<>();
+    /**
+     * The OSM file next to which hierarchies and landmark tables are kept; set by load()
+     * before it returns the graph. Without one, they are built and not saved.
+     */
+    private volatile SourceFile source;
+    /** Estimated heap bytes of the build-time maps right before they were frozen. */
+    private long mapFootprintBytes;
 
 
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
-     * @param dbPath Path to the XML file to be parsed.
+     * Compressed XML is parsed as it is decompressed, and PBF files go through PbfReader;
+     * see OsmInput.
+     * @param dbPath Path to the OSM file to be parsed.
      */
     public GraphDB(String dbPath) {
         try {
-            vertices = new HashMap<>();
-            adj = new HashMap<>();
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
-
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
-            saxParser.parse(inputStream, gbh);
+            lons = new LongDoubleMap(Double.NaN);
+            lats = new LongDoubleMap(Double.NaN);
+            nodeNames = new HashMap<>();
+            firstEdge = new LongIntMap(NO_EDGE);
+            edgeTargets = new LongArrayList();
+            edgeLinks = new LongArrayList();
+            Path path = Paths.get(dbPath);
+            OsmInput.Format format = OsmInput.detect(path);
+            if (format == OsmInput.Format.PBF) {
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    new PbfReader(inputStream, this).read();
+                }
+            } else {
+                try (InputStream inputStream = OsmInput.openXml(path, format)) {
+                    SAXParserFactory factory = SAXParserFactory.newInstance();
+                    SAXParser saxParser = factory.newSAXParser();
+                    GraphBuildingHandler gbh = new GraphBuildingHandler(this);
+                    saxParser.parse(inputStream, gbh);
+                }
+            }
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
         clean();
     }
 
-    static class Node implements Comparable<Node> {
-        Long id;
-        Double lon;
-        Double lat;
-        String name;
+    /**
+     * Creates a graph from its frozen parts, as read back from a snapshot or built by
+     * OsmIngest.
+     * @param csr The road graph. The profile graphs and spatial indexes derived from it keep
+     *            their columns in its ColumnStore.
+     * @param names Name of each vertex, indexed by its CSR index; moved to the store of csr.
+     * @param edgeAttributes The way attributes of each CSR edge slot.
+     * @param locationIndex The search index over named locations.
+     */
+    GraphDB(CSRGraph csr, NameColumn names, EdgeAttributes edgeAttributes,
+            LocationIndex locationIndex) {
+        this.csr = csr;
+        this.names = names.storedIn(csr.store());
+        this.edgeAttributes = edgeAttributes.storedIn(csr.store());
+        this.locationIndex = locationIndex;
+        this.locations = null;
+        this.ways = null;
+        buildProfiles();
+    }
 
-        /** The variable f is the priority of a node.
-         * The variable g is the shortest known path distance from s to the node.
-         * The variable h is the heuristic distance, the distance from the node to
-         * the target location.
-         * f is used in A* search to find the shortest route from the start location
-         * to end location.
-         */
-        double f;
-        double g;
-        double h;
-        boolean marked;
-
-        Node(Long id, Double lon, Double lat) {
-            this.id = id;
-            this.lon = lon;
-            this.lat = lat;
-            marked = false;
+    /**
+     * Loads the graph of an OSM file, preferring its binary snapshot (see GraphSnapshot).
+     * If the snapshot is missing or was built from a different version of the file, the XML
+     * is parsed instead, by the staged OsmIngest pipeline, and a fresh snapshot is written for
+     * the next start. The hierarchies and landmark tables of -Dbearmaps.hierarchies and
+     * -Dbearmaps.landmarks are likewise read from their files, or built and saved, before
+     * the graph is returned. Failing to read or write any of these files is not fatal.
+     * @param dbPath Path to the XML file to be parsed.
+     * @return The graph.
+     * @throws UncheckedIOException If the OSM file cannot be read or parsed. No snapshot is
+     *         written then, so a server never starts on, or saves, a partial graph.
+     */
+    public static GraphDB load(String dbPath) {
+        Path source = Paths.get(dbPath);
+        try {
+            long checksum = GraphSnapshot.checksum(source);
+            long length = Files.size(source);
+            GraphDB g = loadGraph(dbPath, GraphSnapshot.pathFor(source), checksum, length);
+            g.source = new SourceFile(source, checksum, length);
+            for (int i = 0; i < PROFILES * WEIGHTINGS; i++) {
+                if (PRELOADED_HIERARCHIES[i]) {
+                    result(g.hierarchies.get(i));
+                }
+                if (PRELOADED_LANDMARKS[i]) {
+                    result(g.landmarks.get(i));
+                }
+            }
+            return g;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load the graph of " + dbPath, e);
         }
+    }
 
-        public boolean equals(Node otherNode) {
-            if (otherNode == null) {
-                return false;
+    private static GraphDB loadGraph(String dbPath, Path snapshot, long checksum,
+                                     long length) throws IOException {
+        try {
+            GraphDB g = GraphSnapshot.read(snapshot, checksum, length);
+            if (g != null) {
+                return g;
             }
-            if (this == otherNode) {
-                return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        GraphDB g = OsmIngest.read(dbPath);
+        try {
+            GraphSnapshot.write(g, snapshot, checksum, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
+    }
+
+    /**
+     * Reads the contraction hierarchy of a profile's graph under a weighting from its file,
+     * or builds it and saves it there.
+     */
+    private ContractionHierarchy prepareHierarchy(Router.Profile profile,
+                                                  Router.Weighting weighting) {
+        CSRGraph g = csr(profile, weighting);
+        SourceFile file = source;
+        if (file == null) {
+            return ContractionHierarchy.build(g);
+        }
+        Path path = ContractionHierarchy.pathFor(file.path, profile, weighting);
+        try {
+            ContractionHierarchy hierarchy =
+                    ContractionHierarchy.read(path, g, file.checksum, file.length);
+            if (hierarchy != null) {
+                return hierarchy;
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(g);
+        try {
+            hierarchy.write(path, file.checksum, file.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return hierarchy;
+    }
 
+    /**
+     * Reads the ALT landmark tables of a profile's graph under a weighting from their file,
+     * or builds them and saves them there.
+     */
+    private Landmarks prepareLandmarks(Router.Profile profile, Router.Weighting weighting) {
+        CSRGraph g = csr(profile, weighting);
+        SourceFile file = source;
+        if (file == null) {
+            return Landmarks.build(g, Landmarks.DEFAULT_COUNT);
+        }
+        Path path = Landmarks.pathFor(file.path, profile, weighting);
+        try {
+            Landmarks tables = Landmarks.read(path, g, file.checksum, file.length);
+            if (tables != null) {
+                return tables;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Landmarks tables = Landmarks.build(g, Landmarks.DEFAULT_COUNT);
+        try {
+            tables.write(path, file.checksum, file.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return tables;
+    }
 
-            if (this.id == otherNode.id || this.lon == otherNode.lon || this.lat == otherNode.lat) {
-                return true;
+    /**
+     * Runs a slot's task unless another thread has, then waits for its result. Once the
+     * task is done, this returns without blocking.
+     */
+    private static <T> T result(FutureTask<T> task) {
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            return false;
         }
+    }
 
-        public int compareTo(Node otherNode) {
-            if (this.f < otherNode.f) {
-                return -1;
-            } else if (this.f > otherNode.f) {
-                return 1;
-            } else {
-                return 0;
+    /**
+     * Returns the file next to an OSM file that keeps a structure of one profile's graph
+     * under one weighting: the OSM file name with the profile, the weighting and the suffix
+     * appended, as in map.osm.bike-time.ch. Car distance files, which came first, leave
+     * out the profile and weighting.
+     */
+    static Path pathFor(Path source, Router.Profile profile, Router.Weighting weighting,
+                        String suffix) {
+        String name = source.getFileName().toString();
+        if (profile != Router.Profile.CAR || weighting != Router.Weighting.DISTANCE) {
+            name += "." + profile.name().toLowerCase(Locale.ROOT) + "-"
+                    + weighting.name().toLowerCase(Locale.ROOT);
+        }
+        return source.resolveSibling(name + suffix);
+    }
+
+    /**
+     * Parses a comma-separated list of profile:weighting pairs from a system property.
+     * @return Whether each slot(profile, weighting) is listed.
+     * @throws IllegalArgumentException If an entry names no profile or weighting.
+     */
+    private static boolean[] slots(String property, String defaultValue) {
+        boolean[] listed = new boolean[PROFILES * WEIGHTINGS];
+        for (String entry : System.getProperty(property, defaultValue).split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
             }
+            String[] pair = entry.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Bad " + property + " entry " + entry
+                        + "; expected profile:weighting");
+            }
+            listed[slot(Router.Profile.parse(pair[0]), Router.Weighting.parse(pair[1]))] = true;
+        }
+        return listed;
+    }
+
+    /** An OSM file, and the CRC32 and length the files derived from it must match. */
+    private static final class SourceFile {
+        private final Path path;
+        private final long checksum;
+        private final long length;
+
+        SourceFile(Path path, long checksum, long length) {
+            this.path = path;
+            this.checksum = checksum;
+            this.length = length;
         }
     }
 
     static class Way {
-        ArrayList<Long> nodeIds;
+        LongArrayList nodeIds;
         Long wayID;
         String name;
         String maxSpeed;
+        String highway;
+        /** Access tags such as foot and bicycle, by key; null until one is set. */
+        Map<String, String> access;
 
         Way(Long id) {
             this.wayID = id;
-            nodeIds = new ArrayList<>();
+            nodeIds = new LongArrayList();
         }
 
-        public void addWay(Long id) {
+        public void addWay(long id) {
             nodeIds.add(id);
         }
 
@@ -124,54 +380,96 @@ public class GraphDB {
         public void setSpeed(String s) {
             this.maxSpeed = s;
         }
+
+        public void setHighway(String h) {
+            this.highway = h;
+        }
+
+        public void setAccess(String key, String value) {
+            if (access == null) {
+                access = new HashMap<>();
+            }
+            access.put(key, value);
+        }
+
+        /** Returns the value of an access tag of this way, or null if it has none. */
+        String access(String key) {
+            return access == null ? null : access.get(key);
+        }
     }
 
-    public Map<Long, Node> getVertices() {
-        return vertices;
+    public void addNode(long id, double lon, double lat) {
+        /* A node read again loses its name, unless the new copy is named too. */
+        if (!Double.isNaN(lons.put(id, lon))) {
+            nodeNames.remove(id);
+        }
+        lats.put(id, lat);
     }
 
+    @Override
+    public void node(long id, double lon, double lat) {
+        addNode(id, lon, lat);
+    }
 
-    public void addNode(Long id, Double lon, Double lat) {
-        vertices.put(id, new Node(id, lon, lat));
+    @Override
+    public void nodeName(long id, String name) {
+        setName(id, name);
     }
 
-    public void addEdge(Node n1, Node n2) {
-        if (adj.containsKey(n1.id)) {
-            HashSet<Long> adjacent = adj.get(n1.id);
-            adjacent.add(n2.id);
-        } else {
-            adj.put(n1.id, new HashSet<>());
-            HashSet<Long> adjacent = adj.get(n1.id);
-            adjacent.add(n2.id);
-        }
+    @Override
+    public void way(Way way) {
+        addWay(way);
     }
 
-    public void removeNode(Long id) {
-        vertices.remove(id);
-        adj.remove(id);
+    public void addEdge(long from, long to) {
+        addEdge(from, to, EdgeAttributes.NO_WAY);
+    }
+
+    /**
+     * Adds the edge from one node to another, labelled with the attributes of its way. If
+     * the two nodes are already joined, the way added last labels the edge.
+     * @param way The EdgeAttributes record of the way, or EdgeAttributes.NO_WAY.
+     */
+    public void addEdge(long from, long to, int way) {
+        int head = firstEdge.get(from);
+        for (int e = head; e != NO_EDGE; e = (int) (edgeLinks.get(e) >> 32)) {
+            if (edgeTargets.get(e) == to) {
+                edgeLinks.set(e, edgeLinks.get(e) & ~0xffffffffL | way & 0xffffffffL);
+                return;
+            }
+        }
+        firstEdge.put(from, edgeTargets.size());
+        edgeTargets.add(to);
+        edgeLinks.add((long) head << 32 | way & 0xffffffffL);
     }
 
-    public Node returnCopy(Long id) {
-        Node n = new Node(id, lon(id), lat(id));
-        n.name = vertices.get(id).name;
-        return n;
+    public void removeNode(long id) {
+        lons.remove(id);
+        lats.remove(id);
+        nodeNames.remove(id);
+        firstEdge.remove(id);
     }
 
-    public void setName(Long id, String n) {
-        vertices.get(id).name = n;
+    public void setName(long id, String n) {
+        nodeNames.put(id, n);
+        locations.add(id, lons.get(id), lats.get(id), n);
     }
 
+    /**
+     * Adds the edges of a way in both directions. The way's name, highway class and speed
+     * limit are kept on its edges; node names are left alone, since a node shared by
+     * several ways belongs to none of them in particular. A segment whose node is missing
+     * from the file is skipped, as OsmIngest does.
+     */
     public void addWay(Way way) {
+        int record = ways.add(way);
         for (int i = 0; i < way.nodeIds.size() - 1; i++) {
-            Long curr = way.nodeIds.get(i);
-            Long next = way.nodeIds.get(i + 1);
-            Node currVertex = vertices.get(curr);
-            Node nextVertex = vertices.get(next);
-            addEdge(currVertex, nextVertex);
-            addEdge(nextVertex, currVertex);
-            currVertex.name = way.name;
-            nextVertex.name = way.name;
-
+            long curr = way.nodeIds.get(i);
+            long next = way.nodeIds.get(i + 1);
+            if (lons.containsKey(curr) && lons.containsKey(next)) {
+                addEdge(curr, next, record);
+                addEdge(next, curr, record);
+            }
         }
     }
 
@@ -190,15 +488,144 @@ public class GraphDB {
      *  we can reasonably assume this since typically roads are connected.
      */
     private void clean() {
-        List<Long> toDelete = new ArrayList<>();
-        for (Long vertexID: vertices.keySet()) {
-            if (!adj.containsKey(vertexID)) {
-                toDelete.add(vertexID);
+        for (long vertexID : lons.keys()) {
+            if (!firstEdge.containsKey(vertexID)) {
+                removeNode(vertexID);
+            }
+        }
+        freeze();
+    }
+
+    /**
+     * Converts the build-time maps into the compact CSR form and releases them. All read
+     * methods (vertices, adjacent, lon, lat, distance, closest) use the CSR form afterwards.
+     * The columns are allocated from ColumnStore.CONFIGURED and filled in place.
+     */
+    private void freeze() {
+        mapFootprintBytes = estimateMapFootprint();
+        ColumnStore store = ColumnStore.CONFIGURED;
+        long[] sortedIds = lons.keys();
+        Arrays.sort(sortedIds);
+        int n = sortedIds.length;
+        LongBuffer ids = store.longs(n);
+        ids.put(sortedIds).flip();
+        IdMap idMap = new IdMap(ids, store);
+        DoubleBuffer vertexLons = store.doubles(n);
+        DoubleBuffer vertexLats = store.doubles(n);
+        NameColumn.Builder vertexNames = new NameColumn.Builder(n, store);
+        IntBuffer offsets = store.ints(n + 1);
+        for (int v = 0; v < n; v++) {
+            long id = ids.get(v);
+            vertexLons.put(v, lons.get(id));
+            vertexLats.put(v, lats.get(id));
+            vertexNames.add(nodeNames.get(id));
+            int degree = 0;
+            for (int e = firstEdge.get(id); e != NO_EDGE; e = (int) (edgeLinks.get(e) >> 32)) {
+                degree += 1;
+            }
+            offsets.put(v + 1, offsets.get(v) + degree);
+        }
+        /* Each key is the target index in the high half and the way record in the low half,
+         * so sorting a row orders it by target, which keeps iteration independent of the
+         * order edges were added in. */
+        int m = offsets.get(n);
+        IntBuffer targets = store.ints(m);
+        IntBuffer edgeWays = store.ints(m);
+        long[] row = new long[16];
+        for (int v = 0; v < n; v++) {
+            int first = offsets.get(v);
+            int d = offsets.get(v + 1) - first;
+            if (d > row.length) {
+                row = new long[Math.max(d, 2 * row.length)];
+            }
+            int k = 0;
+            for (int e = firstEdge.get(ids.get(v)); e != NO_EDGE;
+                 e = (int) (edgeLinks.get(e) >> 32)) {
+                row[k] = (long) idMap.index(edgeTargets.get(e)) << 32
+                        | edgeLinks.get(e) & 0xffffffffL;
+                k += 1;
+            }
+            Arrays.sort(row, 0, d);
+            for (k = 0; k < d; k++) {
+                targets.put(first + k, (int) (row[k] >>> 32));
+                edgeWays.put(first + k, (int) row[k]);
+            }
+        }
+        csr = new CSRGraph(idMap, vertexLons, vertexLats, offsets, targets, store);
+        names = vertexNames.build();
+        edgeAttributes = ways.build(edgeWays, store);
+        ways = null;
+        lons = null;
+        lats = null;
+        nodeNames = null;
+        firstEdge = null;
+        edgeTargets = null;
+        edgeLinks = null;
+        locationIndex = locations.build();
+        locations = null;
+        buildProfiles();
+    }
+
+    /**
+     * Builds the graph of every profile under every weighting, and the spatial index of
+     * every profile, and sets up the tasks that prepare their hierarchies and landmark
+     * tables. A profile that may use every edge shares csr itself.
+     */
+    private void buildProfiles() {
+        for (Router.Profile profile : Router.Profile.values()) {
+            boolean[] keep = new boolean[csr.numEdges()];
+            boolean all = true;
+            for (int e = 0; e < keep.length; e++) {
+                keep[e] = edgeAttributes.allows(e, profile);
+                all &= keep[e];
             }
+            CSRGraph g = all ? csr : csr.subgraph(keep);
+            graphs[slot(profile, Router.Weighting.DISTANCE)] = g;
+            EdgeAttributes attributes = all ? edgeAttributes : edgeAttributes.subset(keep);
+            graphs[slot(profile, Router.Weighting.TIME)] =
+                    TravelTimes.graph(g, attributes, profile);
+            spatialIndexes[profile.ordinal()] = new KdTree(g, true);
         }
-        for (Long vertex: toDelete) {
-            removeNode(vertex);
+        for (Router.Profile profile : Router.Profile.values()) {
+            for (Router.Weighting weighting : Router.Weighting.values()) {
+                hierarchies.add(new FutureTask<>(() -> prepareHierarchy(profile, weighting)));
+                landmarks.add(new FutureTask<>(() -> prepareLandmarks(profile, weighting)));
+            }
+        }
+    }
+
+    private static int slot(Router.Profile profile, Router.Weighting weighting) {
+        return profile.ordinal() * WEIGHTINGS + weighting.ordinal();
+    }
+
+    /**
+     * Estimates the heap used by the build-time maps and lists, assuming a 64-bit JVM with
+     * compressed oops. Only named nodes have a boxed entry, in nodeNames: a 32 byte HashMap
+     * entry, a 16 byte Long key and a 4 byte table slot.
+     */
+    private long estimateMapFootprint() {
+        return lons.footprintBytes() + lats.footprintBytes() + firstEdge.footprintBytes()
+                + edgeTargets.footprintBytes() + edgeLinks.footprintBytes()
+                + 52L * nodeNames.size();
+    }
+
+    /**
+     * Returns a short report comparing the heap used by the CSR graph with the estimated
+     * heap the build-time maps used before they were frozen, and the bytes of the graph that
+     * are memory-mapped instead.
+     */
+    String footprintReport() {
+        long csrBytes = csr.footprintBytes();
+        String mapped = csr.store().isMapped()
+                ? String.format(", %.1f MB mapped", csr.mappedBytes() / 1e6) : "";
+        if (mapFootprintBytes == 0) {
+            /* Loaded from a snapshot, so the maps were never built. */
+            return String.format("%d vertices, %d directed edges: CSR %.1f MB%s", csr.size(),
+                    csr.numEdges(), csrBytes / 1e6, mapped);
         }
+        return String.format("%d vertices, %d directed edges: maps ~%.1f MB, CSR %.1f MB "
+                + "(%.1fx smaller)%s", csr.size(), csr.numEdges(), mapFootprintBytes / 1e6,
+                csrBytes / 1e6, (double) mapFootprintBytes / csrBytes, mapped);
     }
 
     /**
@@ -206,7 +633,7 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return vertices.keySet();
+        return csr(Router.Profile.CAR, Router.Weighting.DISTANCE).connectedIds();
     }
 
     /**
@@ -215,8 +642,7 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return adj.get(v);
-
+        return csr(Router.Profile.CAR, Router.Weighting.DISTANCE).neighbors(csr.index(v));
     }
 
     /**
@@ -228,7 +654,9 @@ public class GraphDB {
      * @return The great-circle distance between the two locations from the graph.
      */
     double distance(long v, long w) {
-        return distance(lon(v), lat(v), lon(w), lat(w));
+        int iv = csr.index(v);
+        int iw = csr.index(w);
+        return distance(csr.lon(iv), csr.lat(iv), csr.lon(iw), csr.lat(iw));
     }
 
     static double distance(double lonV, double latV, double lonW, double latW) {
@@ -270,6 +698,121 @@ public class GraphDB {
         return Math.toDegrees(Math.atan2(y, x));
     }
 
+    /**
+     * Returns the search index over all named locations, including ones that are not part
+     * of the road graph.
+     */
+    LocationIndex locations() {
+        return locationIndex;
+    }
+
+    /** Returns the way name, highway class and speed limit of every CSR edge slot. */
+    EdgeAttributes edgeAttributes() {
+        return edgeAttributes;
+    }
+
+    /** Returns the name of the way of CSR edge slot e, or null if the way is unnamed. */
+    String edgeName(int e) {
+        return edgeAttributes.name(e);
+    }
+
+    /**
+     * Returns the name of the way joining two adjacent vertices.
+     * @param v The id of the first vertex.
+     * @param w The id of the second vertex.
+     * @return The way name, or null if the way is unnamed or the vertices are not adjacent.
+     */
+    String wayName(long v, long w) {
+        int e = csr.edge(csr.index(v), csr.index(w));
+        return e < 0 ? null : edgeAttributes.name(e);
+    }
+
+    /** Returns the name of the vertex with CSR index v, or null if it has none. */
+    String name(int v) {
+        return names.get(v);
+    }
+
+    /** Returns the names of the vertices, indexed by their CSR index. */
+    NameColumn names() {
+        return names;
+    }
+
+    /**
+     * Returns the car contraction hierarchy of this graph, preparing it on the first call if
+     * load() did not.
+     */
+    ContractionHierarchy hierarchy() {
+        return hierarchy(Router.Profile.CAR, Router.Weighting.DISTANCE);
+    }
+
+    /**
+     * Returns the contraction hierarchy of a profile's graph under a weighting, preparing it
+     * on the first call if load() did not. Concurrent first calls for the same graph wait
+     * for one preparation; calls for other graphs do not wait.
+     */
+    ContractionHierarchy hierarchy(Router.Profile profile, Router.Weighting weighting) {
+        return result(hierarchies.get(slot(profile, weighting)));
+    }
+
+    /**
+     * Returns the car ALT landmark tables of this graph, preparing them on the first call if
+     * load() did not.
+     */
+    Landmarks landmarks() {
+        return landmarks(Router.Profile.CAR, Router.Weighting.DISTANCE);
+    }
+
+    /**
+     * Returns the ALT landmark tables of a profile's graph under a weighting, preparing them
+     * on the first call if load() did not, like hierarchy(profile, weighting).
+     */
+    Landmarks landmarks(Router.Profile profile, Router.Weighting weighting) {
+        return result(landmarks.get(slot(profile, weighting)));
+    }
+
+    /**
+     * Returns the frozen CSR form of every road any profile may use, weighted by edge
+     * length in miles. EdgeAttributes are indexed by its edge slots.
+     */
+    CSRGraph csr() {
+        return csr;
+    }
+
+    /**
+     * Returns the CSR graph of the roads a profile may use, with edge costs under a
+     * weighting. All graphs share the vertex arrays of csr(), and all weightings of a
+     * profile share its edge arrays.
+     */
+    CSRGraph csr(Router.Profile profile, Router.Weighting weighting) {
+        return graphs[slot(profile, weighting)];
+    }
+
+    /**
+     * Returns the dense CSR index of the vertex closest to the given longitude and latitude
+     * that a car can use, or -1 if there is none.
+     */
+    int closestIndex(double lon, double lat) {
+        return closestIndex(Router.Profile.CAR, lon, lat);
+    }
+
+    /**
+     * Returns the dense CSR index of the vertex closest to the given longitude and latitude
+     * that a profile can use, or -1 if there is none.
+     */
+    int closestIndex(Router.Profile profile, double lon, double lat) {
+        return spatialIndexes[profile.ordinal()].nearest(lon, lat);
+    }
+
+    /**
+     * Returns the dense CSR index of the vertex a car can use closest to each of a batch of
+     * points, or -1s if there is none.
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, parallel to lons.
+     */
+    int[] closestIndices(double[] lons, double[] lats) {
+        return spatialIndexes[Router.Profile.CAR.ordinal()].nearest(lons, lats);
+    }
+
     /**
      * Returns the vertex closest to the given longitude and latitude.
      * @param lon The target longitude.
@@ -277,17 +820,25 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        double minDistance = 100000;
-        double currentDistance;
-        long vertexID = 0;
-        for (Node vertex: vertices.values()) {
-            currentDistance = distance(lon, lat, vertex.lon, vertex.lat);
-            if (currentDistance < minDistance) {
-                minDistance = currentDistance;
-                vertexID = vertex.id;
-            }
+        int v = closestIndex(lon, lat);
+        return v < 0 ? 0 : csr.id(v);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude, closest first.
+     * Vertices at equal distance are ordered by id.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices to return.
+     * @return The ids of up to k vertices, in order of increasing distance.
+     */
+    List<Long> closest(double lon, double lat, int k) {
+        int[] nearest = spatialIndexes[Router.Profile.CAR.ordinal()].nearest(lon, lat, k);
+        List<Long> ids = new ArrayList<>(nearest.length);
+        for (int v : nearest) {
+            ids.add(csr.id(v));
         }
-        return vertexID;
+        return ids;
     }
 
     /**
@@ -296,7 +847,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return vertices.get(v).lon;
+        return csr.lon(csr.index(v));
     }
 
     /**
@@ -305,6 +856,6 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return vertices.get(v).lat;
+        return csr.lat(csr.index(v));
     }
 }
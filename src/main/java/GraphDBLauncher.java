@@ -21,6 +21,7 @@ public class GraphDBLauncher {
         }
 
         System.out.println("There are " + vertices.size() + " vertices in the graph.");
+        System.out.println("Heap footprint: " + g.footprintReport());
 
         System.out.println("The first 10 vertices are:");
         for (int i = 0; i < 10; i += 1) {
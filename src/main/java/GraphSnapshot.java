@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of a cleaned GraphDB, so a server can start without parsing the
+ * OSM XML again. The snapshot records the CRC32 and length of the XML file it was built from
+ * and is only used while both still match.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    MAGIC, int VERSION
+ *   long   source CRC32, long source length
+ *   int    n (vertices), int m (directed edges), int k (named locations)
+ *   long[n] ids, double[n] lons, double[n] lats, int[n + 1] offsets, int[m] targets
+ *   n strings: vertex names
+ *   int w, w times: string name, byte highway class, float maxspeed, byte profile mask
+ *          (see EdgeAttributes)
+ *   int[m] way record of each edge, or -1 for none
+ *   k times: long id, double lon, double lat, string name
+ *   long   CRC32 of everything above
+ * </pre>
+ * Strings are written as ChecksummedFile describes.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x424d4753;
+    /** Bump whenever the layout or the meaning of a field changes. */
+    static final int VERSION = 4;
+    /** Bytes of the fixed-size header, from MAGIC through k. */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Returns where the snapshot of an OSM file is kept: next to it, with a .snap suffix.
+     */
+    static Path pathFor(Path source) {
+        return source.resolveSibling(source.getFileName() + ".snap");
+    }
+
+    /**
+     * Computes the CRC32 of a file, reading it in large blocks.
+     * @param file The file to checksum.
+     * @return The CRC32 of its contents.
+     */
+    static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot of g through ChecksummedFile, so a reader never sees a partial
+     * snapshot, writing takes little memory beyond the graph itself, and the snapshot may be
+     * larger than 2 GB.
+     * @param g The graph to save.
+     * @param file The snapshot file to create or replace.
+     * @param sourceChecksum CRC32 of the OSM file g was built from.
+     * @param sourceLength Length in bytes of the OSM file g was built from.
+     */
+    static void write(GraphDB g, Path file, long sourceChecksum, long sourceLength)
+            throws IOException {
+        CSRGraph csr = g.csr();
+        LocationIndex locations = g.locations();
+        EdgeAttributes ways = g.edgeAttributes();
+        int n = csr.size();
+        int m = csr.numEdges();
+        int k = locations.size();
+        int w = ways.numWays();
+
+        ChecksummedFile.write(file, out -> {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(sourceChecksum);
+            out.putLong(sourceLength);
+            out.putInt(n);
+            out.putInt(m);
+            out.putInt(k);
+            for (int v = 0; v < n; v++) {
+                out.putLong(csr.id(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putDouble(csr.lon(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putDouble(csr.lat(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putInt(csr.firstEdge(v));
+            }
+            out.putInt(m);
+            for (int e = 0; e < m; e++) {
+                out.putInt(csr.target(e));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putString(g.name(v));
+            }
+            out.putInt(w);
+            for (int i = 0; i < w; i++) {
+                out.putString(ways.recordName(i));
+                out.put(ways.recordHighway(i));
+                out.putFloat(ways.recordMaxSpeed(i));
+                out.put(ways.recordProfiles(i));
+            }
+            for (int e = 0; e < m; e++) {
+                out.putInt(ways.way(e));
+            }
+            for (int i = 0; i < k; i++) {
+                out.putLong(locations.id(i));
+                out.putDouble(locations.lon(i));
+                out.putDouble(locations.lat(i));
+                out.putString(locations.name(i));
+            }
+        });
+    }
+
+    /**
+     * Loads a snapshot. The fixed-width columns of the graph are mapped from the file and
+     * copied straight into ColumnStore.CONFIGURED, so with mapped storage they never pass
+     * through the heap; the rest is read through a small buffer. The file may be larger than
+     * 2 GB, but each column must fit in one mapping.
+     * @param file The snapshot file.
+     * @param sourceChecksum CRC32 the source OSM file has now.
+     * @param sourceLength Length the source OSM file has now.
+     * @return The graph, or null if the file is missing, of another version, built from a
+     *         different source file, or damaged.
+     */
+    static GraphDB read(Path file, long sourceChecksum, long sourceLength) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8) {
+                return null;
+            }
+            ChecksummedFile.Input in = new ChecksummedFile.Input(channel);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || in.getLong() != sourceChecksum || in.getLong() != sourceLength) {
+                return null;
+            }
+            if (!ChecksummedFile.checksumMatches(channel)) {
+                return null;
+            }
+
+            int n = in.getInt();
+            int m = in.getInt();
+            int k = in.getInt();
+            ColumnStore store = ColumnStore.CONFIGURED;
+            LongBuffer ids = store.copyOf(in.column(8L * n).asLongBuffer());
+            DoubleBuffer lons = store.copyOf(in.column(8L * n).asDoubleBuffer());
+            DoubleBuffer lats = store.copyOf(in.column(8L * n).asDoubleBuffer());
+            IntBuffer offsets = store.copyOf(in.column(4L * (n + 1)).asIntBuffer());
+            IntBuffer targets = store.copyOf(in.column(4L * m).asIntBuffer());
+
+            NameColumn.Builder names = new NameColumn.Builder(n, store);
+            for (int v = 0; v < n; v++) {
+                names.add(in.getString());
+            }
+            int w = in.getInt();
+            String[] wayNames = new String[w];
+            byte[] highways = new byte[w];
+            float[] maxSpeeds = new float[w];
+            byte[] profiles = new byte[w];
+            Map<String, String> interned = new HashMap<>();
+            for (int i = 0; i < w; i++) {
+                String name = in.getString();
+                if (name != null) {
+                    String existing = interned.putIfAbsent(name, name);
+                    name = existing == null ? name : existing;
+                }
+                wayNames[i] = name;
+                highways[i] = in.get();
+                maxSpeeds[i] = in.getFloat();
+                profiles[i] = in.get();
+            }
+            IntBuffer edgeWays = store.copyOf(in.column(4L * m).asIntBuffer());
+            for (int e = 0; e < m; e++) {
+                int way = edgeWays.get(e);
+                if (way < EdgeAttributes.NO_WAY || way >= w) {
+                    return null;
+                }
+            }
+            LocationIndex.Builder locations = new LocationIndex.Builder();
+            for (int i = 0; i < k; i++) {
+                long id = in.getLong();
+                double lon = in.getDouble();
+                double lat = in.getDouble();
+                locations.add(id, lon, lat, in.getString());
+            }
+            if (in.position() != size - 8) {
+                return null;
+            }
+            CSRGraph csr = new CSRGraph(new IdMap(ids, store), lons, lats, offsets, targets, store);
+            return new GraphDB(csr, names.build(),
+                    new EdgeAttributes(edgeWays, wayNames, highways, maxSpeeds, profiles,
+                            store),
+                    locations.build());
+        } catch (RuntimeException e) {
+            /* A buffer underflow or bad length means the file does not match its header. */
+            return null;
+        }
+    }
+}
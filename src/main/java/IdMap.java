@@ -0,0 +1,133 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Translates 64-bit OSM ids to dense int indices 0..size()-1 and back. Index i belongs to the
+ * i-th smallest id, so the ids are one sorted column and the reverse lookup is a read.
+ *
+ * A lookup does not binary-search the whole array. The id range is cut into power-of-two
+ * buckets, about one per IDS_PER_BUCKET ids, and a directory holds the index of the first id
+ * of each bucket; a lookup reads the bucket of its id and searches only the few ids in it.
+ * OSM ids of one extract are spread fairly evenly, so this replaces about log2(size()) cache
+ * misses with two or three, for one extra int per bucket. The directory comes from the same
+ * ColumnStore as the ids.
+ */
+public class IdMap {
+    /** Target average number of ids per bucket. */
+    private static final int IDS_PER_BUCKET = 4;
+
+    private final LongBuffer ids;
+    private final long min;
+    private final long max;
+    /** Bucket of id is (id - min) >>> shift, treating the difference as unsigned. */
+    private final int shift;
+    /** buckets[b] is the index of the first id in bucket b or a later one. */
+    private final IntBuffer buckets;
+
+    /**
+     * Creates the map of a set of ids.
+     * @param ids The ids in strictly ascending order; the array is kept, not copied.
+     * @throws IllegalArgumentException If the ids are not strictly ascending.
+     */
+    IdMap(long[] ids) {
+        this(LongBuffer.wrap(ids), ColumnStore.HEAP);
+    }
+
+    /**
+     * Creates the map of a column of ids from a ColumnStore.
+     * @param ids The ids in strictly ascending order, from index 0 to the limit; the
+     *            column is kept, not copied.
+     * @param store The store the bucket directory is allocated from.
+     * @throws IllegalArgumentException If the ids are not strictly ascending.
+     */
+    IdMap(LongBuffer ids, ColumnStore store) {
+        int n = ids.limit();
+        for (int i = 1; i < n; i++) {
+            if (ids.get(i - 1) >= ids.get(i)) {
+                throw new IllegalArgumentException("Ids are not strictly ascending at " + i);
+            }
+        }
+        this.ids = ids;
+        if (n == 0) {
+            min = 1;
+            max = 0;
+            shift = 0;
+            buckets = store.ints(2);
+            return;
+        }
+        min = ids.get(0);
+        max = ids.get(n - 1);
+        long span = max - min;
+        int target = Integer.highestOneBit(Math.max(1, n / IDS_PER_BUCKET));
+        int s = 0;
+        while (s < 63 && Long.compareUnsigned(span >>> s, target) >= 0) {
+            s += 1;
+        }
+        shift = s;
+        buckets = store.ints((int) (span >>> shift) + 2);
+        for (int i = 0; i < n; i++) {
+            int b = bucket(ids.get(i)) + 1;
+            buckets.put(b, buckets.get(b) + 1);
+        }
+        for (int b = 1; b < buckets.limit(); b++) {
+            buckets.put(b, buckets.get(b) + buckets.get(b - 1));
+        }
+    }
+
+    private int bucket(long id) {
+        return (int) ((id - min) >>> shift);
+    }
+
+    /** Returns the number of ids. */
+    int size() {
+        return ids.limit();
+    }
+
+    /** Returns the id with index i. */
+    long id(int i) {
+        return ids.get(i);
+    }
+
+    /**
+     * Returns the index of an id.
+     * @param id The OSM id.
+     * @return Its index, or -1 if it is not in the map.
+     */
+    int index(long id) {
+        if (id < min || id > max) {
+            return -1;
+        }
+        int b = bucket(id);
+        int lo = buckets.get(b);
+        int hi = buckets.get(b + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = ids.get(mid);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a map of the same ids with its columns in another store. */
+    IdMap storedIn(ColumnStore store) {
+        return new IdMap(store.copyOf((LongBuffer) ids.duplicate().clear()), store);
+    }
+
+    /** Returns the heap bytes held by the ids and the bucket directory. */
+    long footprintBytes() {
+        return (ids.hasArray() ? 8L * ids.limit() : 0)
+                + (buckets.hasArray() ? 4L * buckets.limit() : 0);
+    }
+
+    /** Returns the bytes of the ids and the bucket directory held outside the heap. */
+    long mappedBytes() {
+        return (ids.hasArray() ? 0 : 8L * ids.limit())
+                + (buckets.hasArray() ? 0 : 4L * buckets.limit());
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min-heap over the int items 0..capacity-1, keyed by doubles, supporting
+ * decrease-key. Each item is in the heap at most once, so a search that improves the
+ * distance of a queued vertex moves it up instead of queueing a duplicate. All storage is
+ * allocated up front; clear() only touches the items still queued, so one heap can be reused
+ * across searches without being reallocated or fully reset.
+ */
+public class IndexMinPQ {
+    /** Heap position of each item, or -1 if the item is not queued. */
+    private int[] position;
+    /** Items in heap order. */
+    private int[] heap;
+    private double[] keys;
+    private int size;
+
+    public IndexMinPQ(int capacity) {
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+        heap = new int[capacity];
+        keys = new double[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the smallest key in the heap. */
+    double minKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("Priority queue underflow");
+        }
+        return keys[heap[0]];
+    }
+
+    /** Returns the key of a queued item. */
+    double key(int item) {
+        return keys[item];
+    }
+
+    /**
+     * Queues item with the given key, or lowers its key if it is already queued with a
+     * larger one.
+     */
+    void insertOrDecrease(int item, double key) {
+        if (position[item] < 0) {
+            position[item] = size;
+            heap[size] = item;
+            keys[item] = key;
+            size += 1;
+            swim(size - 1);
+        } else if (key < keys[item]) {
+            keys[item] = key;
+            swim(position[item]);
+        }
+    }
+
+    /** Sets the key of a queued item, moving it up or down as needed. */
+    void changeKey(int item, double key) {
+        double old = keys[item];
+        keys[item] = key;
+        if (key < old) {
+            swim(position[item]);
+        } else {
+            sink(position[item]);
+        }
+    }
+
+    /** Removes and returns the item with the smallest key. */
+    int delMin() {
+        if (size == 0) {
+            throw new NoSuchElementException("Priority queue underflow");
+        }
+        int min = heap[0];
+        size -= 1;
+        move(heap[size], 0);
+        position[min] = -1;
+        if (size > 0) {
+            sink(0);
+        }
+        return min;
+    }
+
+    /** Empties the heap in time proportional to the number of queued items. */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void swim(int i) {
+        int item = heap[i];
+        double key = keys[item];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[heap[parent]] <= key) {
+                break;
+            }
+            move(heap[parent], i);
+            i = parent;
+        }
+        move(item, i);
+    }
+
+    private void sink(int i) {
+        int item = heap[i];
+        double key = keys[item];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child += 1;
+            }
+            if (keys[heap[child]] >= key) {
+                break;
+            }
+            move(heap[child], i);
+            i = child;
+        }
+        move(item, i);
+    }
+
+    private void move(int item, int i) {
+        heap[i] = item;
+        position[item] = i;
+    }
+}
@@ -0,0 +1,317 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Static 2-d tree over the vertices of a CSRGraph, used to answer nearest-vertex queries
+ * without scanning every vertex. The tree is implicit: vertices are permuted so that the
+ * median of every range [lo, hi) sits at (lo + hi) / 2, with the smaller coordinates on its
+ * left and the larger ones on its right. Levels alternate between splitting on longitude
+ * and latitude.
+ *
+ * Distances are the same great-circle distances GraphDB.distance returns, and ties are broken
+ * towards the smaller vertex index, so closest() returns exactly the vertex a linear scan in
+ * index order would. Subtrees are pruned with lower bounds on the great-circle distance to
+ * the splitting meridian or parallel.
+ *
+ * The tree keeps its own copy of the coordinates, in tree order, in columns of the graph's
+ * ColumnStore, so a memory-mapped graph also has a memory-mapped index.
+ */
+public class KdTree {
+    /** Radius of the earth in miles, matching GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+    /** Lower bounds are shrunk by this factor so rounding can never prune a true nearest. */
+    private static final double BOUND_SLACK = 1 - 1e-9;
+
+    /** Single-candidate buffer reused by nearest(lon, lat) on each thread. */
+    private static final ThreadLocal<Candidates> NEAREST = ThreadLocal.withInitial(
+        () -> new Candidates(1));
+
+    /** Vertex index stored at each tree position. */
+    private final IntBuffer vertex;
+    private final DoubleBuffer lons;
+    private final DoubleBuffer lats;
+
+    /**
+     * Builds the tree over every vertex of g.
+     * @param g The graph whose vertices are indexed.
+     */
+    public KdTree(CSRGraph g) {
+        this(g, false);
+    }
+
+    /**
+     * Builds the tree over the vertices of g, or only over those with at least one edge.
+     * @param g The graph whose vertices are indexed.
+     * @param connectedOnly Whether to leave out vertices without edges, which a route
+     *                      could not start or end at.
+     */
+    KdTree(CSRGraph g, boolean connectedOnly) {
+        int n = 0;
+        for (int v = 0; v < g.size(); v++) {
+            if (!connectedOnly || g.firstEdge(v) < g.endEdge(v)) {
+                n += 1;
+            }
+        }
+        vertex = g.store().ints(n);
+        lons = g.store().doubles(n);
+        lats = g.store().doubles(n);
+        int i = 0;
+        for (int v = 0; v < g.size(); v++) {
+            if (!connectedOnly || g.firstEdge(v) < g.endEdge(v)) {
+                vertex.put(i, v);
+                lons.put(i, g.lon(v));
+                lats.put(i, g.lat(v));
+                i += 1;
+            }
+        }
+        build(0, n, true);
+    }
+
+    int size() {
+        return vertex.limit();
+    }
+
+    /**
+     * Returns the index of the vertex closest to the given point, or -1 if the tree is empty.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     */
+    int nearest(double lon, double lat) {
+        if (vertex.limit() == 0) {
+            return -1;
+        }
+        Candidates best = NEAREST.get();
+        best.size = 0;
+        search(0, vertex.limit(), true, lon, lat, best);
+        return best.vertex[0];
+    }
+
+    /**
+     * Returns the index of the vertex closest to each of a batch of points.
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, parallel to lons.
+     * @return The closest vertex of each point, or -1s if the tree is empty.
+     */
+    int[] nearest(double[] lons, double[] lats) {
+        int[] result = new int[lons.length];
+        Candidates best = NEAREST.get();
+        for (int i = 0; i < lons.length; i++) {
+            if (vertex.limit() == 0) {
+                result[i] = -1;
+            } else if (i > 0 && lons[i] == lons[i - 1] && lats[i] == lats[i - 1]) {
+                result[i] = result[i - 1];
+            } else {
+                best.size = 0;
+                search(0, vertex.limit(), true, lons[i], lats[i], best);
+                result[i] = best.vertex[0];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indices of the k vertices closest to the given point, closest first. Equal
+     * distances are ordered by vertex index.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices wanted.
+     * @return Up to k vertex indices; fewer if the tree holds fewer vertices.
+     */
+    int[] nearest(double lon, double lat, int k) {
+        Candidates best = new Candidates(Math.min(k, vertex.limit()));
+        if (best.capacity > 0) {
+            search(0, vertex.limit(), true, lon, lat, best);
+        }
+        return best.sorted();
+    }
+
+    private void search(int lo, int hi, boolean splitLon, double lon, double lat,
+                        Candidates best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double midLon = lons.get(mid);
+        double midLat = lats.get(mid);
+        best.offer(GraphDB.distance(lon, lat, midLon, midLat), vertex.get(mid));
+
+        double delta = splitLon ? lon - midLon : lat - midLat;
+        boolean leftFirst = delta < 0;
+        if (leftFirst) {
+            search(lo, mid, !splitLon, lon, lat, best);
+        } else {
+            search(mid + 1, hi, !splitLon, lon, lat, best);
+        }
+        double bound = splitLon ? meridianBound(delta, lat) : parallelBound(delta);
+        if (!best.full() || bound <= best.worstDistance()) {
+            if (leftFirst) {
+                search(mid + 1, hi, !splitLon, lon, lat, best);
+            } else {
+                search(lo, mid, !splitLon, lon, lat, best);
+            }
+        }
+    }
+
+    /**
+     * Lower bound on the distance from a point to anything across a parallel: the
+     * great-circle distance is at least the arc of the latitude difference.
+     */
+    private static double parallelBound(double dLat) {
+        return EARTH_RADIUS * Math.toRadians(Math.abs(dLat)) * BOUND_SLACK;
+    }
+
+    /**
+     * Lower bound on the distance from a point to anything across a meridian: the angular
+     * distance to the meridian's plane is asin(|sin(dLon)| * cos(lat)).
+     */
+    private static double meridianBound(double dLon, double lat) {
+        if (Math.abs(dLon) >= 90) {
+            return 0;
+        }
+        double s = Math.abs(Math.sin(Math.toRadians(dLon))) * Math.cos(Math.toRadians(lat));
+        return EARTH_RADIUS * Math.asin(Math.min(1, s)) * BOUND_SLACK;
+    }
+
+    private void build(int lo, int hi, boolean splitLon) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, splitLon);
+            build(lo, mid, !splitLon);
+            lo = mid + 1;
+            splitLon = !splitLon;
+        }
+    }
+
+    /** Quickselect: places the k-th smallest key of positions [lo, hi] at position k. */
+    private void select(int lo, int hi, int k, boolean splitLon) {
+        DoubleBuffer keys = splitLon ? lons : lats;
+        while (lo < hi) {
+            double pivot = keys.get((lo + hi) >>> 1);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys.get(i) < pivot) {
+                    i += 1;
+                }
+                while (keys.get(j) > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int v = vertex.get(i);
+        vertex.put(i, vertex.get(j));
+        vertex.put(j, v);
+        double d = lons.get(i);
+        lons.put(i, lons.get(j));
+        lons.put(j, d);
+        d = lats.get(i);
+        lats.put(i, lats.get(j));
+        lats.put(j, d);
+    }
+
+    /**
+     * Bounded max-heap of the best candidates seen so far, ordered by distance and then
+     * vertex index, so the root is always the candidate to evict next.
+     */
+    private static class Candidates {
+        private final int capacity;
+        private final double[] dist;
+        private final int[] vertex;
+        private int size;
+
+        Candidates(int capacity) {
+            this.capacity = capacity;
+            dist = new double[capacity];
+            vertex = new int[capacity];
+        }
+
+        boolean full() {
+            return size == capacity;
+        }
+
+        double worstDistance() {
+            return dist[0];
+        }
+
+        void offer(double d, int v) {
+            if (size < capacity) {
+                dist[size] = d;
+                vertex[size] = v;
+                size += 1;
+                swim(size - 1);
+            } else if (worse(dist[0], vertex[0], d, v)) {
+                dist[0] = d;
+                vertex[0] = v;
+                sink(0);
+            }
+        }
+
+        /** Returns the candidates closest first, emptying the heap. */
+        int[] sorted() {
+            int[] result = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                result[i] = vertex[0];
+                size -= 1;
+                dist[0] = dist[size];
+                vertex[0] = vertex[size];
+                sink(0);
+            }
+            return result;
+        }
+
+        /** Returns true if candidate (d1, v1) ranks after (d2, v2). */
+        private static boolean worse(double d1, int v1, double d2, int v2) {
+            return d1 > d2 || (d1 == d2 && v1 > v2);
+        }
+
+        private void swim(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(dist[i], vertex[i], dist[parent], vertex[parent])) {
+                    return;
+                }
+                exchange(i, parent);
+                i = parent;
+            }
+        }
+
+        private void sink(int i) {
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size
+                        && worse(dist[child + 1], vertex[child + 1], dist[child], vertex[child])) {
+                    child += 1;
+                }
+                if (!worse(dist[child], vertex[child], dist[i], vertex[i])) {
+                    return;
+                }
+                exchange(i, child);
+                i = child;
+            }
+        }
+
+        private void exchange(int i, int j) {
+            double d = dist[i];
+            dist[i] = dist[j];
+            dist[j] = d;
+            int v = vertex[i];
+            vertex[i] = vertex[j];
+            vertex[j] = v;
+        }
+    }
+}
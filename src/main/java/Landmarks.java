@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * ALT (A*, landmarks and triangle inequality) heuristic over a CSRGraph. A few landmark
+ * vertices are chosen far apart by farthest-point selection, and the exact shortest-path
+ * distance from every landmark to every vertex is stored. By the triangle inequality,
+ * |d(L, t) - d(L, v)| is a lower bound on d(v, t) for every landmark L, and the largest of
+ * these bounds is usually much closer to the true distance on a street grid than the
+ * great-circle distance is. Since the road graph is undirected, the distance to a landmark
+ * equals the distance from it, so one table serves both.
+ *
+ * Distances are stored as floats, vertex-major, so the k values a heuristic evaluation
+ * reads are adjacent in memory. The table is a column of the graph's ColumnStore, so a
+ * mapped store keeps it off the heap. Rounding to float can make a bound overshoot by a few ulps,
+ * so each bound is lowered by FLOAT_SLACK of its operands to stay admissible, and the
+ * search reopens a settled vertex if it is later reached more cheaply. The heuristic never
+ * goes below the scaled great-circle distance of CSRGraph.estimate.
+ *
+ * Landmarks are chosen within the largest connected component; vertices outside it fall
+ * back to the great-circle heuristic.
+ */
+public class Landmarks {
+    private static final int MAGIC = 0x424d4c4d;
+    /** Bump whenever the file layout or the meaning of a field changes. */
+    static final int VERSION = 1;
+    /** Bytes of the fixed-size header, from MAGIC through the number of landmarks. */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    /** Number of landmarks used when none is given. */
+    static final int DEFAULT_COUNT = 16;
+    /** Relative slack subtracted from each bound; well above float rounding error. */
+    private static final double FLOAT_SLACK = 1e-6;
+    private static final ThreadLocal<Query> QUERY = ThreadLocal.withInitial(Query::new);
+
+    private final CSRGraph g;
+    private final int k;
+    /** Dense indices of the landmarks. */
+    private final int[] landmarks;
+    /** distances[v * k + i] is the distance between landmark i and v, or infinity. */
+    private final FloatBuffer distances;
+
+    private Landmarks(CSRGraph g, int[] landmarks, FloatBuffer distances) {
+        this.g = g;
+        this.k = landmarks.length;
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /**
+     * Chooses up to count landmarks by farthest-point selection and computes their
+     * distance tables. The first landmark is the vertex farthest from an arbitrary vertex
+     * of the largest component, and each next one is the vertex farthest from all landmarks
+     * chosen so far. Costs one Dijkstra per landmark plus one.
+     * @param g The graph; every edge must be present in both directions with equal weight.
+     * @param count The number of landmarks wanted.
+     * @return The landmark tables.
+     */
+    static Landmarks build(CSRGraph g, int count) {
+        int n = g.size();
+        int start = largestComponentVertex(g);
+        if (start < 0) {
+            return new Landmarks(g, new int[0], g.store().floats(0));
+        }
+        double[] dist = new double[n];
+        /* Distance from each vertex to its closest landmark so far. */
+        double[] closest = new double[n];
+        dijkstra(g, start, dist);
+        System.arraycopy(dist, 0, closest, 0, n);
+
+        int[] chosen = new int[count];
+        FloatBuffer table = g.store().floats(n * count);
+        int k = 0;
+        while (k < count) {
+            int next = -1;
+            for (int v = 0; v < n; v++) {
+                if (closest[v] != Double.POSITIVE_INFINITY && closest[v] > 0
+                        && (next < 0 || closest[v] > closest[next])) {
+                    next = v;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            dijkstra(g, next, dist);
+            for (int v = 0; v < n; v++) {
+                table.put(v * count + k, (float) dist[v]);
+                closest[v] = Math.min(k == 0 ? dist[v] : closest[v], dist[v]);
+            }
+            chosen[k] = next;
+            k += 1;
+        }
+        if (k < count) {
+            FloatBuffer packed = g.store().floats(n * k);
+            for (int v = 0; v < n; v++) {
+                for (int i = 0; i < k; i++) {
+                    packed.put(v * k + i, table.get(v * count + i));
+                }
+            }
+            return new Landmarks(g, Arrays.copyOf(chosen, k), packed);
+        }
+        return new Landmarks(g, chosen, table);
+    }
+
+    /** Returns a vertex of the largest connected component, or -1 if g is empty. */
+    private static int largestComponentVertex(CSRGraph g) {
+        int n = g.size();
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int[] stack = new int[n];
+        int best = -1;
+        int bestSize = 0;
+        for (int root = 0; root < n; root++) {
+            if (component[root] >= 0) {
+                continue;
+            }
+            int size = 0;
+            int top = 0;
+            stack[top++] = root;
+            component[root] = root;
+            while (top > 0) {
+                int v = stack[--top];
+                size += 1;
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    int w = g.target(e);
+                    if (component[w] < 0) {
+                        component[w] = root;
+                        stack[top++] = w;
+                    }
+                }
+            }
+            if (size > bestSize) {
+                best = root;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /** Fills dist with the shortest distance from source to every vertex, or infinity. */
+    private static void dijkstra(CSRGraph g, int source, double[] dist) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexMinPQ frontier = new IndexMinPQ(g.size());
+        dist[source] = 0;
+        frontier.insertOrDecrease(source, 0);
+        while (!frontier.isEmpty()) {
+            int v = frontier.delMin();
+            for (int e = g.firstEdge(v), end = g.endEdge(v); e < end; e++) {
+                int w = g.target(e);
+                double candidate = dist[v] + g.weight(e);
+                if (candidate < dist[w]) {
+                    dist[w] = candidate;
+                    frontier.insertOrDecrease(w, candidate);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of landmarks. */
+    int size() {
+        return k;
+    }
+
+    /** Returns the dense index of landmark i. */
+    int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /** Returns the heap bytes held by the distance table and the landmarks. */
+    long footprintBytes() {
+        return (distances.hasArray() ? 4L * distances.capacity() : 0) + 4L * landmarks.length;
+    }
+
+    /** Returns the bytes of the distance table held outside the heap. */
+    long mappedBytes() {
+        return distances.hasArray() ? 0 : 4L * distances.capacity();
+    }
+
+    /**
+     * Returns where the landmark tables of a profile's graph under a weighting are kept:
+     * next to the OSM file, with a .alt suffix (see GraphDB.pathFor).
+     */
+    static Path pathFor(Path source, Router.Profile profile, Router.Weighting weighting) {
+        return GraphDB.pathFor(source, profile, weighting, ".alt");
+    }
+
+    /**
+     * Writes these tables. The layout, big-endian, is MAGIC, VERSION, the source CRC32 and
+     * length, the number of vertices, of graph edges and of landmarks, then the landmarks
+     * and the distance table, and a CRC32 of everything before it (see ChecksummedFile).
+     * @param file The file to create or replace.
+     * @param sourceChecksum CRC32 of the OSM file the graph was built from.
+     * @param sourceLength Length in bytes of the OSM file the graph was built from.
+     */
+    void write(Path file, long sourceChecksum, long sourceLength) throws IOException {
+        ChecksummedFile.write(file, out -> {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(sourceChecksum);
+            out.putLong(sourceLength);
+            out.putInt(g.size());
+            out.putInt(g.numEdges());
+            out.putInt(k);
+            for (int landmark : landmarks) {
+                out.putInt(landmark);
+            }
+            for (int i = 0; i < distances.limit(); i++) {
+                out.putFloat(distances.get(i));
+            }
+        });
+    }
+
+    /**
+     * Loads landmark tables written by write.
+     * @param file The file.
+     * @param g The graph the tables were computed over.
+     * @param sourceChecksum CRC32 the source OSM file has now.
+     * @param sourceLength Length the source OSM file has now.
+     * @return The tables, or null if the file is missing, of another version, computed for
+     *         a different graph, or damaged.
+     */
+    static Landmarks read(Path file, CSRGraph g, long sourceChecksum, long sourceLength)
+            throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChecksummedFile.Input in = new ChecksummedFile.Input(channel);
+            if (channel.size() < HEADER_BYTES + 8 || in.getInt() != MAGIC
+                    || in.getInt() != VERSION || in.getLong() != sourceChecksum
+                    || in.getLong() != sourceLength || in.getInt() != g.size()
+                    || in.getInt() != g.numEdges()) {
+                return null;
+            }
+            int n = g.size();
+            int k = in.getInt();
+            if (k < 0 || channel.size() != HEADER_BYTES + 4L * k + 4L * n * k + 8
+                    || !ChecksummedFile.checksumMatches(channel)) {
+                return null;
+            }
+            int[] landmarks = new int[k];
+            in.column(4L * k).asIntBuffer().get(landmarks);
+            for (int landmark : landmarks) {
+                if (landmark < 0 || landmark >= n) {
+                    return null;
+                }
+            }
+            FloatBuffer distances = g.store().copyOf(in.column(4L * n * k).asFloatBuffer());
+            return new Landmarks(g, landmarks, distances);
+        } catch (RuntimeException e) {
+            /* A buffer underflow or bad length means the file does not match its header. */
+            return null;
+        }
+    }
+
+    /**
+     * Returns the ALT lower bound on the distance from v to the target whose landmark
+     * distances are in targetRow, not counting the great-circle bound.
+     */
+    private double bound(int v, float[] targetRow) {
+        double best = 0;
+        int base = v * k;
+        for (int i = 0; i < k; i++) {
+            double a = targetRow[i];
+            double b = distances.get(base + i);
+            if (a == Double.POSITIVE_INFINITY || b == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double d = Math.abs(a - b) - FLOAT_SLACK * (a + b);
+            if (d > best) {
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the shortest path from source to target by A* with the larger of the ALT and
+     * great-circle heuristics.
+     * @param source Dense index of the start vertex.
+     * @param target Dense index of the destination vertex.
+     * @return The path, its length, and the number of vertices settled.
+     */
+    SearchResult search(int source, int target) {
+        Query q = QUERY.get();
+        SearchSpace s = q.space;
+        s.prepare(g.size());
+        if (q.targetRow.length < k) {
+            q.targetRow = new float[k];
+        }
+        float[] targetRow = q.targetRow;
+        for (int i = 0; i < k; i++) {
+            targetRow[i] = distances.get(target * k + i);
+        }
+        double targetLon = g.lon(target);
+        double targetLat = g.lat(target);
+
+        s.reach(source, 0.0, -1);
+        s.frontier.insertOrDecrease(source, heuristic(source, targetRow, targetLon, targetLat));
+        int settled = 0;
+        boolean found = false;
+        while (!s.frontier.isEmpty()) {
+            int v = s.frontier.delMin();
+            settled += 1;
+            if (v == target) {
+                found = true;
+                break;
+            }
+            double dist = s.dist[v];
+            for (int e = g.firstEdge(v), end = g.endEdge(v); e < end; e++) {
+                int w = g.target(e);
+                double candidate = dist + g.weight(e);
+                /* Settled vertices are not skipped but reopened if reached more cheaply;
+                 * see the class comment. */
+                if (!s.isReached(w) || candidate < s.dist[w]) {
+                    s.reach(w, candidate, v);
+                    s.frontier.insertOrDecrease(w, candidate
+                            + heuristic(w, targetRow, targetLon, targetLat));
+                }
+            }
+        }
+        s.frontier.clear();
+        if (!found) {
+            return SearchResult.none(settled);
+        }
+        return new SearchResult(s.path(g, target), s.dist[target], settled);
+    }
+
+    private double heuristic(int v, float[] targetRow, double targetLon, double targetLat) {
+        return Math.max(bound(v, targetRow), g.estimate(v, targetLon, targetLat));
+    }
+
+    /** Scratch space for one thread's queries. */
+    private static class Query {
+        private final SearchSpace space = new SearchSpace();
+        private float[] targetRow = new float[0];
+    }
+}
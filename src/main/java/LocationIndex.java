@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search index over the named locations of the map. Locations are sorted by their cleaned
+ * name (see GraphDB.cleanString), then by full name and id. Locations that share a full name
+ * form one entry, a contiguous range of locations, and a trie over the distinct cleaned names
+ * records, for every prefix, the contiguous range of entries whose cleaned name starts with
+ * it. A prefix query walks one trie node per character and then reads one distinct name per
+ * entry of that range, so it takes time proportional to the prefix length plus the number of
+ * results, independent of how many locations there are or how many share a name.
+ *
+ * The trie is stored in parallel int arrays rather than node objects; children of a node
+ * are a linked list of siblings in increasing character order.
+ */
+public class LocationIndex {
+    private static final int NO_NODE = -1;
+
+    /** Locations in (cleaned name, name, id) order. */
+    private final String[] names;
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    /**
+     * Entry j, the locations with the j-th distinct full name, is the range
+     * [entryStart[j], entryStart[j + 1]) of locations.
+     */
+    private final int[] entryStart;
+
+    /** Trie node arrays; node 0 is the root, matching the empty prefix. */
+    private final char[] label;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    /** Range [lo, hi) of the entries below each node. */
+    private final int[] lo;
+    private final int[] hi;
+    /** Whether some cleaned name ends exactly at each node. */
+    private final boolean[] terminal;
+    private final int numNodes;
+
+    private LocationIndex(List<Location> locations) {
+        int n = locations.size();
+        names = new String[n];
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        int[] starts = new int[n + 1];
+        String[] cleaned = new String[n];
+        int entries = 0;
+        int maxNodes = 1;
+        for (int i = 0; i < n; i++) {
+            Location l = locations.get(i);
+            names[i] = l.name;
+            ids[i] = l.id;
+            lons[i] = l.lon;
+            lats[i] = l.lat;
+            /* Equal full names have equal cleaned names, so they are adjacent. */
+            if (i == 0 || !l.name.equals(names[i - 1])) {
+                starts[entries] = i;
+                cleaned[entries] = l.cleaned;
+                entries += 1;
+                maxNodes += l.cleaned.length();
+            }
+        }
+        starts[entries] = n;
+        entryStart = Arrays.copyOf(starts, entries + 1);
+
+        label = new char[maxNodes];
+        firstChild = new int[maxNodes];
+        nextSibling = new int[maxNodes];
+        lo = new int[maxNodes];
+        hi = new int[maxNodes];
+        terminal = new boolean[maxNodes];
+        Arrays.fill(firstChild, NO_NODE);
+        Arrays.fill(nextSibling, NO_NODE);
+        int nodes = 1;
+        hi[0] = entries;
+
+        /* Names arrive sorted, so each new child is the last child of its parent and the
+         * range of a node grows only at its end. path holds the nodes of the previous name,
+         * which share the common prefix with the current one. */
+        int[] path = new int[1];
+        int pathLength = 0;
+        String previous = null;
+        for (int i = 0; i < entries; i++) {
+            String s = cleaned[i];
+            int common = previous == null ? -1 : commonPrefix(previous, s);
+            if (path.length < s.length() + 1) {
+                path = Arrays.copyOf(path, s.length() + 1);
+            }
+            int depth = Math.max(0, Math.min(common, pathLength));
+            path[0] = 0;
+            for (int d = depth; d < s.length(); d++) {
+                int parent = path[d];
+                int child = nodes;
+                nodes += 1;
+                label[child] = s.charAt(d);
+                lo[child] = i;
+                if (firstChild[parent] == NO_NODE) {
+                    firstChild[parent] = child;
+                } else {
+                    int last = firstChild[parent];
+                    while (nextSibling[last] != NO_NODE) {
+                        last = nextSibling[last];
+                    }
+                    nextSibling[last] = child;
+                }
+                path[d + 1] = child;
+            }
+            for (int d = 0; d <= s.length(); d++) {
+                hi[path[d]] = i + 1;
+            }
+            terminal[path[s.length()]] = true;
+            pathLength = s.length();
+            previous = s;
+        }
+        numNodes = nodes;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int i = 0;
+        int max = Math.min(a.length(), b.length());
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i += 1;
+        }
+        return i;
+    }
+
+    /** Returns the number of indexed locations. */
+    int size() {
+        return names.length;
+    }
+
+    /** Returns the id of the i-th location in index order. */
+    long id(int i) {
+        return ids[i];
+    }
+
+    /** Returns the name of the i-th location in index order. */
+    String name(int i) {
+        return names[i];
+    }
+
+    double lon(int i) {
+        return lons[i];
+    }
+
+    double lat(int i) {
+        return lats[i];
+    }
+
+    /** Returns the number of trie nodes. */
+    int trieSize() {
+        return numNodes;
+    }
+
+    /**
+     * Returns the trie node matching a cleaned prefix, or NO_NODE if no name starts with it.
+     */
+    private int find(String cleanedPrefix) {
+        int node = 0;
+        for (int d = 0; d < cleanedPrefix.length() && node != NO_NODE; d++) {
+            char c = cleanedPrefix.charAt(d);
+            int child = firstChild[node];
+            while (child != NO_NODE && label[child] < c) {
+                child = nextSibling[child];
+            }
+            node = child != NO_NODE && label[child] == c ? child : NO_NODE;
+        }
+        return node;
+    }
+
+    /**
+     * Collects the distinct full names of locations whose cleaned name starts with the
+     * cleaned prefix, in order of cleaned name. Each entry read is a new name.
+     * @param prefix Prefix string to be searched for, in any case, with or without
+     *               punctuation.
+     * @param limit Maximum number of names to return.
+     * @return Up to limit full names.
+     */
+    List<String> prefixSearch(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        int node = find(GraphDB.cleanString(prefix));
+        if (node == NO_NODE) {
+            return result;
+        }
+        for (int j = lo[node]; j < hi[node] && result.size() < limit; j++) {
+            result.add(names[entryStart[j]]);
+        }
+        return result;
+    }
+
+    /**
+     * Collects every location whose cleaned name equals the cleaned locationName.
+     * @param locationName A full name of a location searched for.
+     * @return A list of maps with the "lat", "lon", "name" and "id" of each location.
+     */
+    List<Map<String, Object>> locations(String locationName) {
+        List<Map<String, Object>> result = new LinkedList<>();
+        int node = find(GraphDB.cleanString(locationName));
+        if (node == NO_NODE || !terminal[node]) {
+            return result;
+        }
+        /* Exact matches sort before every longer name below the node. */
+        int child = firstChild[node];
+        int end = child == NO_NODE ? hi[node] : lo[child];
+        for (int i = entryStart[lo[node]]; i < entryStart[end]; i++) {
+            Map<String, Object> location = new HashMap<>();
+            location.put("lat", lats[i]);
+            location.put("lon", lons[i]);
+            location.put("name", names[i]);
+            location.put("id", ids[i]);
+            result.add(location);
+        }
+        return result;
+    }
+
+    /** Collects locations while a graph is built, then freezes them into an index. */
+    static class Builder {
+        private final List<Location> locations = new ArrayList<>();
+
+        void add(long id, double lon, double lat, String name) {
+            locations.add(new Location(id, lon, lat, name));
+        }
+
+        LocationIndex build() {
+            locations.sort(Comparator.comparing((Location l) -> l.cleaned)
+                    .thenComparing(l -> l.name).thenComparingLong(l -> l.id));
+            return new LocationIndex(locations);
+        }
+    }
+
+    private static class Location {
+        final long id;
+        final double lon;
+        final double lat;
+        final String name;
+        final String cleaned;
+
+        Location(long id, double lon, double lat, String name) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+            this.name = name;
+            this.cleaned = GraphDB.cleanString(name);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of longs backed by a long[], for the id lists that ArrayList would store as
+ * one boxed Long each. The array doubles when full, as ArrayList's roughly does.
+ */
+public class LongArrayList {
+    private long[] values;
+    private int size;
+
+    LongArrayList() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty list.
+     * @param capacity The number of values it holds before growing.
+     */
+    LongArrayList(int capacity) {
+        values = new long[Math.max(capacity, 1)];
+    }
+
+    /** Returns the number of values. */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Appends a value. */
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size] = value;
+        size += 1;
+    }
+
+    /** Returns the value at index i. */
+    long get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        return values[i];
+    }
+
+    /** Replaces the value at index i. */
+    void set(int i, long value) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        values[i] = value;
+    }
+
+    /** Returns the values in a new array of length size(). */
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /** Returns the bytes held by the backing array. */
+    long footprintBytes() {
+        return 8L * values.length;
+    }
+
+    /** Formats the list like ArrayList does, as [1, 2, 3]. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "" : ", ").append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Hash map from long keys to double values that stores both unboxed in two parallel arrays,
+ * probed linearly like LongIntMap, instead of a HashMap entry, a Long and a Double per key.
+ * Key 0 marks a free slot, so the entry for key 0, if any, is kept beside the table.
+ */
+public class LongDoubleMap {
+    private final double noValue;
+    private long[] keys;
+    private double[] values;
+    /** Home slot of key is (key * LongIntMap.HASH_MULTIPLIER) >>> shift. */
+    private int shift;
+    private int size;
+    private boolean hasZeroKey;
+    private double zeroValue;
+
+    /**
+     * Creates an empty map.
+     * @param noValue The value get and remove return for keys that are not in the map.
+     */
+    LongDoubleMap(double noValue) {
+        this(0, noValue);
+    }
+
+    /**
+     * Creates an empty map that holds expectedSize keys without growing.
+     * @param expectedSize The number of keys expected.
+     * @param noValue The value get and remove return for keys that are not in the map.
+     */
+    LongDoubleMap(int expectedSize, double noValue) {
+        this.noValue = noValue;
+        allocate(LongIntMap.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private int home(long key) {
+        return (int) ((key * LongIntMap.HASH_MULTIPLIER) >>> shift);
+    }
+
+    /** Returns the slot holding key, or the free slot where it would go. */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = home(key);
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Returns the number of keys. */
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : keys[slot(key)] != 0;
+    }
+
+    /** Returns the value of key, or noValue if the key is not in the map. */
+    double get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : noValue;
+        }
+        int i = slot(key);
+        return keys[i] != 0 ? values[i] : noValue;
+    }
+
+    /**
+     * Maps key to value.
+     * @return The previous value of key, or noValue if it had none.
+     */
+    double put(long key, double value) {
+        if (key == 0) {
+            double previous = hasZeroKey ? zeroValue : noValue;
+            size += hasZeroKey ? 0 : 1;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int i = slot(key);
+        if (keys[i] != 0) {
+            double previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size += 1;
+        if (size > keys.length / 2) {
+            grow();
+        }
+        return noValue;
+    }
+
+    /**
+     * Removes key from the map.
+     * @return The value it had, or noValue if it was not in the map.
+     */
+    double remove(long key) {
+        if (key == 0) {
+            double previous = hasZeroKey ? zeroValue : noValue;
+            size -= hasZeroKey ? 1 : 0;
+            hasZeroKey = false;
+            return previous;
+        }
+        int i = slot(key);
+        if (keys[i] == 0) {
+            return noValue;
+        }
+        double previous = values[i];
+        int mask = keys.length - 1;
+        /* Move back every later entry of the run whose home slot does not lie between the
+         * hole and its own slot, so lookups never stop at the hole too early. */
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int h = home(keys[j]);
+            if (((j - h) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size -= 1;
+        return previous;
+    }
+
+    /** Returns all keys, in no particular order. */
+    long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            result[n++] = 0;
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(2 * oldKeys.length);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /** Returns the bytes held by the table. */
+    long footprintBytes() {
+        return 16L * keys.length;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Hash map from long keys to int values that stores both unboxed in two parallel arrays. A
+ * key's home slot comes from a multiplicative hash of it, collisions probe the following
+ * slots (linear probing), and the table doubles whenever it gets half full, so lookups touch
+ * one or two adjacent slots instead of chasing a HashMap entry, a Long and an Integer.
+ *
+ * Key 0 marks a free slot, so the entry for key 0, if any, is kept beside the table. Removal
+ * shifts later entries of the probe run back instead of leaving tombstones.
+ */
+public class LongIntMap {
+    private static final int MIN_CAPACITY = 16;
+    /** 2^64 divided by the golden ratio; multiplying by it spreads clustered ids. */
+    static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final int noValue;
+    private long[] keys;
+    private int[] values;
+    /** Home slot of key is (key * HASH_MULTIPLIER) >>> shift. */
+    private int shift;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Creates an empty map.
+     * @param noValue The value get and remove return for keys that are not in the map.
+     */
+    LongIntMap(int noValue) {
+        this(0, noValue);
+    }
+
+    /**
+     * Creates an empty map that holds expectedSize keys without growing.
+     * @param expectedSize The number of keys expected.
+     * @param noValue The value get and remove return for keys that are not in the map.
+     */
+    LongIntMap(int expectedSize, int noValue) {
+        this.noValue = noValue;
+        allocate(capacityFor(expectedSize));
+    }
+
+    /** Returns the power-of-two table length that keeps size keys at most half full. */
+    static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 < size) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private int home(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+    /** Returns the slot holding key, or the free slot where it would go. */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = home(key);
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Returns the number of keys. */
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : keys[slot(key)] != 0;
+    }
+
+    /** Returns the value of key, or noValue if the key is not in the map. */
+    int get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : noValue;
+        }
+        int i = slot(key);
+        return keys[i] != 0 ? values[i] : noValue;
+    }
+
+    /**
+     * Maps key to value.
+     * @return The previous value of key, or noValue if it had none.
+     */
+    int put(long key, int value) {
+        if (key == 0) {
+            int previous = hasZeroKey ? zeroValue : noValue;
+            size += hasZeroKey ? 0 : 1;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int i = slot(key);
+        if (keys[i] != 0) {
+            int previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size += 1;
+        if (size > keys.length / 2) {
+            grow();
+        }
+        return noValue;
+    }
+
+    /**
+     * Removes key from the map.
+     * @return The value it had, or noValue if it was not in the map.
+     */
+    int remove(long key) {
+        if (key == 0) {
+            int previous = hasZeroKey ? zeroValue : noValue;
+            size -= hasZeroKey ? 1 : 0;
+            hasZeroKey = false;
+            return previous;
+        }
+        int i = slot(key);
+        if (keys[i] == 0) {
+            return noValue;
+        }
+        int previous = values[i];
+        int mask = keys.length - 1;
+        /* Move back every later entry of the run whose home slot does not lie between the
+         * hole and its own slot, so lookups never stop at the hole too early. */
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int h = home(keys[j]);
+            if (((j - h) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size -= 1;
+        return previous;
+    }
+
+    /** Returns all keys, in no particular order. */
+    long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            result[n++] = 0;
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(2 * oldKeys.length);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /** Returns the bytes held by the table. */
+    long footprintBytes() {
+        return 12L * keys.length;
+    }
+}
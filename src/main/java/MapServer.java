@@ -6,11 +6,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import javax.imageio.ImageIO;
 import java.io.IOException;
 
@@ -44,8 +45,12 @@ public class MapServer {
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
-    /** The tile images are in the IMG_ROOT folder. */
-    private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /**
+     * The tile images are in the IMG_ROOT folder. Override it with -Dbearmaps.imgRoot; the
+     * value must end with a path separator.
+     **/
+    private static final String IMG_ROOT = System.getProperty("bearmaps.imgRoot",
+            "../library-sp18/data/proj3_imgs/");
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -77,9 +82,66 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    /**
+     * Optional parameter of /raster and /clear_route naming the route to draw or clear. Its
+     * value is the token returned by /route.
+     **/
+    private static final String ROUTE_TOKEN_PARAM = "route_token";
+    /**
+     * Optional parameter of /search capping the number of autocomplete suggestions, which
+     * otherwise defaults to DEFAULT_SEARCH_LIMIT.
+     **/
+    private static final String SEARCH_LIMIT_PARAM = "limit";
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    /**
+     * Optional parameter of /route naming the search to run, one of Router.Algorithm in any
+     * case. Defaults to astar. The response reports how many vertices the search settled.
+     **/
+    private static final String ALGORITHM_PARAM = "algorithm";
+    /**
+     * Optional parameter of /route naming what the route minimizes, one of Router.Weighting
+     * in any case: distance (the default) or time. The response reports the route's cost
+     * as "cost", in miles or seconds.
+     **/
+    private static final String WEIGHTING_PARAM = "weighting";
+    /**
+     * Optional parameter of /route naming the way of travel, one of Router.Profile in any
+     * case: car (the default), bike or walk. The route only uses roads open to it.
+     **/
+    private static final String PROFILE_PARAM = "profile";
+    /**
+     * Parameters of /matrix: the start and destination points, each a list of lon,lat pairs
+     * separated by semicolons, such as "-122.26,37.87;-122.25,37.86". The response holds
+     * "distances", a matrix with a row per source and a column per target, in miles, where
+     * -1 marks a target that cannot be reached.
+     **/
+    private static final String MATRIX_SOURCES_PARAM = "sources";
+    private static final String MATRIX_TARGETS_PARAM = "targets";
+    /** Maximum number of sources, and of targets, in one /matrix request. */
+    private static final int MAX_MATRIX_POINTS = 1000;
+    /**
+     * Byte budget of the decoded tile cache. Override it with -Dbearmaps.tileCacheBytes;
+     * a decoded 256x256 tile takes between 64 and 256 KB.
+     **/
+    private static final long TILE_CACHE_BYTES = Long.getLong("bearmaps.tileCacheBytes",
+            256L << 20);
+    /**
+     * Byte budget of the rendered raster cache, counted as the size of the base64 strings.
+     * Override it with -Dbearmaps.rasterCacheBytes.
+     **/
+    private static final long RASTER_CACHE_BYTES = Long.getLong("bearmaps.rasterCacheBytes",
+            64L << 20);
+
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /** Routes of all clients, keyed by route token. */
+    private static RouteStore routes = new RouteStore();
+    /** Decoded tile images, keyed by d{depth}_x{x}_y{y}. */
+    private static BoundedCache<String, BufferedImage> tiles =
+            new BoundedCache<>(TILE_CACHE_BYTES, MapServer::imageBytes);
+    /** Finished /raster images, keyed by tile range and the route drawn over them. */
+    private static BoundedCache<RasterKey, RenderedRaster> renderedRasters =
+            new BoundedCache<>(RASTER_CACHE_BYTES, r -> 2L * r.encodedImage.length());
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,7 +151,7 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = GraphDB.load(OSM_DB_PATH);
         rasterer = new Rasterer();
     }
 
@@ -109,17 +171,22 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            /* raster() does almost all the work for this API call */
+            Rasterer.Raster raster = rasterer.raster(params);
+            Map<String, Object> rasteredImgParams = raster.toMap();
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                /* Panning within the same tiles repeats the same image, so reuse it. */
+                RouteStore.Route route = routes.get(req.queryParams(ROUTE_TOKEN_PARAM));
+                RasterKey key = new RasterKey(raster,
+                        route == null ? RouteStore.Route.NO_ROUTE : route.fingerprint);
+                RenderedRaster rendered = renderedRasters.get(key,
+                    k -> render(rasteredImgParams, route == null ? null : route.path));
+                rasteredImgParams.put("raster_width", rendered.width);
+                rasteredImgParams.put("raster_height", rendered.height);
+                rasteredImgParams.put("b64_encoded_image_data", rendered.encodedImage);
             }
 
             /* Encode response to Json */
@@ -131,27 +198,63 @@ public class MapServer {
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            Router.Algorithm algorithm = null;
+            try {
+                algorithm = Router.Algorithm.parse(req.queryParams(ALGORITHM_PARAM));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Unknown routing algorithm.");
+            }
+            Router.Weighting weighting = null;
+            try {
+                weighting = Router.Weighting.parse(req.queryParams(WEIGHTING_PARAM));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Unknown routing weighting.");
+            }
+            Router.Profile profile = null;
+            try {
+                profile = Router.Profile.parse(req.queryParams(PROFILE_PARAM));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Unknown routing profile.");
+            }
+            SearchResult result = Router.route(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"),
+                    algorithm, weighting, profile);
+            List<Long> route = result.path;
+            String directions = getDirectionsText(route);
             Map<String, Object> routeParams = new HashMap<>();
             routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("settled", result.settled);
+            if (!route.isEmpty()) {
+                routeParams.put("cost", result.length);
+                routeParams.put(ROUTE_TOKEN_PARAM, routes.put(route));
+            }
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
+        /* Define the distance matrix endpoint for HTTP GET requests. */
+        get("/matrix", (req, res) -> {
+            double[][] sources = getPoints(req, MATRIX_SOURCES_PARAM);
+            double[][] targets = getPoints(req, MATRIX_TARGETS_PARAM);
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put("distances", Router.distanceMatrix(graph, sources, targets));
+            Gson gson = new Gson();
+            return gson.toJson(matrixParams);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(req.queryParams(ROUTE_TOKEN_PARAM));
             return true;
         });
 
         /* Define the API endpoint for search */
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
-            String term = req.queryParams("term");
+            /* A missing term matches like the empty prefix. */
+            String term = reqParams.contains("term") ? req.queryParams("term") : "";
             Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
@@ -159,11 +262,31 @@ public class MapServer {
                 return gson.toJson(data);
             } else {
                 /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                int limit = DEFAULT_SEARCH_LIMIT;
+                if (reqParams.contains(SEARCH_LIMIT_PARAM)) {
+                    try {
+                        limit = Integer.parseInt(req.queryParams(SEARCH_LIMIT_PARAM));
+                    } catch (NumberFormatException e) {
+                        halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                    }
+                    if (limit < 0) {
+                        halt(HALT_RESPONSE, "Incorrect parameters - limit must not be negative.");
+                    }
+                }
+                List<String> matches = getLocationsByPrefix(term, limit);
                 return gson.toJson(matches);
             }
         });
 
+        /* Define the API endpoint for cache statistics. */
+        get("/stats", (req, res) -> {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("tile_cache", tiles.stats());
+            stats.put("raster_cache", renderedRasters.stats());
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
         /* Define map application redirect */
         get("/", (request, response) -> {
             response.redirect("/map.html", 301);
@@ -197,13 +320,61 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * Parses a list of points given as "lon,lat;lon,lat;..." in a request parameter.
+     * @param req HTTP Request.
+     * @param param Name of the parameter.
+     * @return The points as {lon, lat} pairs.
+     */
+    private static double[][] getPoints(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        if (pairs.length > MAX_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Too many points - at most " + MAX_MATRIX_POINTS + ".");
+        }
+        double[][] points = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                points[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                    Double.parseDouble(lonLat[1].trim())};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Draws and encodes the image for a raster query.
+     * @param rasteredImageParams The results of the rasterer for the query.
+     * @param route The route to draw over the tiles, or null for none.
+     * @return The base64-encoded png and its dimensions.
+     */
+    private static RenderedRaster render(Map<String, Object> rasteredImageParams,
+                                         List<Long> route) {
+        /* The png image is written to the ByteArrayOutputStream */
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeImagesToOutputStream(rasteredImageParams, route, os);
+        return new RenderedRaster(Base64.getEncoder().encodeToString(os.toByteArray()),
+                (int) rasteredImageParams.get("raster_width"),
+                (int) rasteredImageParams.get("raster_height"));
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
+     * @param route The route to draw over the tiles, or null for none.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+                                                  List<Long> route, ByteArrayOutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -215,7 +386,7 @@ public class MapServer {
 
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
+                graphic.drawImage(getImage(renderGrid[r][c]), x, y, null);
                 x += MapServer.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -257,7 +428,25 @@ public class MapServer {
 
     }
 
-    private static BufferedImage getImage(String imgPath) {
+    /**
+     * Returns the decoded image of a tile, reading it from IMG_ROOT only if it is not cached.
+     * @param tileFile The file name of the tile, e.g. "d2_x3_y1.png".
+     * @return The image, or null if it could not be read.
+     */
+    private static BufferedImage getImage(String tileFile) {
+        int extension = tileFile.lastIndexOf('.');
+        String key = extension < 0 ? tileFile : tileFile.substring(0, extension);
+        return tiles.get(key, k -> readImage(IMG_ROOT + tileFile));
+    }
+
+    /** Returns the number of bytes held by the pixel data of an image. */
+    private static long imageBytes(BufferedImage img) {
+        DataBuffer data = img.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks()
+                * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+    }
+
+    private static BufferedImage readImage(String imgPath) {
         BufferedImage tileImg = null;
         if (tileImg == null) {
             try {
@@ -271,10 +460,14 @@ public class MapServer {
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the route stored under a route token, if it exists.
+     * @param routeToken The token returned by /route, or null.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(String routeToken) {
+        RouteStore.Route route = routes.remove(routeToken);
+        if (route != null) {
+            renderedRasters.invalidateIf(k -> k.routeFingerprint == route.fingerprint);
+        }
     }
 
     /**
@@ -285,7 +478,21 @@ public class MapServer {
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        return getLocationsByPrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Collect the first <code>limit</code> names of OSM locations that prefix-match the query
+     * string, in order of their cleaned names. Takes time proportional to the length of the
+     * prefix plus <code>limit</code>.
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit Maximum number of names to return.
+     * @return A <code>List</code> of at most <code>limit</code> full names of locations whose
+     * cleaned name matches the cleaned <code>prefix</code>.
+     */
+    public static List<String> getLocationsByPrefix(String prefix, int limit) {
+        return graph.locations().prefixSearch(prefix, limit);
     }
 
     /**
@@ -301,7 +508,7 @@ public class MapServer {
      * "id" : Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return graph.locations().locations(locationName);
     }
 
     /**
@@ -326,10 +533,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
+    private static String getDirectionsText(List<Long> route) {
         List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
         if (directions == null || directions.isEmpty()) {
             return "";
@@ -342,4 +549,55 @@ public class MapServer {
         }
         return sb.toString();
     }
+
+    /**
+     * Identifies a rendered raster: the tiles it is made of and the route drawn over them.
+     * Queries that differ only by a pan within the same tiles share a key.
+     */
+    private static final class RasterKey {
+        private final int depth;
+        private final int startX;
+        private final int startY;
+        private final int endX;
+        private final int endY;
+        private final long routeFingerprint;
+
+        RasterKey(Rasterer.Raster raster, long routeFingerprint) {
+            this.depth = raster.depth;
+            this.startX = raster.startX;
+            this.startY = raster.startY;
+            this.endX = raster.endX;
+            this.endY = raster.endY;
+            this.routeFingerprint = routeFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RasterKey)) {
+                return false;
+            }
+            RasterKey other = (RasterKey) o;
+            return depth == other.depth && startX == other.startX && startY == other.startY
+                    && endX == other.endX && endY == other.endY
+                    && routeFingerprint == other.routeFingerprint;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(depth, startX, startY, endX, endY, routeFingerprint);
+        }
+    }
+
+    /** The encoded image of a raster query and its size in pixels. */
+    private static final class RenderedRaster {
+        private final String encodedImage;
+        private final int width;
+        private final int height;
+
+        RenderedRaster(String encodedImage, int width, int height) {
+            this.encodedImage = encodedImage;
+            this.width = width;
+            this.height = height;
+        }
+    }
 }
@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Optional names of the dense indices 0..size()-1, such as the vertices of a CSRGraph, kept
+ * as two columns of a ColumnStore instead of one String reference per index: the UTF-8 bytes
+ * of all names back to back, and the end offset of each name in them. An index without a
+ * name stores the complement of its end offset, so a missing name and an empty one differ.
+ * A name is decoded into a new String when it is read.
+ */
+public class NameColumn {
+    private final ColumnStore store;
+    /**
+     * ends[i + 1] is the end of the bytes of name i, or its complement if i has no name;
+     * ends[0] is 0. Name i starts where name i - 1 ends.
+     */
+    private final IntBuffer ends;
+    private final ByteBuffer bytes;
+
+    private NameColumn(IntBuffer ends, ByteBuffer bytes, ColumnStore store) {
+        this.ends = ends;
+        this.bytes = bytes;
+        this.store = store;
+    }
+
+    /** Returns the number of indices. */
+    int size() {
+        return ends.limit() - 1;
+    }
+
+    /** Returns the name of index i, or null if it has none. */
+    String get(int i) {
+        int end = ends.get(i + 1);
+        if (end < 0) {
+            return null;
+        }
+        int start = end(i);
+        byte[] utf8 = new byte[end - start];
+        /* A duplicate has its own position, so threads can read names concurrently. */
+        ByteBuffer in = bytes.duplicate();
+        in.position(start);
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the end of the bytes of index i - 1, which is where those of i start. */
+    private int end(int i) {
+        int end = ends.get(i);
+        return end < 0 ? ~end : end;
+    }
+
+    /**
+     * Returns these names with their columns in another store, copying them unless they are
+     * already there.
+     * @param to The store to move to.
+     */
+    NameColumn storedIn(ColumnStore to) {
+        if (to == store) {
+            return this;
+        }
+        return new NameColumn(to.copyOf(ends), to.copyOf(bytes), to);
+    }
+
+    /** Returns the heap bytes held by the columns. */
+    long footprintBytes() {
+        return (ends.hasArray() ? 4L * ends.capacity() : 0)
+                + (bytes.hasArray() ? bytes.capacity() : 0);
+    }
+
+    /** Returns the bytes of the columns held outside the heap. */
+    long mappedBytes() {
+        return (ends.hasArray() ? 0 : 4L * ends.capacity())
+                + (bytes.hasArray() ? 0 : bytes.capacity());
+    }
+
+    /**
+     * Appends the names of indices 0, 1, ... in order. The byte column doubles in the store
+     * when it fills up, and is trimmed by build.
+     */
+    static class Builder {
+        private final ColumnStore store;
+        private final IntBuffer ends;
+        private ByteBuffer bytes;
+        private int size;
+        private int end;
+
+        /**
+         * Creates a builder for a number of names.
+         * @param n The number of names that will be added.
+         * @param store The store the columns are allocated from.
+         */
+        Builder(int n, ColumnStore store) {
+            this.store = store;
+            ends = store.ints(n + 1);
+            bytes = store.bytes(Math.max(16, n));
+        }
+
+        /**
+         * Adds the name of the next index.
+         * @param name The name, or null.
+         * @throws IllegalStateException If all n names were added already, or the names
+         *                               exceed 2 GB of UTF-8.
+         */
+        void add(String name) {
+            if (size + 1 >= ends.limit()) {
+                throw new IllegalStateException("All " + size + " names were added");
+            }
+            size += 1;
+            if (name == null) {
+                ends.put(size, ~end);
+                return;
+            }
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > Integer.MAX_VALUE - end) {
+                throw new IllegalStateException("Names exceed " + Integer.MAX_VALUE + " bytes");
+            }
+            if (end + utf8.length > bytes.capacity()) {
+                ByteBuffer bigger = store.bytes((int) Math.min(Integer.MAX_VALUE,
+                        Math.max(end + utf8.length, 2L * bytes.capacity())));
+                ByteBuffer written = bytes.duplicate();
+                written.position(0);
+                written.limit(end);
+                bigger.put(written);
+                bytes = bigger;
+            }
+            bytes.position(end);
+            bytes.put(utf8);
+            end += utf8.length;
+            ends.put(size, end);
+        }
+
+        /**
+         * Returns the names added so far, with the byte column trimmed to their length.
+         * @throws IllegalStateException If fewer than n names were added.
+         */
+        NameColumn build() {
+            if (size + 1 != ends.limit()) {
+                throw new IllegalStateException("Only " + size + " of " + (ends.limit() - 1)
+                        + " names were added");
+            }
+            ByteBuffer written = bytes.duplicate();
+            written.position(0);
+            written.limit(end);
+            return new NameColumn(ends, store.copyOf(written), store);
+        }
+    }
+}
@@ -0,0 +1,574 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Staged, multi-threaded construction of a GraphDB from an OSM file. It gives the same graph as
+ * new GraphDB(dbPath) without building a HashMap entry per node and edge:
+ * <ol>
+ *   <li>The calling thread reads the file through OsmInput, so in any supported format, and
+ *       cuts the nodes and ways it reports into batches.</li>
+ *   <li>A node stage appends node batches to a primitive node table, which it sorts by id
+ *       once the first way arrives.</li>
+ *   <li>A way stage waits for the node table, then hands each way batch to a pool of worker
+ *       threads that resolve node ids to table indices and emit directed edges.</li>
+ * </ol>
+ * Batches pass between stages through bounded queues, so a slow stage holds the reader back
+ * instead of letting batches pile up. At the end, edges are grouped by source, each row is
+ * sorted and de-duplicated on the workers (the way read last labels an edge, as with
+ * GraphDB.addEdge), nodes without edges are dropped, and the rows become the CSR graph.
+ *
+ * Nodes must come before all ways, as they do in OSM extracts. A way segment whose node is
+ * missing from the file is skipped.
+ *
+ * In two-pass mode (-Dbearmaps.twoPassIngest=true) the file is read twice. The first pass
+ * only collects the ids of the nodes that usable ways refer to, into a sorted long array;
+ * the second keeps coordinates for those nodes alone, while still indexing every named node
+ * for location search. Buildings and other nodes that would be dropped with no edges never
+ * reach the node table, so peak memory follows the size of the road network rather than the
+ * size of the extract, at the cost of reading the file twice.
+ */
+public class OsmIngest implements OsmSink {
+    /** Nodes or ways per batch. */
+    static final int BATCH_SIZE = 4096;
+    /** Batches a queue holds before the reader waits. */
+    private static final int QUEUE_CAPACITY = 16;
+    private static final NodeBatch NODES_END = new NodeBatch(0);
+    private static final List<GraphDB.Way> WAYS_END = new ArrayList<>(0);
+    /** Whether read(dbPath) makes two passes over the file. */
+    static final boolean TWO_PASS = Boolean.getBoolean("bearmaps.twoPassIngest");
+
+    private final BlockingQueue<NodeBatch> nodeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<List<GraphDB.Way>> wayQueue =
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /** Reader-side state: the batches being filled, and whether ways have begun. */
+    private NodeBatch nodes = new NodeBatch(BATCH_SIZE);
+    private List<GraphDB.Way> ways = new ArrayList<>(BATCH_SIZE);
+    private boolean inWays;
+    /** Sorted ids of the nodes to keep, or null to keep every node. */
+    private final long[] referenced;
+    /** Position in referenced just past the last node kept. */
+    private int cursor;
+    /** The node reported last, whether it was kept, for its name tag. */
+    private boolean lastKept;
+    private double lastLon;
+    private double lastLat;
+    /** Named locations, added by the reader in file order. */
+    private final LocationIndex.Builder locations = new LocationIndex.Builder();
+    /** Way records, added by the way stage in file order. */
+    private final EdgeAttributes.Builder records = new EdgeAttributes.Builder();
+    /** Record of every way, by its position in the file; written by the way stage. */
+    private int[] wayRecords = new int[BATCH_SIZE];
+
+    private OsmIngest(long[] referenced) {
+        this.referenced = referenced;
+    }
+
+    /**
+     * Builds the graph of an OSM file, in any format OsmInput reads, through the staged
+     * pipeline, in two passes if TWO_PASS is set.
+     * @param dbPath Path to the file.
+     * @return The graph.
+     * @throws IOException If the file cannot be read or parsed, or lists a node after a way.
+     */
+    public static GraphDB read(String dbPath) throws IOException {
+        return read(dbPath, TWO_PASS);
+    }
+
+    /**
+     * Builds the graph of an OSM file through the staged pipeline.
+     * @param dbPath Path to the file.
+     * @param twoPass Whether to first collect the referenced nodes, and keep only those.
+     * @return The graph, the same either way.
+     * @throws IOException If the file cannot be read or parsed, or lists a node after a way.
+     */
+    static GraphDB read(String dbPath, boolean twoPass) throws IOException {
+        long[] referenced = twoPass ? referencedNodes(dbPath) : null;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService stages = Executors.newFixedThreadPool(2, daemonThreads("osm-stage"));
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                daemonThreads("osm-worker"));
+        OsmIngest ingest = new OsmIngest(referenced);
+        try {
+            Future<NodeTable> nodeStage = stages.submit(ingest::buildNodeTable);
+            Future<List<EdgeBatch>> wayStage =
+                    stages.submit(() -> ingest.resolveWays(nodeStage, workers));
+            try {
+                OsmInput.read(dbPath, ingest);
+            } finally {
+                ingest.finish();
+            }
+            return ingest.assemble(nodeStage.get(), wayStage.get(), workers);
+        } catch (IllegalStateException e) {
+            throw new IOException("Cannot ingest " + dbPath, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot ingest " + dbPath, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while ingesting " + dbPath);
+        } finally {
+            stages.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    /** Returns a factory of daemon threads, so an abandoned pool cannot keep the JVM alive. */
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * First pass of a two-pass read: returns the sorted, distinct ids of the nodes that
+     * usable ways refer to.
+     */
+    static long[] referencedNodes(String dbPath) throws IOException {
+        References references = new References();
+        OsmInput.read(dbPath, references);
+        return references.sortedIds();
+    }
+
+    /**
+     * Returns whether a node is referenced. Extracts list nodes in id order, so the search
+     * usually steps forward from the last hit instead of starting over.
+     */
+    private boolean isReferenced(long id) {
+        if (cursor > 0 && referenced[cursor - 1] >= id) {
+            int i = Arrays.binarySearch(referenced, id);
+            cursor = i >= 0 ? i + 1 : -i - 1;
+            return i >= 0;
+        }
+        while (cursor < referenced.length && referenced[cursor] < id) {
+            cursor += 1;
+        }
+        if (cursor < referenced.length && referenced[cursor] == id) {
+            cursor += 1;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void node(long id, double lon, double lat) {
+        if (inWays) {
+            throw new IllegalStateException("Node " + id + " comes after the first way");
+        }
+        lastLon = lon;
+        lastLat = lat;
+        lastKept = referenced == null || isReferenced(id);
+        if (!lastKept) {
+            return;
+        }
+        if (nodes.size == BATCH_SIZE) {
+            put(nodeQueue, nodes);
+            nodes = new NodeBatch(BATCH_SIZE);
+        }
+        nodes.add(id, lon, lat);
+    }
+
+    @Override
+    public void nodeName(long id, String name) {
+        if (lastKept) {
+            nodes.names[nodes.size - 1] = name;
+        }
+        locations.add(id, lastLon, lastLat, name);
+    }
+
+    @Override
+    public void way(GraphDB.Way way) {
+        if (!inWays) {
+            endNodes();
+        }
+        ways.add(way);
+        if (ways.size() == BATCH_SIZE) {
+            put(wayQueue, ways);
+            ways = new ArrayList<>(BATCH_SIZE);
+        }
+    }
+
+    private void endNodes() {
+        inWays = true;
+        put(nodeQueue, nodes);
+        put(nodeQueue, NODES_END);
+        nodes = null;
+    }
+
+    /** Flushes the last batches and tells both stages that the file has ended. */
+    private void finish() {
+        if (!inWays) {
+            endNodes();
+        }
+        put(wayQueue, ways);
+        put(wayQueue, WAYS_END);
+    }
+
+    /** Blocks until the queue has room; the stages always drain their queues to the end. */
+    private static <T> void put(BlockingQueue<T> queue, T batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing a batch", e);
+        }
+    }
+
+    /** Node stage: collects node batches into a table sorted by id. */
+    private NodeTable buildNodeTable() throws InterruptedException {
+        NodeTable table = new NodeTable();
+        NodeBatch batch = nodeQueue.take();
+        try {
+            for (; batch != NODES_END; batch = nodeQueue.take()) {
+                table.append(batch);
+            }
+        } catch (RuntimeException | Error e) {
+            while (batch != NODES_END) {
+                batch = nodeQueue.take();
+            }
+            throw e;
+        }
+        table.seal();
+        return table;
+    }
+
+    /**
+     * Way stage: numbers each way and its record in file order, then resolves the batches
+     * on the workers once the node table is known.
+     */
+    private List<EdgeBatch> resolveWays(Future<NodeTable> nodeStage, ExecutorService workers)
+            throws InterruptedException, ExecutionException {
+        List<Future<EdgeBatch>> parts = new ArrayList<>();
+        NodeTable table = null;
+        int count = 0;
+        List<GraphDB.Way> batch = wayQueue.take();
+        try {
+            for (; batch != WAYS_END; batch = wayQueue.take()) {
+                if (table == null) {
+                    table = nodeStage.get();
+                }
+                if (count + batch.size() > wayRecords.length) {
+                    wayRecords = Arrays.copyOf(wayRecords,
+                            Math.max(2 * wayRecords.length, count + batch.size()));
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    wayRecords[count + i] = records.add(batch.get(i));
+                }
+                NodeTable nodeTable = table;
+                List<GraphDB.Way> ways = batch;
+                int first = count;
+                parts.add(workers.submit(() -> resolve(nodeTable, ways, first)));
+                count += batch.size();
+            }
+        } catch (RuntimeException | Error | ExecutionException e) {
+            while (batch != WAYS_END) {
+                batch = wayQueue.take();
+            }
+            throw e;
+        }
+        List<EdgeBatch> edges = new ArrayList<>(parts.size());
+        for (Future<EdgeBatch> part : parts) {
+            edges.add(part.get());
+        }
+        return edges;
+    }
+
+    /**
+     * Worker task: turns a batch of ways into directed edges between node table indices.
+     * @param first The file position of the first way of the batch.
+     */
+    private static EdgeBatch resolve(NodeTable table, List<GraphDB.Way> ways, int first) {
+        EdgeBatch edges = new EdgeBatch();
+        for (int i = 0; i < ways.size(); i++) {
+            LongArrayList ids = ways.get(i).nodeIds;
+            int prev = ids.isEmpty() ? -1 : table.index(ids.get(0));
+            for (int j = 1; j < ids.size(); j++) {
+                int next = table.index(ids.get(j));
+                if (prev >= 0 && next >= 0) {
+                    edges.add(prev, next, first + i);
+                    edges.add(next, prev, first + i);
+                }
+                prev = next;
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Groups the edges into rows by source, sorts and de-duplicates each row on the workers,
+     * and freezes the rows of the nodes that have edges into the graph. The rows and the
+     * graph's columns are allocated from ColumnStore.CONFIGURED and filled in place, so a
+     * mapped store never holds them on the heap.
+     */
+    private GraphDB assemble(NodeTable table, List<EdgeBatch> edges, ExecutorService workers)
+            throws InterruptedException, ExecutionException {
+        ColumnStore store = ColumnStore.CONFIGURED;
+        int n = table.size;
+        int[] start = new int[n + 1];
+        for (EdgeBatch batch : edges) {
+            for (int k = 0; k < batch.size; k++) {
+                start[batch.from[k] + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            start[v + 1] += start[v];
+        }
+        /* Each key is the target in the high half and the way's file position in the low
+         * half, so sorting a row orders it by target and then by way. */
+        LongBuffer keys = store.longs(start[n]);
+        int[] fill = Arrays.copyOf(start, n);
+        for (EdgeBatch batch : edges) {
+            for (int k = 0; k < batch.size; k++) {
+                keys.put(fill[batch.from[k]]++, (long) batch.to[k] << 32 | batch.way[k]);
+            }
+        }
+
+        int[] degree = new int[n];
+        int chunks = Math.max(1, Math.min(n / BATCH_SIZE, 64));
+        List<Future<?>> sorted = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int lo = (int) ((long) n * c / chunks);
+            int hi = (int) ((long) n * (c + 1) / chunks);
+            sorted.add(workers.submit(() -> sortRows(keys, start, degree, lo, hi)));
+        }
+        for (Future<?> f : sorted) {
+            f.get();
+        }
+
+        int[] vertexOf = new int[n];
+        int vertices = 0;
+        int numEdges = 0;
+        for (int v = 0; v < n; v++) {
+            vertexOf[v] = degree[v] > 0 ? vertices++ : -1;
+            numEdges += degree[v];
+        }
+        LongBuffer ids = store.longs(vertices);
+        DoubleBuffer lons = store.doubles(vertices);
+        DoubleBuffer lats = store.doubles(vertices);
+        NameColumn.Builder names = new NameColumn.Builder(vertices, store);
+        IntBuffer offsets = store.ints(vertices + 1);
+        IntBuffer targets = store.ints(numEdges);
+        IntBuffer edgeWays = store.ints(numEdges);
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            int i = vertexOf[v];
+            if (i < 0) {
+                continue;
+            }
+            ids.put(i, table.ids[v]);
+            lons.put(i, table.lons[v]);
+            lats.put(i, table.lats[v]);
+            names.add(table.names[v]);
+            for (int k = start[v]; k < start[v] + degree[v]; k++) {
+                long key = keys.get(k);
+                targets.put(e, vertexOf[(int) (key >>> 32)]);
+                edgeWays.put(e, wayRecords[(int) key]);
+                e += 1;
+            }
+            offsets.put(i + 1, e);
+        }
+        CSRGraph csr = new CSRGraph(new IdMap(ids, store), lons, lats, offsets, targets, store);
+        return new GraphDB(csr, names.build(), records.build(edgeWays, store), locations.build());
+    }
+
+    /**
+     * Sorts the rows of nodes lo..hi-1 and keeps, for each target, only the key of the way
+     * read last, packed at the front of the row. Each row is sorted in a scratch array as
+     * long as the longest row.
+     */
+    private static void sortRows(LongBuffer keys, int[] start, int[] degree, int lo, int hi) {
+        /* A duplicate has its own position, so workers can read rows in bulk. */
+        LongBuffer rows = keys.duplicate();
+        long[] row = new long[16];
+        for (int v = lo; v < hi; v++) {
+            int from = start[v];
+            int d = start[v + 1] - from;
+            if (d > row.length) {
+                row = new long[Math.max(d, 2 * row.length)];
+            }
+            rows.position(from);
+            rows.get(row, 0, d);
+            Arrays.sort(row, 0, d);
+            int out = from;
+            for (int k = 0; k < d; k++) {
+                boolean lastOfTarget = k + 1 == d || row[k + 1] >>> 32 != row[k] >>> 32;
+                if (lastOfTarget) {
+                    rows.put(out++, row[k]);
+                }
+            }
+            degree[v] = out - from;
+        }
+    }
+
+    /** Collects the node ids of usable ways, for the first pass of a two-pass read. */
+    private static class References implements OsmSink {
+        private long[] ids = new long[BATCH_SIZE];
+        private int size;
+
+        @Override
+        public void node(long id, double lon, double lat) {
+        }
+
+        @Override
+        public void nodeName(long id, String name) {
+        }
+
+        @Override
+        public void way(GraphDB.Way way) {
+            if (size + way.nodeIds.size() > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(2 * ids.length, size + way.nodeIds.size()));
+            }
+            for (int i = 0; i < way.nodeIds.size(); i++) {
+                ids[size++] = way.nodeIds.get(i);
+            }
+        }
+
+        /** Returns the collected ids, sorted and without repeats. */
+        long[] sortedIds() {
+            Arrays.sort(ids, 0, size);
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (n == 0 || ids[i] != ids[n - 1]) {
+                    ids[n++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, n);
+        }
+    }
+
+    /** Nodes as the reader cut them, in file order. */
+    private static class NodeBatch {
+        final long[] ids;
+        final double[] lons;
+        final double[] lats;
+        final String[] names;
+        int size;
+
+        NodeBatch(int capacity) {
+            ids = new long[capacity];
+            lons = new double[capacity];
+            lats = new double[capacity];
+            names = new String[capacity];
+        }
+
+        void add(long id, double lon, double lat) {
+            ids[size] = id;
+            lons[size] = lon;
+            lats[size] = lat;
+            size += 1;
+        }
+    }
+
+    /**
+     * Every node of the file in parallel arrays sorted by id. If an id occurs more than once,
+     * its last occurrence wins, as with GraphDB.addNode.
+     */
+    private static class NodeTable {
+        long[] ids = new long[BATCH_SIZE];
+        double[] lons = new double[BATCH_SIZE];
+        double[] lats = new double[BATCH_SIZE];
+        String[] names = new String[BATCH_SIZE];
+        int size;
+        /** Maps node ids to table indices once the table is sealed. */
+        IdMap map;
+
+        void append(NodeBatch batch) {
+            if (size + batch.size > ids.length) {
+                int capacity = Math.max(2 * ids.length, size + batch.size);
+                ids = Arrays.copyOf(ids, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            System.arraycopy(batch.ids, 0, ids, size, batch.size);
+            System.arraycopy(batch.lons, 0, lons, size, batch.size);
+            System.arraycopy(batch.lats, 0, lats, size, batch.size);
+            System.arraycopy(batch.names, 0, names, size, batch.size);
+            size += batch.size;
+        }
+
+        /**
+         * Sorts the table by id unless the file already listed nodes in id order, and maps
+         * the ids.
+         */
+        void seal() {
+            boolean increasing = true;
+            for (int i = 1; i < size && increasing; i++) {
+                increasing = ids[i - 1] < ids[i];
+            }
+            if (increasing) {
+                ids = Arrays.copyOf(ids, size);
+                map = new IdMap(ids);
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            /* Stable, so equal ids keep their file order and the last one can be kept. */
+            Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+            long[] sortedIds = new long[size];
+            double[] sortedLons = new double[size];
+            double[] sortedLats = new double[size];
+            String[] sortedNames = new String[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int j = order[i];
+                if (i + 1 < size && ids[order[i + 1]] == ids[j]) {
+                    continue;
+                }
+                sortedIds[n] = ids[j];
+                sortedLons[n] = lons[j];
+                sortedLats[n] = lats[j];
+                sortedNames[n] = names[j];
+                n += 1;
+            }
+            ids = Arrays.copyOf(sortedIds, n);
+            lons = sortedLons;
+            lats = sortedLats;
+            names = sortedNames;
+            size = n;
+            map = new IdMap(ids);
+        }
+
+        /** Returns the table index of a node id, or -1 if the file has no such node. */
+        int index(long id) {
+            return map.index(id);
+        }
+    }
+
+    /** Directed edges between node table indices, each with the file position of its way. */
+    private static class EdgeBatch {
+        int[] from = new int[2 * BATCH_SIZE];
+        int[] to = new int[2 * BATCH_SIZE];
+        int[] way = new int[2 * BATCH_SIZE];
+        int size;
+
+        void add(int v, int w, int position) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, 2 * size);
+                to = Arrays.copyOf(to, 2 * size);
+                way = Arrays.copyOf(way, 2 * size);
+            }
+            from[size] = v;
+            to[size] = w;
+            way[size] = position;
+            size += 1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens OSM extracts in the formats the server reads: plain XML (.osm.xml), gzip or bzip2
+ * compressed XML (.osm.xml.gz, .osm.bz2), and PBF (.osm.pbf). The format is detected from the
+ * first bytes of the file rather than its name. Compressed XML is decompressed as a buffered
+ * stream while it is parsed, never to disk, and PBF blocks are decoded on several threads by
+ * PbfReader; every format ends up reporting to the same OsmSink callbacks.
+ */
+public class OsmInput {
+    /** How an OSM file is stored. */
+    enum Format {
+        XML, GZIP, BZIP2, PBF
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] PBF_HEADER_TYPE = "OSMHeader".getBytes(StandardCharsets.UTF_8);
+
+    private OsmInput() {
+    }
+
+    /**
+     * Returns the format of an OSM file from its magic bytes. A PBF file starts with the
+     * length of its first blob header, whose first field is the type "OSMHeader".
+     * @param path The file.
+     */
+    static Format detect(Path path) throws IOException {
+        byte[] head = new byte[6 + PBF_HEADER_TYPE.length];
+        int n = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int r;
+            while (n < head.length && (r = in.read(head, n, head.length - n)) > 0) {
+                n += r;
+            }
+        }
+        if (n >= 2 && head[0] == (byte) 0x1f && head[1] == (byte) 0x8b) {
+            return Format.GZIP;
+        }
+        if (n >= 3 && head[0] == 'B' && head[1] == 'Z' && head[2] == 'h') {
+            return Format.BZIP2;
+        }
+        if (n == head.length && head[4] == 0x0a && head[5] == PBF_HEADER_TYPE.length) {
+            boolean pbf = true;
+            for (int i = 0; i < PBF_HEADER_TYPE.length; i++) {
+                pbf &= head[6 + i] == PBF_HEADER_TYPE[i];
+            }
+            if (pbf) {
+                return Format.PBF;
+            }
+        }
+        return Format.XML;
+    }
+
+    /**
+     * Opens an XML extract for reading, decompressing it on the fly if it is compressed.
+     * @param path The file.
+     * @param format Its format, as detected; must not be PBF.
+     * @return A buffered stream of the XML text.
+     */
+    static InputStream openXml(Path path, Format format) throws IOException {
+        InputStream file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        try {
+            switch (format) {
+                case GZIP:
+                    return new BufferedInputStream(new GZIPInputStream(file, BUFFER_SIZE),
+                            BUFFER_SIZE);
+                case BZIP2:
+                    /* Parallel bzip2 tools write several concatenated streams. */
+                    return new BufferedInputStream(new BZip2CompressorInputStream(file, true),
+                            BUFFER_SIZE);
+                case XML:
+                    return file;
+                default:
+                    throw new IOException(path + " is " + format + ", not XML");
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads an OSM file of any supported format, reporting its nodes, node names and usable
+     * ways to a sink. XML is read with the byte-level OsmXmlReader.
+     * @param osmPath The file.
+     * @param sink Receives the contents of the file.
+     */
+    public static void read(String osmPath, OsmSink sink) throws IOException {
+        Path path = Paths.get(osmPath);
+        Format format = detect(path);
+        if (format == Format.PBF) {
+            try (InputStream in = Files.newInputStream(path)) {
+                new PbfReader(in, sink).read();
+            }
+        } else {
+            try (InputStream in = openXml(path, format)) {
+                new OsmXmlReader(in, sink).read();
+            }
+        }
+    }
+}
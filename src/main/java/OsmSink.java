@@ -0,0 +1,27 @@
+/**
+ * Receives the contents of an OSM file while it is read, so one reader can feed either a
+ * GraphDB being built in place or a staged ingest (see OsmIngest). Nodes are reported
+ * before the ways that refer to them, as in every OSM extract.
+ */
+public interface OsmSink {
+    /**
+     * Reports a node.
+     * @param id The OSM id of the node.
+     * @param lon Its longitude.
+     * @param lat Its latitude.
+     */
+    void node(long id, double lon, double lat);
+
+    /**
+     * Reports the name tag of the node reported last.
+     * @param id The OSM id of the node.
+     * @param name The value of its name tag.
+     */
+    void nodeName(long id, String name);
+
+    /**
+     * Reports a way that at least one Router.Profile may use.
+     * @param way The way, with its nodes and tags.
+     */
+    void way(GraphDB.Way way);
+}
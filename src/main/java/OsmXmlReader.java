@@ -0,0 +1,508 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming OSM XML reader that works on the raw UTF-8 bytes of the file. It reports the same
+ * nodes, node names and ways to an OsmSink as GraphBuildingHandler does on a SAX parser, but
+ * without creating a String per element or attribute: element and tag names are compared as
+ * bytes, ids are parsed from the digits in the buffer, and coordinates are decoded as a
+ * fixed-point integer and a power of ten. Only the tag values a way or node keeps (names,
+ * highway classes, speed limits, access values) become Strings.
+ *
+ * A decimal whose digits fit in 53 bits and that has at most 22 fraction digits is an
+ * integer divided by a power of ten, both exact doubles, and IEEE division rounds that
+ * quotient correctly, so the result is bit-for-bit what Double.parseDouble returns; OSM
+ * coordinates have 7 decimals.
+ * Anything else (exponents, longer mantissas, stray spaces) is handed to Double.parseDouble.
+ *
+ * The reader understands the XML that OSM files use: the declaration, comments, doctype and
+ * CDATA sections are skipped, attribute values may be single or double quoted and may hold
+ * entity and character references, and whitespace in them is normalized as a SAX parser does.
+ * Input that is not well-formed XML raises an IOException rather than being read further.
+ */
+public class OsmXmlReader {
+    private static final byte[] NODE = bytes("node");
+    private static final byte[] WAY = bytes("way");
+    private static final byte[] ND = bytes("nd");
+    private static final byte[] TAG = bytes("tag");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] LON = bytes("lon");
+    private static final byte[] LAT = bytes("lat");
+    private static final byte[] REF = bytes("ref");
+    private static final byte[] K = bytes("k");
+    private static final byte[] V = bytes("v");
+    private static final byte[] NAME = bytes("name");
+    private static final byte[] HIGHWAY = bytes("highway");
+    private static final byte[] MAXSPEED = bytes("maxspeed");
+    private static final byte[][] ACCESS_KEYS = accessKeys();
+    /** Exact powers of ten, the largest a double holds without rounding. */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+        1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /** Mantissas below this are exact doubles. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int EOF = -1;
+    private static final int NONE = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+
+    private final InputStream in;
+    private final OsmSink sink;
+    private final byte[] buf = new byte[1 << 16];
+    private int pos;
+    private int limit;
+    /** Bytes of the file consumed before buf, for error messages. */
+    private long consumed;
+
+    /** Name of the current element, then its attributes, decoded into one scratch array. */
+    private byte[] text = new byte[256];
+    private int textSize;
+    private int nameEnd;
+    private int[] attrs = new int[32];
+    private int numAttrs;
+
+    /** Mirrors the state GraphBuildingHandler keeps between elements. */
+    private int state = NONE;
+    private long currentNodeID;
+    private GraphDB.Way currentWay;
+
+    /**
+     * Creates a reader of one OSM XML stream.
+     * @param in The UTF-8 encoded XML; the reader buffers it itself.
+     * @param sink Receives the nodes, node names and usable ways.
+     */
+    public OsmXmlReader(InputStream in, OsmSink sink) {
+        this.in = in;
+        this.sink = sink;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] accessKeys() {
+        byte[][] keys = new byte[GraphBuildingHandler.ACCESS_KEYS.size()][];
+        int i = 0;
+        for (String key : GraphBuildingHandler.ACCESS_KEYS) {
+            keys[i] = bytes(key);
+            i += 1;
+        }
+        return keys;
+    }
+
+    /**
+     * Reads the whole stream, reporting its contents to the sink.
+     * @throws IOException If the stream cannot be read, is not well-formed XML, or a node,
+     *                     way or nd element lacks a numeric id, ref, lon or lat.
+     */
+    public void read() throws IOException {
+        int b = next();
+        while (b != EOF) {
+            if (b == '<') {
+                markup();
+            }
+            b = next();
+        }
+    }
+
+    private int next() throws IOException {
+        if (pos == limit) {
+            consumed += limit;
+            pos = 0;
+            limit = in.read(buf, 0, buf.length);
+            if (limit <= 0) {
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    private int nextOrFail() throws IOException {
+        int b = next();
+        if (b == EOF) {
+            throw error("Unexpected end of file");
+        }
+        return b;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at byte " + (consumed + pos));
+    }
+
+    /** Reads the markup that follows a '<'. */
+    private void markup() throws IOException {
+        int b = nextOrFail();
+        if (b == '?') {
+            skipPast("?>");
+        } else if (b == '!') {
+            declaration();
+        } else if (b == '/') {
+            textSize = 0;
+            b = readName(nextOrFail());
+            nameEnd = textSize;
+            b = skipSpace(b);
+            if (b != '>') {
+                throw error("Malformed end tag");
+            }
+            endElement();
+        } else {
+            textSize = 0;
+            numAttrs = 0;
+            b = readName(b);
+            nameEnd = textSize;
+            b = readAttributes(b);
+            startElement();
+            if (b == '/') {
+                if (nextOrFail() != '>') {
+                    throw error("Malformed empty element");
+                }
+                endElement();
+            }
+        }
+    }
+
+    /** Skips a comment, CDATA section or doctype, whose "<!" has been read. */
+    private void declaration() throws IOException {
+        int b = nextOrFail();
+        if (b == '-') {
+            if (nextOrFail() != '-') {
+                throw error("Malformed comment");
+            }
+            skipPast("-->");
+        } else if (b == '[') {
+            skipPast("]]>");
+        } else {
+            /* A doctype, possibly with an internal subset in brackets. */
+            int depth = 0;
+            while (b != '>' || depth > 0) {
+                if (b == '[') {
+                    depth += 1;
+                } else if (b == ']') {
+                    depth -= 1;
+                }
+                b = nextOrFail();
+            }
+        }
+    }
+
+    private void skipPast(String end) throws IOException {
+        int matched = 0;
+        while (matched < end.length()) {
+            int b = nextOrFail();
+            if (b == end.charAt(matched)) {
+                matched += 1;
+            } else if (b != end.charAt(0)) {
+                matched = 0;
+            } else if (matched != 2 || end.charAt(1) != b) {
+                /* "]]]>" still ends a CDATA section; "??>" still ends a declaration. */
+                matched = 1;
+            }
+        }
+    }
+
+    private static boolean isSpace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private int skipSpace(int b) throws IOException {
+        while (isSpace(b)) {
+            b = nextOrFail();
+        }
+        return b;
+    }
+
+    /** Appends a name starting with b to text; returns the byte after it. */
+    private int readName(int b) throws IOException {
+        int start = textSize;
+        while (!isSpace(b) && b != '>' && b != '/' && b != '=') {
+            append(b);
+            b = nextOrFail();
+        }
+        if (textSize == start) {
+            throw error("Missing name");
+        }
+        return b;
+    }
+
+    /**
+     * Reads attributes up to the end of a start tag. Returns '/' for an empty element,
+     * '>' otherwise.
+     */
+    private int readAttributes(int b) throws IOException {
+        while (true) {
+            b = skipSpace(b);
+            if (b == '>' || b == '/') {
+                return b;
+            }
+            if (2 * numAttrs + 4 > attrs.length) {
+                attrs = Arrays.copyOf(attrs, 2 * attrs.length);
+            }
+            attrs[2 * numAttrs] = textSize;
+            b = skipSpace(readName(b));
+            if (b != '=') {
+                throw error("Attribute without a value");
+            }
+            int quote = skipSpace(nextOrFail());
+            if (quote != '"' && quote != '\'') {
+                throw error("Unquoted attribute value");
+            }
+            attrs[2 * numAttrs + 1] = textSize;
+            readValue(quote);
+            numAttrs += 1;
+            /* The value ends where the next attribute's name starts. */
+            attrs[2 * numAttrs] = textSize;
+            b = nextOrFail();
+        }
+    }
+
+    /** Appends an attribute value, resolving references and normalizing whitespace. */
+    private void readValue(int quote) throws IOException {
+        int b = nextOrFail();
+        while (b != quote) {
+            if (b == '<') {
+                throw error("'<' in attribute value");
+            } else if (b == '&') {
+                appendCodePoint(reference());
+            } else if (b == '\r') {
+                /* Line ends become one space, as a line feed would. */
+                append(' ');
+                b = nextOrFail();
+                if (b == '\n') {
+                    b = nextOrFail();
+                }
+                continue;
+            } else if (isSpace(b)) {
+                append(' ');
+            } else {
+                append(b);
+            }
+            b = nextOrFail();
+        }
+    }
+
+    /** Reads an entity or character reference after its '&' and returns its code point. */
+    private int reference() throws IOException {
+        int start = textSize;
+        int b = nextOrFail();
+        while (b != ';') {
+            if (textSize - start > 10) {
+                throw error("Unterminated reference");
+            }
+            append(b);
+            b = nextOrFail();
+        }
+        int length = textSize - start;
+        textSize = start;
+        if (length > 1 && text[start] == '#') {
+            boolean hex = text[start + 1] == 'x';
+            int codePoint = 0;
+            for (int i = start + (hex ? 2 : 1); i < start + length; i++) {
+                int digit = Character.digit(text[i], hex ? 16 : 10);
+                if (digit < 0) {
+                    throw error("Malformed character reference");
+                }
+                codePoint = codePoint * (hex ? 16 : 10) + digit;
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                throw error("Malformed character reference");
+            }
+            return codePoint;
+        }
+        String entity = new String(text, start, length, StandardCharsets.UTF_8);
+        switch (entity) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                throw error("Undeclared entity &" + entity + ";");
+        }
+    }
+
+    private void append(int b) {
+        if (textSize == text.length) {
+            text = Arrays.copyOf(text, 2 * text.length);
+        }
+        text[textSize++] = (byte) b;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            append(codePoint);
+        } else {
+            for (byte b : new String(Character.toChars(codePoint))
+                    .getBytes(StandardCharsets.UTF_8)) {
+                append(b);
+            }
+        }
+    }
+
+    private boolean nameIs(byte[] name) {
+        return equals(0, nameEnd, name);
+    }
+
+    private boolean equals(int start, int end, byte[] bytes) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (text[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the index of the attribute with the given name, or -1. */
+    private int attribute(byte[] name) {
+        for (int i = 0; i < numAttrs; i++) {
+            if (equals(attrs[2 * i], attrs[2 * i + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int valueStart(int i) {
+        return attrs[2 * i + 1];
+    }
+
+    private int valueEnd(int i) {
+        return attrs[2 * i + 2];
+    }
+
+    private String string(int i) {
+        return i < 0 ? null : new String(text, valueStart(i), valueEnd(i) - valueStart(i),
+                StandardCharsets.UTF_8);
+    }
+
+    private int required(byte[] name) throws IOException {
+        int i = attribute(name);
+        if (i < 0) {
+            throw error("Missing " + new String(name, StandardCharsets.UTF_8) + " attribute");
+        }
+        return i;
+    }
+
+    private long parseLong(byte[] name) throws IOException {
+        int i = required(name);
+        int start = valueStart(i);
+        int end = valueEnd(i);
+        boolean negative = end > start && text[start] == '-';
+        int first = negative || end > start && text[start] == '+' ? start + 1 : start;
+        /* Up to 18 digits cannot overflow; longer values are left to Long.parseLong. */
+        if (first < end && end - first <= 18) {
+            long value = 0;
+            int j = first;
+            for (; j < end && text[j] >= '0' && text[j] <= '9'; j++) {
+                value = 10 * value + (text[j] - '0');
+            }
+            if (j == end) {
+                return negative ? -value : value;
+            }
+        }
+        try {
+            return Long.parseLong(string(i));
+        } catch (NumberFormatException e) {
+            throw error("Malformed " + new String(name, StandardCharsets.UTF_8) + " "
+                    + string(i));
+        }
+    }
+
+    private double parseDouble(byte[] name) throws IOException {
+        int i = required(name);
+        int start = valueStart(i);
+        int end = valueEnd(i);
+        boolean negative = end > start && text[start] == '-';
+        int j = negative || end > start && text[start] == '+' ? start + 1 : start;
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; j < end && digits <= 15; j++) {
+            byte b = text[j];
+            if (b >= '0' && b <= '9') {
+                mantissa = 10 * mantissa + (b - '0');
+                digits += 1;
+                fraction += fraction >= 0 ? 1 : 0;
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        int scale = Math.max(fraction, 0);
+        if (j == end && digits > 0 && mantissa < MAX_EXACT_MANTISSA
+                && scale < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(string(i));
+        } catch (NumberFormatException e) {
+            throw error("Malformed " + new String(name, StandardCharsets.UTF_8) + " "
+                    + string(i));
+        }
+    }
+
+    /** The byte-level counterpart of GraphBuildingHandler.startElement. */
+    private void startElement() throws IOException {
+        if (nameIs(NODE)) {
+            state = IN_NODE;
+            currentNodeID = parseLong(ID);
+            double lon = parseDouble(LON);
+            double lat = parseDouble(LAT);
+            sink.node(currentNodeID, lon, lat);
+        } else if (nameIs(WAY)) {
+            state = IN_WAY;
+            currentWay = new GraphDB.Way(parseLong(ID));
+        } else if (state == IN_WAY && nameIs(ND)) {
+            currentWay.addWay(parseLong(REF));
+        } else if (state == IN_WAY && nameIs(TAG)) {
+            wayTag();
+        } else if (state == IN_NODE && nameIs(TAG)) {
+            int k = required(K);
+            if (equals(valueStart(k), valueEnd(k), NAME)) {
+                sink.nodeName(currentNodeID, string(attribute(V)));
+            }
+        }
+    }
+
+    private void wayTag() throws IOException {
+        int k = required(K);
+        int start = valueStart(k);
+        int end = valueEnd(k);
+        if (equals(start, end, MAXSPEED)) {
+            currentWay.setSpeed(string(attribute(V)));
+        } else if (equals(start, end, HIGHWAY)) {
+            currentWay.setHighway(string(attribute(V)));
+        } else if (equals(start, end, NAME)) {
+            currentWay.setName(string(attribute(V)));
+        } else {
+            for (byte[] key : ACCESS_KEYS) {
+                if (equals(start, end, key)) {
+                    currentWay.setAccess(string(k), string(attribute(V)));
+                    return;
+                }
+            }
+        }
+    }
+
+    /** The byte-level counterpart of GraphBuildingHandler.endElement. */
+    private void endElement() {
+        if (nameIs(WAY) && currentWay != null) {
+            if (Router.Profile.mask(currentWay) != 0) {
+                sink.way(currentWay);
+            }
+            state = NONE;
+            currentWay = null;
+        }
+    }
+}
@@ -0,0 +1,614 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of OSM PBF files (see <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">the
+ * PBF format</a>) that reports the same nodes, node names and usable ways to an OsmSink as
+ * OsmXmlReader does for the same data. A PBF file is a sequence of independently compressed
+ * blobs; the calling thread reads them in order, a pool of threads inflates and decodes up to
+ * two blobs per thread ahead of it, and the calling thread reports the decoded blocks to the
+ * sink in file order.
+ *
+ * Coordinates are stored as integer nanodegrees. Dividing one by 10^9 rounds correctly, so
+ * a coordinate gets exactly the double that Double.parseDouble gives for its decimal form in
+ * an XML extract. The protobuf messages are decoded by hand, as only a few of their fields
+ * are needed. Only zlib and uncompressed blobs are supported, which covers the files that
+ * osmium, osmosis and Geofabrik produce.
+ */
+public class PbfReader {
+    /** Limits from the format's specification. */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private static final Set<String> SUPPORTED_FEATURES =
+            new HashSet<>(Arrays.asList("OsmSchema-V0.6", "DenseNodes"));
+    private static final double NANODEGREES = 1e9;
+
+    private final DataInputStream in;
+    private final OsmSink sink;
+    private final int threads;
+
+    /**
+     * Creates a reader of one PBF stream.
+     * @param in The file contents; the reader reads whole blobs, so it needs no buffering.
+     * @param sink Receives the nodes, node names and usable ways.
+     */
+    public PbfReader(InputStream in, OsmSink sink) {
+        this.in = new DataInputStream(in);
+        this.sink = sink;
+        this.threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the whole stream, reporting its contents to the sink.
+     * @throws IOException If the stream cannot be read, is not a PBF file, or needs a feature
+     *                     or compression this reader does not support.
+     */
+    public void read() throws IOException {
+        ExecutorService decoders = Executors.newFixedThreadPool(threads,
+                OsmIngest.daemonThreads("pbf-decoder"));
+        Deque<Future<List<Object>>> pending = new ArrayDeque<>();
+        try {
+            boolean header = false;
+            for (Blob blob = nextBlob(); blob != null; blob = nextBlob()) {
+                Blob data = blob;
+                if (blob.type.equals("OSMHeader")) {
+                    checkHeader(blob.inflate());
+                    header = true;
+                } else if (blob.type.equals("OSMData")) {
+                    if (!header) {
+                        throw new IOException("PBF data before its OSMHeader");
+                    }
+                    pending.add(decoders.submit(() -> decodeBlock(data.inflate())));
+                    if (pending.size() >= 2 * threads) {
+                        report(pending.poll().get());
+                    }
+                }
+                /* Blobs of unknown types may be skipped, as the format allows. */
+            }
+            while (!pending.isEmpty()) {
+                report(pending.poll().get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot decode PBF block", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading PBF", e);
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    /** Reads the next blob header and its blob, or returns null at the end of the file. */
+    private Blob nextBlob() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int headerSize = first << 24 | in.readUnsignedByte() << 16
+                | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+            throw new IOException("Not a PBF file: blob header of " + headerSize + " bytes");
+        }
+        Message header = new Message(readFully(headerSize));
+        String type = null;
+        int dataSize = -1;
+        while (header.next()) {
+            if (header.field == 1) {
+                type = header.string();
+            } else if (header.field == 3) {
+                dataSize = (int) header.varint();
+            } else {
+                header.skip();
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+            throw new IOException("Malformed PBF blob header");
+        }
+        return new Blob(type, readFully(dataSize));
+    }
+
+    private byte[] readFully(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("Truncated PBF file", e);
+        }
+        return bytes;
+    }
+
+    private static void checkHeader(byte[] block) throws IOException {
+        Message header = new Message(block);
+        while (header.next()) {
+            if (header.field == 4) {
+                String feature = header.string();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                header.skip();
+            }
+        }
+    }
+
+    /** Reports the groups of one decoded block to the sink. */
+    private void report(List<Object> groups) {
+        for (Object group : groups) {
+            if (group instanceof NodeGroup) {
+                NodeGroup nodes = (NodeGroup) group;
+                for (int i = 0; i < nodes.size; i++) {
+                    sink.node(nodes.ids[i], nodes.lons[i], nodes.lats[i]);
+                    if (nodes.names[i] != null) {
+                        sink.nodeName(nodes.ids[i], nodes.names[i]);
+                    }
+                }
+            } else {
+                for (Object way : (List<?>) group) {
+                    sink.way((GraphDB.Way) way);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a PrimitiveBlock into its groups in file order: a NodeGroup for nodes, and a
+     * list of the usable ways for ways. Relations and changesets are dropped.
+     */
+    private static List<Object> decodeBlock(byte[] data) throws IOException {
+        Message block = new Message(data);
+        Block context = new Block();
+        List<int[]> groupRanges = new ArrayList<>();
+        while (block.next()) {
+            switch (block.field) {
+                case 1:
+                    context.strings = strings(block.message());
+                    break;
+                case 2:
+                    groupRanges.add(block.range());
+                    break;
+                case 17:
+                    context.granularity = block.varint();
+                    break;
+                case 19:
+                    context.latOffset = block.varint();
+                    break;
+                case 20:
+                    context.lonOffset = block.varint();
+                    break;
+                default:
+                    block.skip();
+            }
+        }
+        List<Object> groups = new ArrayList<>();
+        for (int[] range : groupRanges) {
+            Message group = new Message(data, range[0], range[1]);
+            NodeGroup nodes = new NodeGroup();
+            List<GraphDB.Way> ways = new ArrayList<>();
+            while (group.next()) {
+                if (group.field == 1) {
+                    context.node(group.message(), nodes);
+                } else if (group.field == 2) {
+                    context.denseNodes(group.message(), nodes);
+                } else if (group.field == 3) {
+                    GraphDB.Way way = context.way(group.message());
+                    if (Router.Profile.mask(way) != 0) {
+                        ways.add(way);
+                    }
+                } else {
+                    group.skip();
+                }
+            }
+            if (nodes.size > 0) {
+                groups.add(nodes);
+            }
+            if (!ways.isEmpty()) {
+                groups.add(ways);
+            }
+        }
+        return groups;
+    }
+
+    private static String[] strings(Message table) throws IOException {
+        List<String> strings = new ArrayList<>();
+        while (table.next()) {
+            if (table.field == 1) {
+                strings.add(table.string());
+            } else {
+                table.skip();
+            }
+        }
+        return strings.toArray(new String[0]);
+    }
+
+    /** A blob as read from the file, with its contents still compressed. */
+    private static class Blob {
+        final String type;
+        final byte[] data;
+
+        Blob(String type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        byte[] inflate() throws IOException {
+            Message blob = new Message(data);
+            byte[] raw = null;
+            byte[] zlib = null;
+            int rawSize = -1;
+            while (blob.next()) {
+                if (blob.field == 1) {
+                    raw = blob.bytes();
+                } else if (blob.field == 2) {
+                    rawSize = (int) blob.varint();
+                } else if (blob.field == 3) {
+                    zlib = blob.bytes();
+                } else if (blob.field >= 4 && blob.field <= 7) {
+                    throw new IOException("Unsupported PBF compression (blob field "
+                            + blob.field + ")");
+                } else {
+                    blob.skip();
+                }
+            }
+            if (raw != null) {
+                return raw;
+            }
+            if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+                throw new IOException("Malformed PBF blob");
+            }
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(zlib);
+                byte[] out = new byte[rawSize];
+                int n = 0;
+                while (n < rawSize && !inflater.finished()) {
+                    int inflated = inflater.inflate(out, n, rawSize - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != rawSize) {
+                    throw new IOException("PBF blob inflates to " + n + " bytes, not "
+                            + rawSize);
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt PBF blob", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /** The string table and coordinate scale of one PrimitiveBlock. */
+    private static class Block {
+        String[] strings = new String[0];
+        long granularity = 100;
+        long latOffset;
+        long lonOffset;
+
+        double lat(long value) {
+            return (latOffset + granularity * value) / NANODEGREES;
+        }
+
+        double lon(long value) {
+            return (lonOffset + granularity * value) / NANODEGREES;
+        }
+
+        String string(long i) throws IOException {
+            if (i < 0 || i >= strings.length) {
+                throw new IOException("PBF string index " + i + " out of range");
+            }
+            return strings[(int) i];
+        }
+
+        void node(Message node, NodeGroup nodes) throws IOException {
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            long[] keys = new long[0];
+            long[] vals = new long[0];
+            while (node.next()) {
+                switch (node.field) {
+                    case 1:
+                        id = node.sint();
+                        break;
+                    case 2:
+                        keys = node.packed(false, false);
+                        break;
+                    case 3:
+                        vals = node.packed(false, false);
+                        break;
+                    case 8:
+                        lat = node.sint();
+                        break;
+                    case 9:
+                        lon = node.sint();
+                        break;
+                    default:
+                        node.skip();
+                }
+            }
+            String name = null;
+            for (int i = 0; i < keys.length && i < vals.length; i++) {
+                if (string(keys[i]).equals("name")) {
+                    name = string(vals[i]);
+                }
+            }
+            nodes.add(id, lon(lon), lat(lat), name);
+        }
+
+        void denseNodes(Message dense, NodeGroup nodes) throws IOException {
+            long[] ids = new long[0];
+            long[] lats = new long[0];
+            long[] lons = new long[0];
+            long[] keysVals = null;
+            while (dense.next()) {
+                switch (dense.field) {
+                    case 1:
+                        ids = dense.packed(true, true);
+                        break;
+                    case 8:
+                        lats = dense.packed(true, true);
+                        break;
+                    case 9:
+                        lons = dense.packed(true, true);
+                        break;
+                    case 10:
+                        keysVals = dense.packed(false, false);
+                        break;
+                    default:
+                        dense.skip();
+                }
+            }
+            if (lats.length != ids.length || lons.length != ids.length) {
+                throw new IOException("Malformed PBF dense nodes");
+            }
+            /* keys_vals lists each node's key and value indices, then a 0. */
+            int k = 0;
+            for (int i = 0; i < ids.length; i++) {
+                String name = null;
+                while (keysVals != null && k < keysVals.length && keysVals[k] != 0) {
+                    if (k + 1 >= keysVals.length) {
+                        throw new IOException("Malformed PBF dense node tags");
+                    }
+                    if (string(keysVals[k]).equals("name")) {
+                        name = string(keysVals[k + 1]);
+                    }
+                    k += 2;
+                }
+                k += 1;
+                nodes.add(ids[i], lon(lons[i]), lat(lats[i]), name);
+            }
+        }
+
+        GraphDB.Way way(Message message) throws IOException {
+            long id = 0;
+            long[] keys = new long[0];
+            long[] vals = new long[0];
+            long[] refs = new long[0];
+            while (message.next()) {
+                switch (message.field) {
+                    case 1:
+                        id = message.varint();
+                        break;
+                    case 2:
+                        keys = message.packed(false, false);
+                        break;
+                    case 3:
+                        vals = message.packed(false, false);
+                        break;
+                    case 8:
+                        refs = message.packed(true, true);
+                        break;
+                    default:
+                        message.skip();
+                }
+            }
+            GraphDB.Way way = new GraphDB.Way(id);
+            for (long ref : refs) {
+                way.addWay(ref);
+            }
+            for (int i = 0; i < keys.length && i < vals.length; i++) {
+                String k = string(keys[i]);
+                if (k.equals("maxspeed")) {
+                    way.setSpeed(string(vals[i]));
+                } else if (k.equals("highway")) {
+                    way.setHighway(string(vals[i]));
+                } else if (k.equals("name")) {
+                    way.setName(string(vals[i]));
+                } else if (GraphBuildingHandler.ACCESS_KEYS.contains(k)) {
+                    way.setAccess(k, string(vals[i]));
+                }
+            }
+            return way;
+        }
+    }
+
+    /** Decoded nodes of one group, in file order. */
+    private static class NodeGroup {
+        long[] ids = new long[64];
+        double[] lons = new double[64];
+        double[] lats = new double[64];
+        String[] names = new String[64];
+        int size;
+
+        void add(long id, double lon, double lat, String name) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                lons = Arrays.copyOf(lons, 2 * size);
+                lats = Arrays.copyOf(lats, 2 * size);
+                names = Arrays.copyOf(names, 2 * size);
+            }
+            ids[size] = id;
+            lons[size] = lon;
+            lats[size] = lat;
+            names[size] = name;
+            size += 1;
+        }
+    }
+
+    /**
+     * A cursor over the fields of one protobuf message. next() moves to the next field and
+     * sets field and wireType; one of the readers or skip() must then consume its value.
+     */
+    private static class Message {
+        private static final int VARINT = 0;
+        private static final int FIXED64 = 1;
+        private static final int LENGTH_DELIMITED = 2;
+        private static final int FIXED32 = 5;
+
+        private final byte[] data;
+        private int pos;
+        private final int end;
+        int field;
+        int wireType;
+
+        Message(byte[] data) {
+            this(data, 0, data.length);
+        }
+
+        Message(byte[] data, int start, int end) {
+            this.data = data;
+            this.pos = start;
+            this.end = end;
+        }
+
+        boolean next() throws IOException {
+            if (pos >= end) {
+                return false;
+            }
+            long key = rawVarint();
+            field = (int) (key >>> 3);
+            wireType = (int) (key & 7);
+            return true;
+        }
+
+        private long rawVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IOException("Truncated PBF varint");
+                }
+                byte b = data[pos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed PBF varint");
+        }
+
+        long varint() throws IOException {
+            expect(VARINT);
+            return rawVarint();
+        }
+
+        long sint() throws IOException {
+            long v = varint();
+            return v >>> 1 ^ -(v & 1);
+        }
+
+        /** Returns the start and end of a length-delimited value, and moves past it. */
+        int[] range() throws IOException {
+            expect(LENGTH_DELIMITED);
+            long length = rawVarint();
+            if (length < 0 || length > end - pos) {
+                throw new IOException("Truncated PBF field");
+            }
+            int[] range = {pos, pos + (int) length};
+            pos += (int) length;
+            return range;
+        }
+
+        Message message() throws IOException {
+            int[] r = range();
+            return new Message(data, r[0], r[1]);
+        }
+
+        byte[] bytes() throws IOException {
+            int[] r = range();
+            return Arrays.copyOfRange(data, r[0], r[1]);
+        }
+
+        String string() throws IOException {
+            int[] r = range();
+            return new String(data, r[0], r[1] - r[0], StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads a packed repeated integer field.
+         * @param zigzag Whether the values are sint32 or sint64.
+         * @param delta Whether each value is stored as the difference from the previous one.
+         */
+        long[] packed(boolean zigzag, boolean delta) throws IOException {
+            int[] r = range();
+            Message values = new Message(data, r[0], r[1]);
+            long[] out = new long[Math.max(1, (r[1] - r[0]) / 2)];
+            int n = 0;
+            long previous = 0;
+            while (values.pos < values.end) {
+                long v = values.rawVarint();
+                if (zigzag) {
+                    v = v >>> 1 ^ -(v & 1);
+                }
+                if (delta) {
+                    v += previous;
+                    previous = v;
+                }
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, 2 * n);
+                }
+                out[n++] = v;
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        void skip() throws IOException {
+            switch (wireType) {
+                case VARINT:
+                    rawVarint();
+                    break;
+                case FIXED64:
+                    pos += 8;
+                    break;
+                case LENGTH_DELIMITED:
+                    range();
+                    break;
+                case FIXED32:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported PBF wire type " + wireType);
+            }
+            if (pos > end) {
+                throw new IOException("Truncated PBF field");
+            }
+        }
+
+        private void expect(int type) throws IOException {
+            if (wireType != type) {
+                throw new IOException("PBF field " + field + " has wire type " + wireType);
+            }
+        }
+    }
+}
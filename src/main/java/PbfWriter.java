@@ -0,0 +1,288 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes what an OsmSink receives as an OSM PBF file, which PbfReader reads back to the same
+ * callbacks: nodes go into DenseNodes groups and the usable ways keep the tags the graph
+ * reads, BLOCK_SIZE entities to a zlib-compressed block. Coordinates are rounded to the
+ * default granularity of 100 nanodegrees, so coordinates with up to 7 decimals, as in OSM
+ * extracts, survive exactly. Converting an XML extract this way shrinks it several times
+ * over and lets it be read without parsing text.
+ */
+public class PbfWriter implements OsmSink, Closeable {
+    /** Entities per block; the format recommends at most 8000. */
+    static final int BLOCK_SIZE = 8000;
+    private static final double UNITS_PER_DEGREE = 1e7;
+
+    private final DataOutputStream out;
+    private final long[] nodeIds = new long[BLOCK_SIZE];
+    private final long[] lons = new long[BLOCK_SIZE];
+    private final long[] lats = new long[BLOCK_SIZE];
+    private final String[] names = new String[BLOCK_SIZE];
+    private int numNodes;
+    private final List<GraphDB.Way> ways = new ArrayList<>(BLOCK_SIZE);
+
+    /**
+     * Creates a writer and writes the file header.
+     * @param out Receives the file; it is closed with the writer.
+     */
+    public PbfWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        Encoder header = new Encoder();
+        header.string(4, "OsmSchema-V0.6");
+        header.string(4, "DenseNodes");
+        header.string(16, "BearMaps");
+        writeBlob("OSMHeader", header);
+    }
+
+    /**
+     * Converts an OSM file in any format OsmInput reads to PBF, keeping the nodes and the
+     * ways the graph would use.
+     * @param osmPath The file to convert.
+     * @param pbfPath The PBF file to write.
+     */
+    public static void convert(String osmPath, Path pbfPath) throws IOException {
+        try (PbfWriter writer = new PbfWriter(Files.newOutputStream(pbfPath))) {
+            OsmInput.read(osmPath, writer);
+        }
+    }
+
+    @Override
+    public void node(long id, double lon, double lat) {
+        if (numNodes == BLOCK_SIZE) {
+            flushNodes();
+        }
+        nodeIds[numNodes] = id;
+        lons[numNodes] = Math.round(lon * UNITS_PER_DEGREE);
+        lats[numNodes] = Math.round(lat * UNITS_PER_DEGREE);
+        names[numNodes] = null;
+        numNodes += 1;
+    }
+
+    @Override
+    public void nodeName(long id, String name) {
+        names[numNodes - 1] = name;
+    }
+
+    @Override
+    public void way(GraphDB.Way way) {
+        flushNodes();
+        ways.add(way);
+        if (ways.size() == BLOCK_SIZE) {
+            flushWays();
+        }
+    }
+
+    /** Writes the last blocks and closes the stream. */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushNodes();
+            flushWays();
+        } catch (UncheckedIOException e) {
+            out.close();
+            throw e.getCause();
+        }
+        out.close();
+    }
+
+    private void flushNodes() {
+        if (numNodes == 0) {
+            return;
+        }
+        StringTable strings = new StringTable();
+        Encoder dense = new Encoder();
+        long[] keysVals = new long[3 * numNodes];
+        int k = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (names[i] != null) {
+                keysVals[k++] = strings.index("name");
+                keysVals[k++] = strings.index(names[i]);
+            }
+            keysVals[k++] = 0;
+        }
+        dense.packed(1, nodeIds, numNodes, true);
+        dense.packed(8, lats, numNodes, true);
+        dense.packed(9, lons, numNodes, true);
+        dense.packed(10, Arrays.copyOf(keysVals, k), k, false);
+        Encoder group = new Encoder();
+        group.message(2, dense);
+        writeBlock(strings, group);
+        numNodes = 0;
+    }
+
+    private void flushWays() {
+        if (ways.isEmpty()) {
+            return;
+        }
+        StringTable strings = new StringTable();
+        Encoder group = new Encoder();
+        for (GraphDB.Way way : ways) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("highway", way.highway);
+            tags.put("name", way.name);
+            tags.put("maxspeed", way.maxSpeed);
+            for (String key : GraphBuildingHandler.ACCESS_KEYS) {
+                tags.put(key, way.access(key));
+            }
+            long[] keys = new long[tags.size()];
+            long[] vals = new long[tags.size()];
+            int n = 0;
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (tag.getValue() != null) {
+                    keys[n] = strings.index(tag.getKey());
+                    vals[n] = strings.index(tag.getValue());
+                    n += 1;
+                }
+            }
+            long[] refs = new long[way.nodeIds.size()];
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = way.nodeIds.get(i);
+            }
+            Encoder encoded = new Encoder();
+            encoded.uint(1, way.wayID);
+            encoded.packed(2, keys, n, false);
+            encoded.packed(3, vals, n, false);
+            encoded.packed(8, refs, refs.length, true);
+            group.message(3, encoded);
+        }
+        writeBlock(strings, group);
+        ways.clear();
+    }
+
+    private void writeBlock(StringTable strings, Encoder group) {
+        Encoder block = new Encoder();
+        block.message(1, strings.encoded);
+        block.message(2, group);
+        try {
+            writeBlob("OSMData", block);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBlob(String type, Encoder contents) throws IOException {
+        Deflater deflater = new Deflater();
+        byte[] compressed;
+        try {
+            deflater.setInput(contents.buf, 0, contents.size);
+            deflater.finish();
+            compressed = new byte[contents.size + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, 2 * n);
+                }
+                n += deflater.deflate(compressed, n, compressed.length - n);
+            }
+            compressed = Arrays.copyOf(compressed, n);
+        } finally {
+            deflater.end();
+        }
+        Encoder blob = new Encoder();
+        blob.uint(2, contents.size);
+        blob.bytes(3, compressed, compressed.length);
+        Encoder header = new Encoder();
+        header.string(1, type);
+        header.uint(3, blob.size);
+        out.writeInt(header.size);
+        out.write(header.buf, 0, header.size);
+        out.write(blob.buf, 0, blob.size);
+    }
+
+    /** The string table of one block; index 0 is the empty string, as the format asks. */
+    private static class StringTable {
+        final Map<String, Integer> indices = new HashMap<>();
+        final Encoder encoded = new Encoder();
+
+        StringTable() {
+            index("");
+        }
+
+        int index(String s) {
+            Integer i = indices.get(s);
+            if (i == null) {
+                i = indices.size();
+                indices.put(s, i);
+                encoded.string(1, s);
+            }
+            return i;
+        }
+    }
+
+    /** A growable buffer that protobuf fields are appended to. */
+    private static class Encoder {
+        byte[] buf = new byte[256];
+        int size;
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, size + extra));
+            }
+        }
+
+        private void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[size++] = (byte) (v & 0x7f | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void uint(int field, long v) {
+            varint(field << 3);
+            varint(v);
+        }
+
+        void bytes(int field, byte[] bytes, int length) {
+            varint(field << 3 | 2);
+            varint(length);
+            ensure(length);
+            System.arraycopy(bytes, 0, buf, size, length);
+            size += length;
+        }
+
+        void string(int field, String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            bytes(field, bytes, bytes.length);
+        }
+
+        void message(int field, Encoder message) {
+            bytes(field, message.buf, message.size);
+        }
+
+        /**
+         * Appends a packed repeated integer field.
+         * @param delta Whether to store zigzag-encoded differences, as sint64 fields with
+         *              delta coding are; otherwise values are stored as plain varints.
+         */
+        void packed(int field, long[] values, int n, boolean delta) {
+            Encoder packed = new Encoder();
+            long previous = 0;
+            for (int i = 0; i < n; i++) {
+                if (delta) {
+                    long d = values[i] - previous;
+                    previous = values[i];
+                    packed.varint(d << 1 ^ d >> 63);
+                } else {
+                    packed.varint(values[i]);
+                }
+            }
+            message(field, packed);
+        }
+    }
+}
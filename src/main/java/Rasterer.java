@@ -7,20 +7,13 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * Rasterer holds no state of its own: every query is computed into its own immutable
+ * Raster, so a single Rasterer can serve any number of threads at once.
  */
 public class Rasterer {
-    private int depth;
     private static final double TOTALLONWIDTH = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
     private static final double TOTALLATHEIGHT = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
-    private int[] coordinates;
-    private int startX;
-    private int startY;
-    private int endX;
-    private int endY;
-    private double rasterULLON;
-    private double rasterULLAT;
-    private double rasterLRLON;
-    private double rasterLRLAT;
 
     public Rasterer() {
     }
@@ -54,9 +47,15 @@ public class Rasterer {
      *                    forget to set this to true on success! <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-        Map<String, Object> results = new HashMap<>();
-        System.out.println(params);
+        return raster(params).toMap();
+    }
 
+    /**
+     * Computes the raster for a user query without touching any shared state.
+     * @param params Map of the HTTP GET request's query parameters, as for getMapRaster.
+     * @return The tiles and bounding box that answer the query.
+     */
+    public Raster raster(Map<String, Double> params) {
         /* Extract coordinates and box size from user requested query */
         double queryLRLON = params.get("lrlon");
         double queryULLON = params.get("ullon");
@@ -67,22 +66,11 @@ public class Rasterer {
         /* Calculate coordinates and determine which image files are needed for the
         query that will be sent ot the front end.
          */
-        depth = calculateDepth(calculateLonDPP(queryLRLON, queryULLON, width));
-        coordinates = calculateStartXY(queryLRLON, queryULLON, queryLRLAT, queryULLAT);
-        String[][] renderGrid = getFileNames();
-        setRasterCoords();
-
-        /* Place results into a Map<String, Object> and return to the client.
-        This data will be interpreted and displayed as an image in the web browser.
-         */
-        results.put("render_grid", renderGrid);
-        results.put("raster_ul_lon", rasterULLON);
-        results.put("raster_ul_lat", rasterULLAT);
-        results.put("raster_lr_lon", rasterLRLON);
-        results.put("raster_lr_lat", rasterLRLAT);
-        results.put("depth", depth);
-        results.put("query_success", querySuccess(queryLRLON, queryULLON, queryLRLAT, queryULLAT));
-        return results;
+        int depth = calculateDepth(calculateLonDPP(queryLRLON, queryULLON, width));
+        int[] coordinates = calculateStartXY(depth, queryLRLON, queryULLON, queryLRLAT,
+                queryULLAT);
+        return new Raster(depth, coordinates[0], coordinates[1], coordinates[2],
+                coordinates[3], querySuccess(queryLRLON, queryULLON, queryLRLAT, queryULLAT));
     }
 
     /**
@@ -92,7 +80,7 @@ public class Rasterer {
      * @param width
      * @return
      */
-    private double calculateLonDPP(double lrLON, double ulLON, double width) {
+    private static double calculateLonDPP(double lrLON, double ulLON, double width) {
         double lonDDP = (lrLON - ulLON) / width;
         return lonDDP;
     }
@@ -125,53 +113,24 @@ public class Rasterer {
      * images that contain the requested query. startX and startY are the coordinates of the
      * upper-left image. endX and endY are the coordinates of the upper-right image.
      * are the coordinates
+     * @param depth
      * @param lrLON
      * @param ulLON
      * @param ulLAT
      * @param lrLAT
-     * @return
+     * @return {startX, startY, endX, endY}
      */
-    private int[] calculateStartXY(double lrLON, double ulLON, double lrLAT, double ulLAT) {
+    private static int[] calculateStartXY(int depth, double lrLON, double ulLON, double lrLAT,
+                                          double ulLAT) {
         int numOfTiles = (int) Math.pow(2.0, depth);
         int lastTile = (int) Math.pow(2.0, depth) - 1;
         double tileWidth = TOTALLONWIDTH / numOfTiles;
         double tileHeight = TOTALLATHEIGHT / numOfTiles;
-        startX = (int) Math.floor((ulLON - MapServer.ROOT_ULLON) / tileWidth);
-        startY = (int) Math.floor((MapServer.ROOT_ULLAT - ulLAT) / tileHeight);
-        endX = lastTile - (int) Math.floor((MapServer.ROOT_LRLON - lrLON) / tileWidth);
-        endY = lastTile - (int) Math.floor((lrLAT - MapServer.ROOT_LRLAT) / tileHeight);
-        coordinates = new int[]{startX, startY, endX, endY};
-        return coordinates;
-    }
-
-    /**
-     * Stores the filenames of images in a String[][]. Images are named as such: "d2_x3_y1.png",
-     * where '2' is the level of depth, '3' is the x coordinate, and '1' is the y coordinate.
-     * @return
-     */
-    private String[][] getFileNames() {
-        int xRange = endX - startX + 1;
-        int yRange = endY - startY + 1;
-        String[][] renderGrid = new String[yRange][xRange];
-        for (int i = 0; i < yRange; i++) {
-            for (int j = 0; j < xRange; j++) {
-                renderGrid[i][j] = "d" + depth + "_x" + (startX + j) + "_y" + (startY + i) + ".png";
-            }
-        }
-        return renderGrid;
-    }
-
-    /**
-     * This method sets the coordinates of the rastered image.
-     */
-    private void setRasterCoords() {
-        int numOfTiles = (int) (Math.pow(2.0, depth));
-        double tileWidth = TOTALLONWIDTH / numOfTiles;
-        double tileHeight = TOTALLATHEIGHT / numOfTiles;
-        rasterULLON = MapServer.ROOT_ULLON + (tileWidth * (startX));
-        rasterULLAT = MapServer.ROOT_ULLAT - (tileHeight * startY);
-        rasterLRLON = MapServer.ROOT_LRLON - (tileWidth * (numOfTiles - 1 - endX));
-        rasterLRLAT = MapServer.ROOT_LRLAT + (tileHeight * (numOfTiles - 1 - endY));
+        int startX = (int) Math.floor((ulLON - MapServer.ROOT_ULLON) / tileWidth);
+        int startY = (int) Math.floor((MapServer.ROOT_ULLAT - ulLAT) / tileHeight);
+        int endX = lastTile - (int) Math.floor((MapServer.ROOT_LRLON - lrLON) / tileWidth);
+        int endY = lastTile - (int) Math.floor((lrLAT - MapServer.ROOT_LRLAT) / tileHeight);
+        return new int[]{startX, startY, endX, endY};
     }
 
     /**
@@ -185,11 +144,83 @@ public class Rasterer {
      * @param ulLAT
      * @return
      */
-    private boolean querySuccess(double lrLON, double ulLON, double lrLAT, double ulLAT) {
+    private static boolean querySuccess(double lrLON, double ulLON, double lrLAT, double ulLAT) {
         if (ulLAT < lrLAT || ulLON > lrLON) {
             return false;
         }
         return !(ulLON < MapServer.ROOT_ULLON && lrLON > MapServer.ROOT_LRLON
                 && ulLAT > MapServer.ROOT_ULLAT && lrLAT < MapServer.ROOT_LRLON);
     }
+
+    /**
+     * The answer to one raster query: the depth and the inclusive range of tiles
+     * [startX, endX] x [startY, endY] to draw, and the bounding box those tiles cover.
+     * Instances are immutable.
+     */
+    public static final class Raster {
+        final int depth;
+        final int startX;
+        final int startY;
+        final int endX;
+        final int endY;
+        final double rasterULLON;
+        final double rasterULLAT;
+        final double rasterLRLON;
+        final double rasterLRLAT;
+        final boolean querySuccess;
+
+        /**
+         * Creates the raster for a tile range and computes the bounding box of the tiles.
+         */
+        Raster(int depth, int startX, int startY, int endX, int endY, boolean querySuccess) {
+            this.depth = depth;
+            this.startX = startX;
+            this.startY = startY;
+            this.endX = endX;
+            this.endY = endY;
+            this.querySuccess = querySuccess;
+
+            int numOfTiles = (int) (Math.pow(2.0, depth));
+            double tileWidth = TOTALLONWIDTH / numOfTiles;
+            double tileHeight = TOTALLATHEIGHT / numOfTiles;
+            rasterULLON = MapServer.ROOT_ULLON + (tileWidth * (startX));
+            rasterULLAT = MapServer.ROOT_ULLAT - (tileHeight * startY);
+            rasterLRLON = MapServer.ROOT_LRLON - (tileWidth * (numOfTiles - 1 - endX));
+            rasterLRLAT = MapServer.ROOT_LRLAT + (tileHeight * (numOfTiles - 1 - endY));
+        }
+
+        /**
+         * Returns the filenames of the tiles in a String[][]. Images are named as such:
+         * "d2_x3_y1.png", where '2' is the level of depth, '3' is the x coordinate, and '1'
+         * is the y coordinate.
+         */
+        String[][] renderGrid() {
+            int xRange = endX - startX + 1;
+            int yRange = endY - startY + 1;
+            String[][] renderGrid = new String[yRange][xRange];
+            for (int i = 0; i < yRange; i++) {
+                for (int j = 0; j < xRange; j++) {
+                    renderGrid[i][j] = "d" + depth + "_x" + (startX + j) + "_y" + (startY + i)
+                            + ".png";
+                }
+            }
+            return renderGrid;
+        }
+
+        /**
+         * Places the results into a Map<String, Object> for the client. This data will be
+         * interpreted and displayed as an image in the web browser.
+         */
+        Map<String, Object> toMap() {
+            Map<String, Object> results = new HashMap<>();
+            results.put("render_grid", renderGrid());
+            results.put("raster_ul_lon", rasterULLON);
+            results.put("raster_ul_lat", rasterULLAT);
+            results.put("raster_lr_lon", rasterLRLON);
+            results.put("raster_lr_lat", rasterLRLAT);
+            results.put("depth", depth);
+            results.put("query_success", querySuccess);
+            return results;
+        }
+    }
 }
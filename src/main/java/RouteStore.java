@@ -0,0 +1,89 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Holds the routes computed for each client, keyed by an opaque token handed out by /route
+ * and passed back by /raster and /clear_route. This replaces a single global route, so
+ * concurrent users no longer draw or clear each other's paths. The store is bounded: once it
+ * holds capacity routes, the least recently used one is evicted, and a client presenting an
+ * evicted token simply gets a map without a route.
+ */
+public class RouteStore {
+    /** Number of routes kept when no capacity is given. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final Map<String, Route> routes;
+
+    public RouteStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty store.
+     * @param capacity Maximum number of routes held at once.
+     */
+    public RouteStore(int capacity) {
+        routes = Collections.synchronizedMap(new LinkedHashMap<String, Route>(16, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Stores a route under a fresh token.
+     * @param route The route to store; it must not be modified afterwards.
+     * @return The token that retrieves the route.
+     */
+    public String put(List<Long> route) {
+        String token = UUID.randomUUID().toString();
+        routes.put(token, new Route(route));
+        return token;
+    }
+
+    /**
+     * Returns the route stored under token.
+     * @param token A token returned by put, or null.
+     * @return The route, or null if the token is null, unknown, or evicted.
+     */
+    public Route get(String token) {
+        return token == null ? null : routes.get(token);
+    }
+
+    /**
+     * Forgets the route stored under token, if any.
+     * @param token A token returned by put, or null.
+     * @return The route that was removed, or null.
+     */
+    public Route remove(String token) {
+        return token == null ? null : routes.remove(token);
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /** An immutable route together with a 64-bit fingerprint of its vertices. */
+    public static final class Route {
+        /** Fingerprint of the empty route, used when no route is drawn. */
+        public static final long NO_ROUTE = 0;
+
+        final List<Long> path;
+        /** FNV-1a hash of the vertex ids, so equal paths have equal fingerprints. */
+        final long fingerprint;
+
+        Route(List<Long> path) {
+            this.path = Collections.unmodifiableList(path);
+            long hash = 0xcbf29ce484222325L;
+            for (long id : path) {
+                hash = (hash ^ id) * 0x100000001b3L;
+            }
+            this.fingerprint = path.isEmpty() ? NO_ROUTE : hash;
+        }
+    }
+}
@@ -1,9 +1,10 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,6 +17,122 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** Shortest-path algorithms a route can be computed with. */
+    public enum Algorithm {
+        /** Unidirectional A* with the great-circle heuristic. */
+        ASTAR,
+        /** Bidirectional A* with average great-circle potentials. */
+        BIDIRECTIONAL,
+        /** Bidirectional Dijkstra over the graph's contraction hierarchy. */
+        CH,
+        /** A* with the landmark (ALT) heuristic. */
+        ALT;
+
+        /**
+         * Looks up an algorithm by its case-insensitive name.
+         * @param name The name, or null for the default.
+         * @return The algorithm, ASTAR if name is null.
+         * @throws IllegalArgumentException If no algorithm has that name.
+         */
+        public static Algorithm parse(String name) {
+            return name == null ? ASTAR : valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** What a route minimizes. */
+    public enum Weighting {
+        /** Length in miles. */
+        DISTANCE,
+        /** Driving time in seconds at posted speed limits, or highway-class defaults. */
+        TIME;
+
+        /**
+         * Looks up a weighting by its case-insensitive name.
+         * @param name The name, or null for the default.
+         * @return The weighting, DISTANCE if name is null.
+         * @throws IllegalArgumentException If no weighting has that name.
+         */
+        public static Weighting parse(String name) {
+            return name == null ? DISTANCE : valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Ways of travel a route can be computed for. Each profile admits a set of highway
+     * classes; bike and walk also follow explicit bicycle and foot tags, so a footway tagged
+     * bicycle=yes is open to bikes and a road tagged foot=no is closed to walkers. Car keeps
+     * the original road filter.
+     */
+    public enum Profile {
+        /** Driving; the default. */
+        CAR(null, Double.NaN, "motorway", "trunk", "primary", "secondary", "tertiary",
+                "unclassified", "residential", "living_street", "motorway_link", "trunk_link",
+                "primary_link", "secondary_link", "tertiary_link"),
+        /** Cycling at a steady 12 mph, off motorways and trunk roads. */
+        BIKE("bicycle", 12, "primary", "secondary", "tertiary", "unclassified", "residential",
+                "living_street", "primary_link", "secondary_link", "tertiary_link", "service",
+                "track", "path", "cycleway"),
+        /** Walking at a steady 3 mph, off motorways and trunk roads. */
+        WALK("foot", 3, "primary", "secondary", "tertiary", "unclassified", "residential",
+                "living_street", "primary_link", "secondary_link", "tertiary_link", "service",
+                "track", "path", "footway", "pedestrian", "steps");
+
+        /** OSM access tag that overrides the highway class, or null. */
+        private final String accessKey;
+        /** Speed in mph on every edge, or NaN to use speed limits. */
+        private final double speed;
+        private final Set<String> highways;
+
+        Profile(String accessKey, double speed, String... highways) {
+            this.accessKey = accessKey;
+            this.speed = speed;
+            this.highways = new HashSet<>(Arrays.asList(highways));
+        }
+
+        /** Returns the bit of this profile in a mask of profiles. */
+        int bit() {
+            return 1 << ordinal();
+        }
+
+        /** Returns the speed in mph on every edge, or NaN if it follows speed limits. */
+        double speed() {
+            return speed;
+        }
+
+        /** Returns whether this profile may use a way. */
+        boolean allows(GraphDB.Way way) {
+            String access = accessKey == null ? null : way.access(accessKey);
+            if ("no".equals(access) || "dismount".equals(access)) {
+                return false;
+            } else if ("yes".equals(access) || "designated".equals(access)
+                    || "permissive".equals(access)) {
+                return way.highway != null;
+            }
+            return highways.contains(way.highway);
+        }
+
+        /** Returns the mask of the profiles that may use a way; 0 if none may. */
+        static int mask(GraphDB.Way way) {
+            int mask = 0;
+            for (Profile p : values()) {
+                if (p.allows(way)) {
+                    mask |= p.bit();
+                }
+            }
+            return mask;
+        }
+
+        /**
+         * Looks up a profile by its case-insensitive name.
+         * @param name The name, or null for the default.
+         * @return The profile, CAR if name is null.
+         * @throws IllegalArgumentException If no profile has that name.
+         */
+        public static Profile parse(String name) {
+            return name == null ? CAR : valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
@@ -30,82 +147,115 @@ public class Router {
 
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
+        return route(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR).path;
+    }
 
-        /** Creates bestMoveSequence, a priority queue that will track the best move sequence from
-         * start to end.
-         * prevNode is a map that tracks where a vertex came from. It stores the parent Node of
-         * a location.
-         * shortestDistToNode tracks the best known distance form the source location to
-         * every vertex.
-         */
-
-        PriorityQueue<GraphDB.Node> bestMoveSequence = new PriorityQueue<>();
-        Map<Long, GraphDB.Node> prevNode = new HashMap<>();
-        Map<Long, Double> shortestDistToNode = new HashMap<>();
-        LinkedList<Long> shortestPath;
-
-        Long startID = g.closest(stlon, stlat);
-        Long destID = g.closest(destlon, destlat);
-        GraphDB.Node currVertex = g.returnCopy(startID);
-
-        currVertex.g = 0.0;
-        currVertex.h = g.distance(startID, destID);
-        currVertex.f = currVertex.g + currVertex.h;
-        shortestDistToNode.put(currVertex.id, 0.0);
-        bestMoveSequence.add(currVertex);
-        GraphDB.Node neighbor;
-
-
-        while (!bestMoveSequence.isEmpty()) {
-            currVertex = bestMoveSequence.poll();
+    /**
+     * Finds the shortest path between the nodes closest to a start and a destination
+     * location with the given algorithm. All algorithms find a path of the same length,
+     * though they may pick different paths among equally short ones.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The search to run.
+     * @return The path with its length and the number of vertices the search settled.
+     */
+    public static SearchResult route(GraphDB g, double stlon, double stlat,
+                                     double destlon, double destlat, Algorithm algorithm) {
+        return route(g, stlon, stlat, destlon, destlat, algorithm, Weighting.DISTANCE);
+    }
 
-            /**
-             * Mark a vertex once you have visited it to reduce the number of times
-             * the same vertex is enqueued onto the priority queue.
-             */
+    /**
+     * Finds the cheapest path under a weighting between the nodes closest to a start and a
+     * destination location with the given algorithm.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The search to run.
+     * @param weighting What the path minimizes; the result length is in its unit.
+     * @return The path with its cost and the number of vertices the search settled.
+     */
+    public static SearchResult route(GraphDB g, double stlon, double stlat,
+                                     double destlon, double destlat, Algorithm algorithm,
+                                     Weighting weighting) {
+        return route(g, stlon, stlat, destlon, destlat, algorithm, weighting, Profile.CAR);
+    }
 
-            if (currVertex.h == 0.0) {
-                break;
-            }
+    /**
+     * Finds the cheapest path for a profile under a weighting between the nodes closest to
+     * a start and a destination location that the profile can use.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The search to run.
+     * @param weighting What the path minimizes; the result length is in its unit.
+     * @param profile The way of travel, which decides the roads the path may use.
+     * @return The path with its cost and the number of vertices the search settled.
+     */
+    public static SearchResult route(GraphDB g, double stlon, double stlat,
+                                     double destlon, double destlat, Algorithm algorithm,
+                                     Weighting weighting, Profile profile) {
+        int start = g.closestIndex(profile, stlon, stlat);
+        int dest = g.closestIndex(profile, destlon, destlat);
+        if (start < 0 || dest < 0) {
+            return SearchResult.none(0);
+        }
+        switch (algorithm) {
+            case BIDIRECTIONAL:
+                return BidirectionalAStar.search(g.csr(profile, weighting), start, dest);
+            case CH:
+                return g.hierarchy(profile, weighting).search(start, dest);
+            case ALT:
+                return g.landmarks(profile, weighting).search(start, dest);
+            case ASTAR:
+            default:
+                return AStarSearch.search(g.csr(profile, weighting), start, dest);
+        }
+    }
 
-            currVertex.marked = true;
-            for (Long vertexID : g.adjacent(currVertex.id)) {
-                neighbor = g.returnCopy(vertexID);
-                double distance = currVertex.g + g.distance(currVertex.id, neighbor.id);
-
-                /** Adds a neighboring vertex to the priority queue if it's never
-                 * been visited before, or if it has the shortest known path distance from
-                 * the start location.
-                 */
-
-                if (!shortestDistToNode.containsKey(vertexID)
-                        || (!neighbor.marked && distance < shortestDistToNode.get(vertexID))) {
-                    shortestDistToNode.put(neighbor.id, distance);
-                    neighbor.g = distance;
-                    neighbor.h = g.distance(neighbor.id, destID);
-                    neighbor.f = neighbor.g + neighbor.h;
-                    prevNode.put(neighbor.id, currVertex);
-                    bestMoveSequence.add(neighbor);
+    /**
+     * Computes the shortest-path distances from each of a list of start locations to each
+     * of a list of destinations. All locations are snapped to their closest vertices in one
+     * batch, and each start grows a single search tree that covers every destination.
+     * @param g The graph to use.
+     * @param sources The start locations as {lon, lat} pairs.
+     * @param targets The destinations as {lon, lat} pairs.
+     * @return matrix[i][j] is the distance in miles from the node closest to sources[i] to
+     *         the node closest to targets[j], or -1 if there is no route.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources, double[][] targets) {
+        int[] from = snap(g, sources);
+        int[] to = snap(g, targets);
+        for (int v : to) {
+            if (v < 0) {
+                /* Only an empty graph has no closest vertex. */
+                double[][] matrix = new double[sources.length][targets.length];
+                for (double[] row : matrix) {
+                    Arrays.fill(row, DistanceMatrix.UNREACHABLE);
                 }
+                return matrix;
             }
         }
+        return DistanceMatrix.compute(g.csr(Profile.CAR, Weighting.DISTANCE), from, to);
+    }
 
-        /**
-         * Stores the shorted path in a LinkedList and returns it.
-         */
-
-        shortestPath = new LinkedList<>();
-        while (currVertex != null) {
-            shortestPath.addFirst(currVertex.id);
-            currVertex = prevNode.get(currVertex.id);
+    /** Returns the closest vertex of each {lon, lat} pair. */
+    private static int[] snap(GraphDB g, double[][] points) {
+        double[] lons = new double[points.length];
+        double[] lats = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            lons[i] = points[i][0];
+            lats[i] = points[i][1];
         }
-
-        return shortestPath;
+        return g.closestIndices(lons, lats);
     }
 
-
-
-
     /**
      * Create the list of directions corresponding to a route on the graph.
      * @param g The graph to use.
@@ -115,11 +265,65 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        return null;
+        /* One pass over the edges: a direction is closed when the way name changes, and the
+         * turn onto the next way is the change in bearing across the shared vertex. */
+        List<NavigationDirection> directions = new ArrayList<>();
+        if (route.size() < 2) {
+            return directions;
+        }
+        CSRGraph csr = g.csr();
+        int prev = -1;
+        int v = csr.index(route.get(0));
+        int w = csr.index(route.get(1));
+        NavigationDirection current = new NavigationDirection();
+        current.direction = NavigationDirection.START;
+        current.way = wayName(g, v, w);
+        for (int i = 1; i < route.size(); i++) {
+            w = csr.index(route.get(i));
+            String way = wayName(g, v, w);
+            if (prev >= 0 && !way.equals(current.way)) {
+                directions.add(current);
+                current = new NavigationDirection();
+                current.direction = calculateDirection(
+                        bearing(csr, v, w) - bearing(csr, prev, v));
+                current.way = way;
+            }
+            current.distance += GraphDB.distance(csr.lon(v), csr.lat(v),
+                    csr.lon(w), csr.lat(w));
+            prev = v;
+            v = w;
+        }
+        directions.add(current);
+        return directions;
+    }
+
+    /** Returns the name of the way from v to w, or "" if it is unnamed. */
+    private static String wayName(GraphDB g, int v, int w) {
+        int e = g.csr().edge(v, w);
+        String name = e < 0 ? null : g.edgeName(e);
+        return name == null ? "" : name;
+    }
+
+    private static double bearing(CSRGraph csr, int v, int w) {
+        return GraphDB.bearing(csr.lon(v), csr.lat(v), csr.lon(w), csr.lat(w));
     }
 
     public static int calculateDirection(GraphDB g, Long v, Long w) {
-        double bearing = g.bearing(v, w);
+        return calculateDirection(g.bearing(v, w));
+    }
+
+    /**
+     * Classifies a change of heading into one of the NavigationDirection turns.
+     * @param relativeBearing The new bearing minus the old one, in degrees.
+     * @return The direction constant; positive angles turn right.
+     */
+    static int calculateDirection(double relativeBearing) {
+        double bearing = relativeBearing;
+        if (bearing > 180) {
+            bearing -= 360;
+        } else if (bearing < -180) {
+            bearing += 360;
+        }
         if (bearing <= 15 && bearing >= -15) {
             return NavigationDirection.STRAIGHT; /* return straight */
         } else if (bearing >= -30 && bearing < -15) {
@@ -0,0 +1,31 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one shortest-path query: the route, its length, and how many vertices the
+ * search settled to find it. The settled count is the usual measure of how much work a
+ * routing algorithm did, independent of machine speed.
+ */
+public class SearchResult {
+    /** OSM ids along the route, or an empty list if there is none. */
+    final List<Long> path;
+    /** Length of the route in the graph's edge weights, or infinity if there is none. */
+    final double length;
+    /** Number of vertices removed from the search frontiers. */
+    final int settled;
+
+    SearchResult(List<Long> path, double length, int settled) {
+        this.path = path;
+        this.length = length;
+        this.settled = settled;
+    }
+
+    /** Returns the result of a search that found no route. */
+    static SearchResult none(int settled) {
+        return new SearchResult(new ArrayList<>(), Double.POSITIVE_INFINITY, settled);
+    }
+
+    int settled() {
+        return settled;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scratch arrays for one direction of a shortest-path search over the dense int vertices of
+ * a CSRGraph: tentative distances, parent pointers and a frontier with decrease-key. A space
+ * is reused across queries; a generation stamp marks which entries were written by the
+ * current query, so nothing has to be cleared between searches. Searches keep one space per
+ * direction in a ThreadLocal, so they allocate nothing per expanded vertex.
+ */
+class SearchSpace {
+    double[] dist = new double[0];
+    int[] parent = new int[0];
+    /** Generation in which each vertex was last reached; dist and parent are only
+     * meaningful for vertices reached in the current generation. */
+    int[] reached = new int[0];
+    /** Generation in which each vertex was last settled. */
+    int[] settled = new int[0];
+    IndexMinPQ frontier = new IndexMinPQ(0);
+    int generation;
+
+    /** Starts a new query over a graph of n vertices. */
+    void prepare(int n) {
+        if (dist.length < n) {
+            dist = new double[n];
+            parent = new int[n];
+            reached = new int[n];
+            settled = new int[n];
+            frontier = new IndexMinPQ(n);
+            generation = 0;
+        }
+        frontier.clear();
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+
+    void reach(int v, double d, int from) {
+        dist[v] = d;
+        parent[v] = from;
+        reached[v] = generation;
+    }
+
+    boolean isReached(int v) {
+        return reached[v] == generation;
+    }
+
+    boolean isSettled(int v) {
+        return settled[v] == generation;
+    }
+
+    void settle(int v) {
+        settled[v] = generation;
+    }
+
+    /** Walks the parent pointers back from target into a list of OSM ids, source first. */
+    List<Long> path(CSRGraph g, int target) {
+        List<Long> ids = new ArrayList<>();
+        appendReversed(g, target, ids);
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    /** Appends the OSM ids from v back to the root of its parent chain, v first. */
+    void appendReversed(CSRGraph g, int v, List<Long> ids) {
+        for (; v >= 0; v = parent[v]) {
+            ids.add(g.id(v));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Edge costs for fastest routes: the seconds it takes to drive each edge at the speed limit
+ * of its way, or at a default speed for its highway class when the way has no usable
+ * maxspeed tag. The costs are computed once per graph into a primitive array, and the
+ * heuristic scale is the time to cover a mile at the highest speed of any edge, so
+ * great-circle estimates stay admissible.
+ */
+public class TravelTimes {
+    private static final double SECONDS_PER_HOUR = 3600;
+    /** Default speeds in mph, by position in EdgeAttributes.HIGHWAY_CLASSES. */
+    private static final double[] DEFAULT_SPEEDS = {65, 55, 45, 35, 30, 25, 25, 10, 45, 40,
+        35, 30, 25, 15, 10, 5, 10, 3, 3, 2};
+    /** Speed in mph of an edge whose highway class is unknown. */
+    private static final double UNKNOWN_SPEED = 25;
+
+    private TravelTimes() {
+    }
+
+    /**
+     * Returns the speed of each way record in mph: its parsed speed limit if positive,
+     * otherwise the default for its highway class.
+     */
+    static double[] speeds(EdgeAttributes attributes) {
+        double[] speeds = new double[attributes.numWays()];
+        for (int i = 0; i < speeds.length; i++) {
+            double maxSpeed = attributes.recordMaxSpeed(i);
+            byte highway = attributes.recordHighway(i);
+            if (maxSpeed > 0) {
+                speeds[i] = maxSpeed;
+            } else if (highway >= 0 && highway < DEFAULT_SPEEDS.length) {
+                speeds[i] = DEFAULT_SPEEDS[highway];
+            } else {
+                speeds[i] = UNKNOWN_SPEED;
+            }
+        }
+        return speeds;
+    }
+
+    /**
+     * Returns g reweighted so each edge costs its travel time in seconds for a profile.
+     * @param g The graph with edge lengths in miles.
+     * @param attributes The way attributes of each edge slot of g.
+     * @param profile The way of travel; profiles with a fixed speed ignore speed limits.
+     * @return A graph sharing the vertices and edges of g.
+     */
+    static CSRGraph graph(CSRGraph g, EdgeAttributes attributes, Router.Profile profile) {
+        double[] speeds = speeds(attributes);
+        if (!Double.isNaN(profile.speed())) {
+            Arrays.fill(speeds, profile.speed());
+        }
+        /* Multiplying lengths and estimates by the same pace keeps the heuristic exactly
+         * admissible on the fastest edges. */
+        double[] paces = new double[speeds.length];
+        for (int i = 0; i < speeds.length; i++) {
+            paces[i] = SECONDS_PER_HOUR / speeds[i];
+        }
+        double unknownPace = SECONDS_PER_HOUR / UNKNOWN_SPEED;
+        double[] weights = new double[g.numEdges()];
+        double minPace = unknownPace;
+        for (int e = 0; e < weights.length; e++) {
+            int way = attributes.way(e);
+            double pace = way == EdgeAttributes.NO_WAY ? unknownPace : paces[way];
+            weights[e] = g.weight(e) * pace;
+            minPace = Math.min(minPace, pace);
+        }
+        return g.reweighted(weights, minPace);
+    }
+}
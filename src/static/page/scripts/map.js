@@ -29,6 +29,7 @@ $(function() {
     // psueod-lock
     var getInProgress = false;
     var route_params = {};
+    var route_token; // identifies our route to the server; undefined when there is none
     var map;
     var dest;
     var tx = 0, ty = 0;
@@ -111,7 +112,7 @@ $(function() {
         $.get({
             async: true,
             url: raster_server,
-            data: params,
+            data: route_token ? $.extend({route_token: route_token}, params) : params,
             success: function(data) {
                 console.log(data);
                 if (data.query_success) {
@@ -173,6 +174,7 @@ $(function() {
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
+                route_token = data.route_token;
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -407,7 +409,9 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {route_token: route_token},
             success: function() {
+                route_token = undefined;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();
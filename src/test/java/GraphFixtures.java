@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fixtures shared by the graph tests: temporary OSM files, and an assertion that two graphs
+ * hold the same data and answer queries alike.
+ */
+class GraphFixtures {
+    /** Start of an OSM XML document; append nodes and ways, then "</osm>\n". */
+    static final String HEADER = "<?xml version='1.0' encoding='UTF-8'?>\n<osm>\n";
+    /** Number of random points closest() is compared on. */
+    private static final int CLOSEST_QUERIES = 200;
+
+    private GraphFixtures() {
+    }
+
+    /**
+     * Writes an OSM XML document to a new temporary file. The file, and the snapshot,
+     * hierarchies and landmark tables GraphDB.load saves next to it, are deleted on exit.
+     * @param prefix Prefix of the file name.
+     * @param osm The document.
+     * @return The file, whose name ends in .osm.xml.
+     */
+    static Path writeOsm(String prefix, String osm) throws IOException {
+        Path file = Files.createTempFile(prefix, ".osm.xml");
+        file.toFile().deleteOnExit();
+        GraphSnapshot.pathFor(file).toFile().deleteOnExit();
+        for (Router.Profile profile : Router.Profile.values()) {
+            for (Router.Weighting weighting : Router.Weighting.values()) {
+                ContractionHierarchy.pathFor(file, profile, weighting).toFile().deleteOnExit();
+                Landmarks.pathFor(file, profile, weighting).toFile().deleteOnExit();
+            }
+        }
+        Files.write(file, osm.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Returns the ids of an iterable in order. */
+    static List<Long> list(Iterable<Long> ids) {
+        List<Long> result = new ArrayList<>();
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that actual has the same vertices, edges, names, way records and locations as
+     * expected, in the same order, and answers adjacent, wayName, closest and location
+     * queries alike.
+     */
+    static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        CSRGraph a = expected.csr();
+        CSRGraph b = actual.csr();
+        assertEquals(a.size(), b.size());
+        assertEquals(a.numEdges(), b.numEdges());
+        EdgeAttributes ea = expected.edgeAttributes();
+        EdgeAttributes eb = actual.edgeAttributes();
+        assertEquals(ea.numWays(), eb.numWays());
+        for (int v = 0; v < a.size(); v++) {
+            assertEquals(a.id(v), b.id(v));
+            assertEquals(a.lon(v), b.lon(v), 0);
+            assertEquals(a.lat(v), b.lat(v), 0);
+            assertEquals(expected.name(v), actual.name(v));
+            assertEquals(a.firstEdge(v), b.firstEdge(v));
+            assertEquals(a.endEdge(v), b.endEdge(v));
+        }
+        for (int e = 0; e < a.numEdges(); e++) {
+            assertEquals(a.target(e), b.target(e));
+            assertEquals(a.weight(e), b.weight(e), 0);
+            assertEquals(ea.way(e), eb.way(e));
+        }
+        for (int i = 0; i < ea.numWays(); i++) {
+            assertEquals(ea.recordName(i), eb.recordName(i));
+            assertEquals(ea.recordHighway(i), eb.recordHighway(i));
+            assertEquals(ea.recordMaxSpeed(i), eb.recordMaxSpeed(i), 0);
+            assertEquals(ea.recordProfiles(i), eb.recordProfiles(i));
+        }
+
+        assertEquals(list(expected.vertices()), list(actual.vertices()));
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (long v : expected.vertices()) {
+            assertEquals(list(expected.adjacent(v)), list(actual.adjacent(v)));
+            for (long w : expected.adjacent(v)) {
+                assertEquals(expected.wayName(v, w), actual.wayName(v, w));
+            }
+            minLon = Math.min(minLon, expected.lon(v));
+            maxLon = Math.max(maxLon, expected.lon(v));
+            minLat = Math.min(minLat, expected.lat(v));
+            maxLat = Math.max(maxLat, expected.lat(v));
+        }
+        if (a.size() > 0) {
+            Random r = new Random(a.size());
+            for (int i = 0; i < CLOSEST_QUERIES; i++) {
+                double lon = minLon + (r.nextDouble() * 1.2 - 0.1) * (maxLon - minLon);
+                double lat = minLat + (r.nextDouble() * 1.2 - 0.1) * (maxLat - minLat);
+                assertEquals(expected.closest(lon, lat), actual.closest(lon, lat));
+            }
+        }
+
+        LocationIndex la = expected.locations();
+        LocationIndex lb = actual.locations();
+        assertEquals(la.size(), lb.size());
+        for (int i = 0; i < la.size(); i++) {
+            assertEquals(la.id(i), lb.id(i));
+            assertEquals(la.name(i), lb.name(i));
+            assertEquals(la.lon(i), lb.lon(i), 0);
+            assertEquals(la.lat(i), lb.lat(i), 0);
+        }
+        assertEquals(la.prefixSearch("", Integer.MAX_VALUE),
+                lb.prefixSearch("", Integer.MAX_VALUE));
+        for (String name : la.prefixSearch("", Integer.MAX_VALUE)) {
+            assertEquals(la.locations(name), lb.locations(name));
+        }
+    }
+}
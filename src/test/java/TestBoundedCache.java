@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestBoundedCache {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByWeight() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.getIfPresent("a"));
+        cache.put("c", "cccc");
+
+        assertNull("b was least recently used", cache.getIfPresent("b"));
+        assertEquals("aaaa", cache.getIfPresent("a"));
+        assertEquals("cccc", cache.getIfPresent("c"));
+        assertEquals(1, cache.evictions());
+        assertEquals(8, cache.weight());
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(100, String::length);
+        assertEquals("1", cache.get(1, String::valueOf));
+        assertEquals("1", cache.get(1, String::valueOf));
+        assertEquals("2", cache.get(2, String::valueOf));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testInvalidateIf() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(100, String::length);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "v" + i);
+        }
+        cache.invalidateIf(k -> k % 2 == 0);
+        assertEquals(5, cache.size());
+        assertEquals(10, cache.weight());
+        assertNull(cache.getIfPresent(4));
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCollapsed() throws Exception {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, String::length);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> cache.get("key", k -> {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "value";
+            })));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("value", result.get());
+        }
+        pool.shutdown();
+        assertEquals(1, loads.get());
+    }
+}
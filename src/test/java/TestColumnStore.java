@@ -0,0 +1,142 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a graph whose columns are memory-mapped, with its edge attributes and its
+ * contraction hierarchy, answers adjacent, lon, lat, distance, closest and routing queries
+ * exactly like the same graph on the heap.
+ */
+public class TestColumnStore {
+    private static final int GRID = 60;
+
+    private static GraphDB heap;
+    private static GraphDB mapped;
+
+    @Before
+    public void setUp() throws IOException {
+        if (heap != null) {
+            return;
+        }
+        Random r = new Random(25);
+        StringBuilder sb = new StringBuilder(GraphFixtures.HEADER);
+        for (int i = 0; i < GRID * GRID; i++) {
+            sb.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>\n",
+                    500 + 3 * i, 37.85 + (i / GRID) * 0.0004 + r.nextDouble() * 1e-4,
+                    -122.26 + (i % GRID) * 0.0004 + r.nextDouble() * 1e-4));
+        }
+        String[] highways = {"residential", "primary", "footway", "cycleway"};
+        for (int row = 0; row < GRID; row++) {
+            sb.append("<way id=\"").append(row + 1).append("\">");
+            for (int col = 0; col < GRID; col++) {
+                sb.append("<nd ref=\"").append(500 + 3 * (row * GRID + col)).append("\"/>");
+            }
+            sb.append("<tag k=\"highway\" v=\"").append(highways[row % highways.length])
+                    .append("\"/></way>\n");
+        }
+        for (int col = 0; col < GRID; col += 3) {
+            sb.append("<way id=\"").append(1000 + col).append("\">");
+            for (int row = 0; row < GRID; row++) {
+                sb.append("<nd ref=\"").append(500 + 3 * (row * GRID + col)).append("\"/>");
+            }
+            sb.append("<tag k=\"highway\" v=\"secondary\"/></way>\n");
+        }
+        sb.append("</osm>\n");
+        Path osm = GraphFixtures.writeOsm("columns", sb.toString());
+
+        /* Pin both stores, whatever -Dbearmaps.storage the tests run with. */
+        GraphDB loaded = new GraphDB(osm.toString());
+        Path directory = Files.createTempDirectory("columns");
+        directory.toFile().deleteOnExit();
+        heap = new GraphDB(loaded.csr().storedIn(ColumnStore.HEAP), loaded.names(),
+                loaded.edgeAttributes(), loaded.locations());
+        mapped = new GraphDB(loaded.csr().storedIn(ColumnStore.mapped(directory)),
+                loaded.names(), loaded.edgeAttributes(), loaded.locations());
+    }
+
+    @Test
+    public void testColumnsAreMapped() {
+        assertTrue(mapped.csr().store().isMapped());
+        assertFalse(heap.csr().store().isMapped());
+        assertEquals(0, heap.csr().mappedBytes());
+        assertTrue(mapped.csr().mappedBytes() > 20L * mapped.csr().numEdges());
+        assertTrue(mapped.csr().footprintBytes() < heap.csr().footprintBytes() / 4);
+        assertEquals(0, heap.edgeAttributes().mappedBytes());
+        assertEquals(4L * mapped.csr().numEdges(), mapped.edgeAttributes().mappedBytes());
+        assertTrue(mapped.edgeAttributes().footprintBytes()
+                < heap.edgeAttributes().footprintBytes());
+        assertEquals(0, heap.hierarchy().mappedBytes());
+        assertTrue(mapped.hierarchy().mappedBytes() > 16L * mapped.hierarchy().numEdges());
+        assertEquals(0, heap.names().mappedBytes());
+        assertEquals(0, mapped.names().footprintBytes());
+        Landmarks landmarks = mapped.landmarks(Router.Profile.CAR, Router.Weighting.DISTANCE);
+        assertEquals(4L * landmarks.size() * mapped.csr().size(), landmarks.mappedBytes());
+        assertEquals(4L * landmarks.size(), landmarks.footprintBytes());
+    }
+
+    @Test
+    public void testHierarchiesMatchHeap() {
+        ContractionHierarchy a = heap.hierarchy();
+        ContractionHierarchy b = mapped.hierarchy();
+        assertEquals(a.numEdges(), b.numEdges());
+        assertEquals(a.numShortcuts(), b.numShortcuts());
+        int n = heap.csr().size();
+        Random r = new Random(28);
+        for (int i = 0; i < 200; i++) {
+            int s = r.nextInt(n);
+            int t = r.nextInt(n);
+            SearchResult x = a.search(s, t);
+            SearchResult y = b.search(s, t);
+            assertEquals(x.path, y.path);
+            assertEquals(x.length, y.length, 0);
+            assertEquals(x.settled(), y.settled());
+        }
+    }
+
+    @Test
+    public void testQueriesMatchHeap() {
+        GraphFixtures.assertSameGraph(heap, mapped);
+        List<Long> vertices = GraphFixtures.list(heap.vertices());
+        Random r = new Random(26);
+        for (int i = 0; i < 500; i++) {
+            long v = vertices.get(r.nextInt(vertices.size()));
+            long w = vertices.get(r.nextInt(vertices.size()));
+            assertEquals(heap.distance(v, w), mapped.distance(v, w), 0);
+        }
+    }
+
+    @Test
+    public void testRoutesMatchHeap() {
+        Random r = new Random(27);
+        for (int i = 0; i < 30; i++) {
+            double stLon = -122.26 + r.nextDouble() * 0.024;
+            double stLat = 37.85 + r.nextDouble() * 0.024;
+            double destLon = -122.26 + r.nextDouble() * 0.024;
+            double destLat = 37.85 + r.nextDouble() * 0.024;
+            assertEquals(Router.shortestPath(heap, stLon, stLat, destLon, destLat),
+                    Router.shortestPath(mapped, stLon, stLat, destLon, destLat));
+        }
+        for (Router.Profile profile : Router.Profile.values()) {
+            for (Router.Weighting weighting : Router.Weighting.values()) {
+                CSRGraph a = heap.csr(profile, weighting);
+                CSRGraph b = mapped.csr(profile, weighting);
+                assertTrue(b.store().isMapped());
+                assertEquals(a.numEdges(), b.numEdges());
+                for (int e = 0; e < a.numEdges(); e++) {
+                    assertEquals(a.target(e), b.target(e));
+                    assertEquals(a.weight(e), b.weight(e), 0);
+                }
+            }
+        }
+    }
+}
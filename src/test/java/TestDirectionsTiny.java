@@ -0,0 +1,101 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks routeDirections on a small hand-drawn graph: a route east along Main Street, left
+ * onto an unnamed way, right onto Oak Street, and on along Oak Street through a vertex where
+ * another way joins.
+ * <pre>
+ *          5 -- 6 -- 7      Oak Street
+ *          |
+ *          4                (unnamed)
+ *          |
+ *   1 ---- 2 ---- 3         Main Street
+ * </pre>
+ */
+public class TestDirectionsTiny {
+    private static final double DELTA = 1e-9;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws IOException {
+        if (graph != null) {
+            return;
+        }
+        String osm = GraphFixtures.HEADER
+                + "<node id=\"1\" lat=\"38.0\" lon=\"-122.002\"/>\n"
+                + "<node id=\"2\" lat=\"38.0\" lon=\"-122.001\"/>\n"
+                + "<node id=\"3\" lat=\"38.0\" lon=\"-122.0\"/>\n"
+                + "<node id=\"4\" lat=\"38.001\" lon=\"-122.001\"/>\n"
+                + "<node id=\"5\" lat=\"38.002\" lon=\"-122.001\"/>\n"
+                + "<node id=\"6\" lat=\"38.002\" lon=\"-122.0\"/>\n"
+                + "<node id=\"7\" lat=\"38.002\" lon=\"-121.999\"/>\n"
+                + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/>"
+                + "<tag k=\"name\" v=\"Main Street\"/></way>\n"
+                + "<way id=\"11\"><nd ref=\"2\"/><nd ref=\"4\"/><nd ref=\"5\"/>"
+                + "<tag k=\"highway\" v=\"unclassified\"/></way>\n"
+                + "<way id=\"12\"><nd ref=\"5\"/><nd ref=\"6\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/>"
+                + "<tag k=\"name\" v=\"Oak Street\"/></way>\n"
+                + "<way id=\"13\"><nd ref=\"6\"/><nd ref=\"7\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/>"
+                + "<tag k=\"name\" v=\"Oak Street\"/></way>\n"
+                + "</osm>\n";
+        Path file = GraphFixtures.writeOsm("directions", osm);
+        graph = new GraphDB(file.toString());
+    }
+
+    private static Router.NavigationDirection direction(int direction, String way,
+                                                        double distance) {
+        Router.NavigationDirection nd = new Router.NavigationDirection();
+        nd.direction = direction;
+        nd.way = way;
+        nd.distance = distance;
+        return nd;
+    }
+
+    @Test
+    public void testTurnsAndGrouping() {
+        List<Long> route = Arrays.asList(1L, 2L, 4L, 5L, 6L, 7L);
+        List<Router.NavigationDirection> actual = Router.routeDirections(graph, route);
+        List<Router.NavigationDirection> expected = Arrays.asList(
+                direction(Router.NavigationDirection.START, "Main Street",
+                        graph.distance(1, 2)),
+                direction(Router.NavigationDirection.LEFT, "",
+                        graph.distance(2, 4) + graph.distance(4, 5)),
+                direction(Router.NavigationDirection.RIGHT, "Oak Street",
+                        graph.distance(5, 6) + graph.distance(6, 7)));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).direction, actual.get(i).direction);
+            assertEquals(expected.get(i).way, actual.get(i).way);
+            assertEquals(expected.get(i).distance, actual.get(i).distance, DELTA);
+        }
+        assertEquals("Turn left on  and continue for 0.138 miles.",
+                actual.get(1).toString());
+    }
+
+    @Test
+    public void testSingleWay() {
+        List<Router.NavigationDirection> actual =
+                Router.routeDirections(graph, Arrays.asList(1L, 2L, 3L));
+        assertEquals(1, actual.size());
+        assertEquals(Router.NavigationDirection.START, actual.get(0).direction);
+        assertEquals("Main Street", actual.get(0).way);
+        assertEquals(graph.distance(1, 3), actual.get(0).distance, 1e-6);
+    }
+
+    @Test
+    public void testTrivialRoutes() {
+        assertEquals(0, Router.routeDirections(graph, Arrays.asList(1L)).size());
+        assertEquals(0, Router.routeDirections(graph, Arrays.<Long>asList()).size());
+    }
+}
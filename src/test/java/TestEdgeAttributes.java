@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that way attributes are kept per edge and that building a graph leaves node names
+ * alone.
+ */
+public class TestEdgeAttributes {
+    private static final double DELTA = 1e-4;
+
+    /**
+     * Two named ways cross at node 2, which has a name of its own, and a third way continues
+     * Main Street under another highway class.
+     */
+    private static GraphDB graph() throws IOException {
+        String osm = GraphFixtures.HEADER
+                + "<node id=\"1\" lat=\"38.0\" lon=\"-122.002\"/>\n"
+                + "<node id=\"2\" lat=\"38.0\" lon=\"-122.001\">"
+                + "<tag k=\"name\" v=\"Fountain\"/></node>\n"
+                + "<node id=\"3\" lat=\"38.0\" lon=\"-122.0\"/>\n"
+                + "<node id=\"4\" lat=\"38.001\" lon=\"-122.001\"/>\n"
+                + "<node id=\"5\" lat=\"38.0\" lon=\"-121.999\"/>\n"
+                + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/><tag k=\"maxspeed\" v=\"25 mph\"/>"
+                + "<tag k=\"name\" v=\"Main Street\"/></way>\n"
+                + "<way id=\"11\"><nd ref=\"2\"/><nd ref=\"4\"/>"
+                + "<tag k=\"highway\" v=\"secondary\"/><tag k=\"maxspeed\" v=\"50\"/>"
+                + "<tag k=\"name\" v=\"Oak Street\"/></way>\n"
+                + "<way id=\"12\"><nd ref=\"3\"/><nd ref=\"5\"/>"
+                + "<tag k=\"highway\" v=\"tertiary\"/>"
+                + "<tag k=\"name\" v=\"Main Street\"/></way>\n"
+                + "</osm>\n";
+        Path file = GraphFixtures.writeOsm("attributes", osm);
+        return new GraphDB(file.toString());
+    }
+
+    private static int edge(GraphDB g, long v, long w) {
+        return g.csr().edge(g.csr().index(v), g.csr().index(w));
+    }
+
+    @Test
+    public void testAttributesPerEdge() throws IOException {
+        GraphDB g = graph();
+        EdgeAttributes a = g.edgeAttributes();
+        int main = edge(g, 1, 2);
+        int oak = edge(g, 4, 2);
+        int mainEast = edge(g, 5, 3);
+        assertEquals("Main Street", a.name(main));
+        assertEquals("residential", a.highway(main));
+        assertEquals(25, a.maxSpeed(main), DELTA);
+        assertEquals("Oak Street", a.name(oak));
+        assertEquals("secondary", a.highway(oak));
+        assertEquals(50 / 1.609344, a.maxSpeed(oak), DELTA);
+        assertEquals("tertiary", a.highway(mainEast));
+        assertTrue(Double.isNaN(a.maxSpeed(mainEast)));
+        /* Both directions of an edge, and all edges of a way, share one record. */
+        assertEquals(a.way(main), a.way(edge(g, 2, 1)));
+        assertEquals(a.way(main), a.way(edge(g, 3, 2)));
+        assertSame(a.name(main), a.name(mainEast));
+        assertEquals(3, a.numWays());
+    }
+
+    @Test
+    public void testNodeNamesKept() throws IOException {
+        GraphDB g = graph();
+        assertEquals("Fountain", g.name(g.csr().index(2)));
+        assertNull(g.name(g.csr().index(1)));
+        assertNull(g.name(g.csr().index(4)));
+    }
+
+    @Test
+    public void testParseMaxSpeed() {
+        assertEquals(30, EdgeAttributes.parseMaxSpeed("30 mph"), DELTA);
+        assertEquals(30, EdgeAttributes.parseMaxSpeed(" 30mph"), DELTA);
+        assertEquals(100 / 1.609344, EdgeAttributes.parseMaxSpeed("100"), DELTA);
+        assertEquals(100 / 1.609344, EdgeAttributes.parseMaxSpeed("100 km/h"), DELTA);
+        assertTrue(Float.isNaN(EdgeAttributes.parseMaxSpeed("signals")));
+        assertTrue(Float.isNaN(EdgeAttributes.parseMaxSpeed(null)));
+    }
+
+    @Test
+    public void testRecordsShareOnlyEqualAttributes() {
+        EdgeAttributes.Builder builder = new EdgeAttributes.Builder();
+        GraphDB.Way unnamed = new GraphDB.Way(1L);
+        unnamed.setHighway("residential");
+        GraphDB.Way literal = new GraphDB.Way(2L);
+        literal.setHighway("residential");
+        literal.setName("null");
+        GraphDB.Way again = new GraphDB.Way(3L);
+        again.setHighway("residential");
+        int record = builder.add(unnamed);
+        assertTrue(record != builder.add(literal));
+        assertEquals(record, builder.add(again));
+        EdgeAttributes attributes = builder.build(new int[] {record});
+        assertEquals(2, attributes.numWays());
+        assertNull(attributes.name(0));
+    }
+}
@@ -0,0 +1,203 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a graph read back from its snapshot answers every query like the graph parsed
+ * from XML, and that stale or damaged snapshots are rejected.
+ */
+public class TestGraphSnapshot {
+    private static final int GRID = 12;
+
+    /** Writes a GRID x GRID street grid with a few named intersections and shops. */
+    private static Path writeOsm(Random r) throws IOException {
+        return writeOsm(r, "Street 0");
+    }
+
+    /**
+     * Writes a GRID x GRID street grid with a few named intersections and shops.
+     * @param firstName Name of the first street.
+     */
+    private static Path writeOsm(Random r, String firstName) throws IOException {
+        StringBuilder sb = new StringBuilder(GraphFixtures.HEADER);
+        for (int i = 0; i < GRID * GRID; i++) {
+            sb.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\">",
+                    100 + i, 37.85 + (i / GRID) * 0.001 + r.nextDouble() * 1e-4,
+                    -122.26 + (i % GRID) * 0.001 + r.nextDouble() * 1e-4));
+            if (r.nextInt(10) == 0) {
+                sb.append("<tag k=\"name\" v=\"Corner Caf\u00e9 ").append(i).append("\"/>");
+            }
+            sb.append("</node>\n");
+        }
+        sb.append("<node id=\"9\" lat=\"37.851\" lon=\"-122.259\">"
+                + "<tag k=\"name\" v=\"Top Dog\"/></node>\n");
+        for (int row = 0; row < GRID; row++) {
+            sb.append("<way id=\"").append(row + 1).append("\">");
+            for (int col = 0; col < GRID; col++) {
+                sb.append("<nd ref=\"").append(100 + row * GRID + col).append("\"/>");
+            }
+            sb.append("<tag k=\"highway\" v=\"residential\"/>");
+            if (row % 3 == 0) {
+                sb.append("<tag k=\"maxspeed\" v=\"25 mph\"/>");
+            }
+            sb.append("<tag k=\"name\" v=\"")
+                    .append(row == 0 ? firstName : "Street " + row).append("\"/></way>\n");
+        }
+        for (int col = 0; col < GRID; col += 2) {
+            sb.append("<way id=\"").append(1000 + col).append("\">");
+            for (int row = 0; row < GRID; row++) {
+                sb.append("<nd ref=\"").append(100 + row * GRID + col).append("\"/>");
+            }
+            sb.append("<tag k=\"highway\" v=\"").append(col == 4 ? "footway" : "secondary")
+                    .append("\"/></way>\n");
+        }
+        sb.append("</osm>\n");
+        return GraphFixtures.writeOsm("snapshot", sb.toString());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random r = new Random(10);
+        Path osm = writeOsm(r);
+        GraphDB parsed = new GraphDB(osm.toString());
+        Path snap = GraphSnapshot.pathFor(osm);
+        long checksum = GraphSnapshot.checksum(osm);
+        GraphSnapshot.write(parsed, snap, checksum, Files.size(osm));
+
+        GraphDB loaded = GraphSnapshot.read(snap, checksum, Files.size(osm));
+        assertNotNull(loaded);
+        GraphFixtures.assertSameGraph(parsed, loaded);
+    }
+
+    @Test
+    public void testRoundTripOfNameLongerThanBuffer() throws IOException {
+        Random r = new Random(13);
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 3 << 20) {
+            name.append("Boulevard ").append(name.length()).append(' ');
+        }
+        Path osm = writeOsm(r, name.toString());
+        GraphDB parsed = new GraphDB(osm.toString());
+        Path snap = GraphSnapshot.pathFor(osm);
+        long checksum = GraphSnapshot.checksum(osm);
+        GraphSnapshot.write(parsed, snap, checksum, Files.size(osm));
+
+        GraphDB loaded = GraphSnapshot.read(snap, checksum, Files.size(osm));
+        assertNotNull(loaded);
+        GraphFixtures.assertSameGraph(parsed, loaded);
+        assertEquals(name.toString(), loaded.wayName(100, 101));
+    }
+
+    @Test
+    public void testFailedParseWritesNoSnapshot() throws IOException {
+        Random r = new Random(14);
+        Path osm = writeOsm(r);
+        byte[] xml = Files.readAllBytes(osm);
+        Files.write(osm, Arrays.copyOf(xml, xml.length / 2));
+        Path snap = GraphSnapshot.pathFor(osm);
+        Files.deleteIfExists(snap);
+
+        boolean rejected = false;
+        try {
+            GraphDB.load(osm.toString());
+        } catch (UncheckedIOException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+        assertFalse(Files.exists(snap));
+    }
+
+    @Test
+    public void testLoadWritesAndReusesSnapshot() throws IOException {
+        Random r = new Random(11);
+        Path osm = writeOsm(r);
+        Path snap = GraphSnapshot.pathFor(osm);
+        Files.deleteIfExists(snap);
+
+        GraphDB first = GraphDB.load(osm.toString());
+        assertTrue(Files.exists(snap));
+        GraphDB second = GraphDB.load(osm.toString());
+        GraphFixtures.assertSameGraph(first, second);
+    }
+
+    @Test
+    public void testLoadSavesHierarchiesAndLandmarks() throws IOException {
+        Random r = new Random(15);
+        Path osm = writeOsm(r);
+        Router.Profile bike = Router.Profile.BIKE;
+        Router.Weighting time = Router.Weighting.TIME;
+        Path hierarchyFile = ContractionHierarchy.pathFor(osm, bike, time);
+        Path landmarksFile = Landmarks.pathFor(osm, bike, time);
+        assertEquals(osm.getFileName() + ".bike-time.ch",
+                hierarchyFile.getFileName().toString());
+
+        GraphDB first = GraphDB.load(osm.toString());
+        assertTrue(Files.exists(ContractionHierarchy.pathFor(osm)));
+        assertFalse(Files.exists(hierarchyFile));
+        assertFalse(Files.exists(landmarksFile));
+        ContractionHierarchy hierarchy = first.hierarchy(bike, time);
+        Landmarks landmarks = first.landmarks(bike, time);
+        assertTrue(Files.exists(hierarchyFile));
+        assertTrue(Files.exists(landmarksFile));
+        assertSame(hierarchy, first.hierarchy(bike, time));
+
+        long checksum = GraphSnapshot.checksum(osm);
+        long length = Files.size(osm);
+        CSRGraph g = first.csr(bike, time);
+        assertNotNull(ContractionHierarchy.read(hierarchyFile, g, checksum, length));
+        assertNotNull(Landmarks.read(landmarksFile, g, checksum, length));
+        GraphDB second = GraphDB.load(osm.toString());
+        for (int i = 0; i < 20; i++) {
+            int source = r.nextInt(g.size());
+            int target = r.nextInt(g.size());
+            assertEquals(hierarchy.search(source, target).path,
+                    second.hierarchy(bike, time).search(source, target).path);
+            assertEquals(landmarks.search(source, target).path,
+                    second.landmarks(bike, time).search(source, target).path);
+        }
+    }
+
+    @Test
+    public void testRejectsStaleOrDamagedSnapshot() throws IOException {
+        Random r = new Random(12);
+        Path osm = writeOsm(r);
+        Path snap = GraphSnapshot.pathFor(osm);
+        long checksum = GraphSnapshot.checksum(osm);
+        long length = Files.size(osm);
+        GraphSnapshot.write(new GraphDB(osm.toString()), snap, checksum, length);
+
+        assertNull("Different source", GraphSnapshot.read(snap, checksum + 1, length));
+        assertNull("Missing file", GraphSnapshot.read(snap.resolveSibling("missing.snap"),
+                checksum, length));
+        try (RandomAccessFile f = new RandomAccessFile(snap.toFile(), "rw")) {
+            f.seek(f.length() / 2);
+            int b = f.read();
+            f.seek(f.length() / 2);
+            f.write(b ^ 0x40);
+        }
+        assertNull("Flipped bit", GraphSnapshot.read(snap, checksum, length));
+        try (RandomAccessFile f = new RandomAccessFile(snap.toFile(), "rw")) {
+            f.setLength(f.length() / 3);
+        }
+        assertNull("Truncated", GraphSnapshot.read(snap, checksum, length));
+
+        /* load() falls back to the XML and replaces the damaged snapshot. */
+        GraphDB reloaded = GraphDB.load(osm.toString());
+        GraphFixtures.assertSameGraph(new GraphDB(osm.toString()), reloaded);
+        assertNotNull(GraphSnapshot.read(snap, checksum, length));
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the id map against a binary search over the same sorted ids, for evenly spread,
+ * clustered and extreme ids, and for ids that are not in the map.
+ */
+public class TestIdMap {
+    private static final int NUM_IDS = 20000;
+    private static final int NUM_QUERIES = 50000;
+
+    private static long[] distinct(long[] ids) {
+        Arrays.sort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (n == 0 || ids[n - 1] != ids[i]) {
+                ids[n] = ids[i];
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private static void check(long[] ids, Random r) {
+        IdMap map = new IdMap(ids);
+        assertEquals(ids.length, map.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], map.id(i));
+            assertEquals(i, map.index(ids[i]));
+        }
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            long id;
+            if (ids.length > 0 && r.nextBoolean()) {
+                id = ids[r.nextInt(ids.length)] + r.nextInt(5) - 2;
+            } else {
+                id = r.nextLong();
+            }
+            int expected = Arrays.binarySearch(ids, id);
+            assertEquals(expected < 0 ? -1 : expected, map.index(id));
+        }
+    }
+
+    @Test
+    public void testSpreadIds() {
+        Random r = new Random(23);
+        long[] ids = new long[NUM_IDS];
+        for (int i = 0; i < NUM_IDS; i++) {
+            ids[i] = 1 + (long) r.nextInt(1 << 30) * 8;
+        }
+        check(distinct(ids), r);
+    }
+
+    @Test
+    public void testClusteredIds() {
+        /* Most ids are old and close together, a few are far newer, as in real extracts. */
+        Random r = new Random(24);
+        long[] ids = new long[NUM_IDS];
+        for (int i = 0; i < NUM_IDS; i++) {
+            ids[i] = i % 10 == 0 ? 11_000_000_000L + r.nextInt(1 << 20)
+                    : 26_000_000L + r.nextInt(NUM_IDS * 3);
+        }
+        check(distinct(ids), r);
+    }
+
+    @Test
+    public void testExtremeIds() {
+        Random r = new Random(25);
+        check(new long[] {Long.MIN_VALUE, -5, 0, 7, Long.MAX_VALUE}, r);
+        check(new long[] {Long.MIN_VALUE, Long.MIN_VALUE + 1}, r);
+        check(new long[] {Long.MAX_VALUE}, r);
+        check(new long[0], r);
+    }
+
+    @Test
+    public void testRejectsUnsortedIds() {
+        boolean rejected = false;
+        try {
+            new IdMap(new long[] {1, 3, 3, 4});
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the spatial index against a linear scan over randomly generated vertices. The
+ * coordinates are snapped to a coarse grid so that exact ties in distance are common.
+ */
+public class TestKdTree {
+    private static final int NUM_VERTICES = 5000;
+    private static final int NUM_QUERIES = 2000;
+
+    private static CSRGraph randomGraph(Random r) {
+        long[] ids = new long[NUM_VERTICES];
+        double[] lons = new double[NUM_VERTICES];
+        double[] lats = new double[NUM_VERTICES];
+        for (int i = 0; i < NUM_VERTICES; i++) {
+            ids[i] = 10L * i;
+            lons[i] = MapServer.ROOT_ULLON + r.nextInt(200) * 0.0004;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextInt(200) * 0.0003;
+        }
+        return new CSRGraph(ids, lons, lats, new int[NUM_VERTICES + 1], new int[0]);
+    }
+
+    /** Returns the k nearest vertices the way the original linear scan in closest() did. */
+    private static int[] scan(CSRGraph g, double lon, double lat, int k) {
+        int[] result = new int[k];
+        boolean[] taken = new boolean[g.size()];
+        for (int i = 0; i < k; i++) {
+            double minDistance = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < g.size(); v++) {
+                double d = GraphDB.distance(lon, lat, g.lon(v), g.lat(v));
+                if (!taken[v] && d < minDistance) {
+                    minDistance = d;
+                    result[i] = v;
+                }
+            }
+            taken[result[i]] = true;
+        }
+        return result;
+    }
+
+    @Test
+    public void testNearestMatchesScan() {
+        Random r = new Random(61);
+        CSRGraph g = randomGraph(r);
+        KdTree tree = new KdTree(g);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = MapServer.ROOT_ULLON + r.nextInt(220) * 0.0004 - 0.004;
+            double lat = MapServer.ROOT_LRLAT + r.nextInt(220) * 0.0003 - 0.003;
+            assertEquals(scan(g, lon, lat, 1)[0], tree.nearest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testKNearestMatchesScan() {
+        Random r = new Random(62);
+        CSRGraph g = randomGraph(r);
+        KdTree tree = new KdTree(g);
+        for (int i = 0; i < NUM_QUERIES / 10; i++) {
+            double lon = MapServer.ROOT_ULLON + r.nextDouble() * 0.08;
+            double lat = MapServer.ROOT_LRLAT + r.nextDouble() * 0.06;
+            assertArrayEquals(scan(g, lon, lat, 8), tree.nearest(lon, lat, 8));
+        }
+    }
+}
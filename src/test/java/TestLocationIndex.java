@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the autocomplete index against a brute-force filter over randomly generated names.
+ */
+public class TestLocationIndex {
+    private static final String[] WORDS = {"Top", "Dog", "Top Dog", "Bear's", "Lair", "Cafe",
+        "Caf\u00e9", "Strada", "7-Eleven", "Berkeley Bowl", "Bowling", "Bow", "the", "ALL"};
+
+    private static String randomName(Random r) {
+        StringBuilder sb = new StringBuilder(WORDS[r.nextInt(WORDS.length)]);
+        for (int i = r.nextInt(3); i > 0; i--) {
+            sb.append(' ').append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random r = new Random(8);
+        LocationIndex.Builder builder = new LocationIndex.Builder();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String name = randomName(r);
+            names.add(name);
+            builder.add(i, -122.25 + i * 1e-6, 37.86, name);
+        }
+        LocationIndex index = builder.build();
+
+        String[] prefixes = {"", "t", "to", "TOP D", "top dog t", "b", "bow", "bowl", "caf",
+            "cafe", "", "eleven", "the all", "x", "  ", "Bear", "bears"};
+        for (String prefix : prefixes) {
+            String cleanedPrefix = GraphDB.cleanString(prefix);
+            TreeMap<String, TreeSet<String>> expected = new TreeMap<>();
+            for (String name : names) {
+                String cleaned = GraphDB.cleanString(name);
+                if (cleaned.startsWith(cleanedPrefix)) {
+                    expected.computeIfAbsent(cleaned, k -> new TreeSet<>()).add(name);
+                }
+            }
+            List<String> expectedNames = new ArrayList<>();
+            for (TreeSet<String> group : expected.values()) {
+                expectedNames.addAll(group);
+            }
+            assertEquals("Prefix " + prefix, expectedNames,
+                    index.prefixSearch(prefix, Integer.MAX_VALUE));
+            assertEquals("Prefix " + prefix + " limited to 5",
+                    expectedNames.subList(0, Math.min(5, expectedNames.size())),
+                    index.prefixSearch(prefix, 5));
+        }
+    }
+
+    @Test
+    public void testLocations() {
+        LocationIndex.Builder builder = new LocationIndex.Builder();
+        builder.add(3, -122.1, 37.1, "Top Dog");
+        builder.add(1, -122.2, 37.2, "top dog");
+        builder.add(2, -122.3, 37.3, "Top Dog Cafe");
+        builder.add(4, -122.4, 37.4, "Top");
+        LocationIndex index = builder.build();
+
+        List<Map<String, Object>> locations = index.locations("TOP DOG!");
+        assertEquals(2, locations.size());
+        assertEquals("Top Dog", locations.get(0).get("name"));
+        assertEquals(3L, locations.get(0).get("id"));
+        assertEquals(37.1, (double) locations.get(0).get("lat"), 1e-9);
+        assertEquals(-122.1, (double) locations.get(0).get("lon"), 1e-9);
+        assertEquals("top dog", locations.get(1).get("name"));
+        assertEquals(0, index.locations("top do").size());
+        assertEquals(0, index.locations("top dogs").size());
+    }
+
+    @Test
+    public void testRepeatedNamesAreOneEntry() {
+        LocationIndex.Builder builder = new LocationIndex.Builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.add(10 + i, -122.25, 37.86, i % 2 == 0 ? "Bus Stop" : "Starbucks");
+        }
+        builder.add(5, -122.25, 37.86, "bus stop");
+        builder.add(6, -122.25, 37.86, "Bus Stops");
+        LocationIndex index = builder.build();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("Bus Stop");
+        expected.add("bus stop");
+        expected.add("Bus Stops");
+        expected.add("Starbucks");
+        assertEquals(expected, index.prefixSearch("", Integer.MAX_VALUE));
+        assertEquals(expected.subList(0, 3), index.prefixSearch("bus", 10));
+        assertEquals(expected.subList(0, 2), index.prefixSearch("b", 2));
+        assertEquals(501, index.locations("Bus Stop").size());
+        assertEquals(1, index.locations("bus stops").size());
+        assertEquals(500, index.locations("starbucks").size());
+        assertEquals(1002, index.size());
+    }
+}
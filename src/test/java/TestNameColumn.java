@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a name column gives back the names it was built from, in the heap and the
+ * mapped store, including missing, empty and non-ASCII names and byte columns that grow.
+ */
+public class TestNameColumn {
+    private static final int NUM_NAMES = 5000;
+
+    private static String[] names(Random r) {
+        String[] names = new String[NUM_NAMES];
+        for (int i = 0; i < names.length; i++) {
+            switch (r.nextInt(4)) {
+                case 0:
+                    names[i] = null;
+                    break;
+                case 1:
+                    names[i] = "";
+                    break;
+                default:
+                    StringBuilder sb = new StringBuilder();
+                    for (int c = r.nextInt(40); c > 0; c--) {
+                        /* Mixes one-, two- and three-byte UTF-8 characters. */
+                        sb.append((char) (r.nextBoolean() ? 'a' + r.nextInt(26)
+                                : 0xa0 + r.nextInt(0x2000)));
+                    }
+                    names[i] = sb.toString();
+            }
+        }
+        return names;
+    }
+
+    private static NameColumn build(String[] names, ColumnStore store) {
+        NameColumn.Builder builder = new NameColumn.Builder(names.length, store);
+        for (String name : names) {
+            builder.add(name);
+        }
+        return builder.build();
+    }
+
+    private static void check(String[] names, NameColumn column) {
+        assertEquals(names.length, column.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], column.get(i));
+        }
+    }
+
+    @Test
+    public void testNamesRoundTrip() throws IOException {
+        String[] names = names(new Random(41));
+        NameColumn heap = build(names, ColumnStore.HEAP);
+        check(names, heap);
+        assertEquals(0, heap.mappedBytes());
+
+        Path directory = Files.createTempDirectory("names");
+        directory.toFile().deleteOnExit();
+        NameColumn mapped = build(names, ColumnStore.mapped(directory));
+        check(names, mapped);
+        assertEquals(0, mapped.footprintBytes());
+        assertEquals(heap.footprintBytes(), mapped.mappedBytes());
+        check(names, mapped.storedIn(ColumnStore.HEAP));
+    }
+
+    @Test
+    public void testMissingAndEmptyNamesDiffer() {
+        NameColumn column = build(new String[] {null, "", null, "Telegraph Avenue", ""},
+                ColumnStore.HEAP);
+        assertNull(column.get(0));
+        assertEquals("", column.get(1));
+        assertNull(column.get(2));
+        assertEquals("Telegraph Avenue", column.get(3));
+        assertEquals("", column.get(4));
+    }
+
+    @Test
+    public void testIncompleteColumnIsRejected() {
+        NameColumn.Builder builder = new NameColumn.Builder(2, ColumnStore.HEAP);
+        builder.add("a");
+        boolean rejected = false;
+        try {
+            builder.build();
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+        builder.add(null);
+        assertNull(builder.build().get(1));
+    }
+}
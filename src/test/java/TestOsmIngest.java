@@ -0,0 +1,133 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the staged OsmIngest pipeline builds the same graph as the SAX constructor.
+ */
+public class TestOsmIngest {
+    private static String node(long id, double lon, double lat, String name) {
+        String open = "<node id=\"" + id + "\" lat=\"" + lat + "\" lon=\"" + lon + "\"";
+        if (name == null) {
+            return open + "/>\n";
+        }
+        return open + "><tag k=\"name\" v=\"" + name + "\"/></node>\n";
+    }
+
+    private static String way(long id, String tags, long... refs) {
+        StringBuilder sb = new StringBuilder("<way id=\"" + id + "\">");
+        for (long ref : refs) {
+            sb.append("<nd ref=\"").append(ref).append("\"/>");
+        }
+        return sb.append(tags).append("</way>\n").toString();
+    }
+
+    private static String tag(String k, String v) {
+        return "<tag k=\"" + k + "\" v=\"" + v + "\"/>";
+    }
+
+    /**
+     * Nodes out of id order, a repeated node id, an edge shared by two ways, a way that
+     * doubles back on a node, an unused named node and a way the profiles all reject.
+     */
+    @Test
+    public void testMatchesConstructorOnEdgeCases() throws IOException {
+        String osm = GraphFixtures.HEADER
+                + node(30, -122.0, 38.0, "Corner Cafe")
+                + node(10, -122.002, 38.0, null)
+                + node(20, -122.001, 38.0, "Old Name")
+                + node(40, -122.0, 38.001, null)
+                + node(20, -122.0011, 38.0001, null)
+                + node(50, -122.003, 38.002, "Lonely Bench")
+                + node(60, -122.001, 38.002, null)
+                + way(1, tag("highway", "residential") + tag("name", "First Street"),
+                    10, 20, 30)
+                + way(2, tag("highway", "primary") + tag("name", "Second Avenue")
+                    + tag("maxspeed", "30 mph"), 30, 20)
+                + way(3, tag("highway", "footway"), 30, 40, 40, 30)
+                + way(4, tag("highway", "motorway") + tag("foot", "no"), 40, 60)
+                + way(5, tag("waterway", "river"), 10, 50)
+                + "</osm>\n";
+        Path file = GraphFixtures.writeOsm("ingest", osm);
+        GraphDB expected = new GraphDB(file.toString());
+        GraphDB actual = OsmIngest.read(file.toString());
+        GraphFixtures.assertSameGraph(expected, actual);
+        GraphFixtures.assertSameGraph(expected, OsmIngest.read(file.toString(), true));
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 60L), GraphFixtures.list(actual.vertices()));
+        /* The node read last under id 20 carried no name, and moved. */
+        assertEquals(null, actual.name(actual.csr().index(20)));
+        assertEquals(-122.0011, actual.lon(20), 0);
+        assertEquals("Second Avenue", actual.wayName(20, 30));
+        assertEquals("Second Avenue", actual.wayName(30, 20));
+        assertEquals("First Street", actual.wayName(10, 20));
+        CSRGraph all = actual.csr();
+        assertEquals(Arrays.asList(30L, 40L, 60L),
+                GraphFixtures.list(all.neighbors(all.index(40))));
+    }
+
+    /**
+     * A grid large enough to span many batches and row-sorting chunks. No way uses the nodes
+     * of every third row, so a two-pass read never keeps them.
+     */
+    @Test
+    public void testMatchesConstructorOnGrid() throws IOException {
+        int n = 90;
+        Random r = new Random(19);
+        StringBuilder sb = new StringBuilder(GraphFixtures.HEADER);
+        for (int i = 0; i < n * n; i++) {
+            double lon = -122.3 + (i % n) * 0.001 + r.nextDouble() * 1e-4;
+            double lat = 37.8 + (i / n) * 0.001 + r.nextDouble() * 1e-4;
+            sb.append(node(1000 + i, lon, lat, i % 97 == 0 ? "Stop " + i : null));
+        }
+        String[] highways = {"residential", "secondary", "footway", "cycleway", "service"};
+        long wayId = 1;
+        for (int row = 0; row < n; row++) {
+            if (row % 3 == 2) {
+                continue;
+            }
+            long[] refs = new long[n];
+            for (int col = 0; col < n; col++) {
+                refs[col] = 1000 + row * n + col;
+            }
+            sb.append(way(wayId++, tag("highway", highways[row % highways.length])
+                    + tag("name", "Row " + row % 7), refs));
+        }
+        for (int col = 0; col < n; col++) {
+            for (int row = 0; row + 1 < n; row += 3) {
+                sb.append(way(wayId++, tag("highway", highways[col % 3])
+                        + tag("maxspeed", String.valueOf(20 + col % 4 * 10)),
+                        1000 + row * n + col, 1000 + (row + 1) * n + col));
+            }
+        }
+        sb.append("</osm>\n");
+        Path file = GraphFixtures.writeOsm("ingest", sb.toString());
+        GraphDB expected = new GraphDB(file.toString());
+        GraphDB actual = OsmIngest.read(file.toString());
+        assertTrue(actual.csr().size() > OsmIngest.BATCH_SIZE);
+        GraphFixtures.assertSameGraph(expected, actual);
+        GraphFixtures.assertSameGraph(expected, OsmIngest.read(file.toString(), true));
+    }
+
+    @Test
+    public void testRejectsNodeAfterWay() throws IOException {
+        String osm = GraphFixtures.HEADER
+                + node(1, -122.0, 38.0, null)
+                + node(2, -122.001, 38.0, null)
+                + way(1, tag("highway", "residential"), 1, 2)
+                + node(3, -122.002, 38.0, null)
+                + "</osm>\n";
+        boolean rejected = false;
+        try {
+            OsmIngest.read(GraphFixtures.writeOsm("ingest", osm).toString());
+        } catch (IOException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}
@@ -0,0 +1,151 @@
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that gzip, bzip2 and PBF copies of an extract are detected and read to the same
+ * callbacks, and the same graph, as the XML original.
+ */
+public class TestOsmInput {
+    private static Path xml;
+    private static Path gzip;
+    private static Path bzip2;
+    private static Path pbf;
+
+    @Before
+    public void setUp() throws IOException {
+        if (xml != null) {
+            return;
+        }
+        /* More nodes and ways than fit in one PBF block, so blocks are decoded in parallel. */
+        int n = 120;
+        Random r = new Random(21);
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<osm>\n");
+        for (int i = 0; i < n * n; i++) {
+            sb.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"",
+                    1 + i, 37.8 + (i / n) * 0.0005 + r.nextDouble() * 1e-4,
+                    -122.3 + (i % n) * 0.0005 + r.nextDouble() * 1e-4));
+            if (i % 50 == 0) {
+                sb.append("><tag k=\"name\" v=\"Caf&#233; ").append(i).append("\"/></node>\n");
+            } else {
+                sb.append("/>\n");
+            }
+        }
+        String[] highways = {"residential", "primary", "footway", "cycleway", "service"};
+        for (int row = 0; row < n; row++) {
+            sb.append("<way id=\"").append(row + 1).append("\">");
+            for (int col = 0; col < n; col++) {
+                sb.append("<nd ref=\"").append(1 + row * n + col).append("\"/>");
+            }
+            sb.append("<tag k=\"highway\" v=\"").append(highways[row % highways.length])
+                    .append("\"/><tag k=\"name\" v=\"Row ").append(row).append("\"/>");
+            if (row % 3 == 0) {
+                sb.append("<tag k=\"maxspeed\" v=\"25 mph\"/><tag k=\"foot\" v=\"no\"/>");
+            }
+            sb.append("</way>\n");
+        }
+        for (int i = 0; i + 1 < n * n; i += 7) {
+            sb.append("<way id=\"").append(1000 + i).append("\"><nd ref=\"").append(1 + i)
+                    .append("\"/><nd ref=\"").append(1 + i + n < n * n ? 1 + i + n : 1)
+                    .append("\"/><tag k=\"highway\" v=\"unclassified\"/></way>\n");
+        }
+        sb.append("</osm>\n");
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        xml = temp(".osm.xml");
+        Files.write(xml, data);
+        gzip = temp(".osm.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+            out.write(data);
+        }
+        bzip2 = temp(".osm.bz2");
+        try (OutputStream out = new BZip2CompressorOutputStream(Files.newOutputStream(bzip2))) {
+            out.write(data);
+        }
+        pbf = temp(".osm.pbf");
+        PbfWriter.convert(xml.toString(), pbf);
+    }
+
+    private static Path temp(String suffix) throws IOException {
+        Path file = Files.createTempFile("input", suffix);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static List<String> events(Path file) throws IOException {
+        TestOsmXmlReader.Recorder recorder = new TestOsmXmlReader.Recorder();
+        OsmInput.read(file.toString(), recorder);
+        return recorder.events;
+    }
+
+    @Test
+    public void testDetectsFormats() throws IOException {
+        assertEquals(OsmInput.Format.XML, OsmInput.detect(xml));
+        assertEquals(OsmInput.Format.GZIP, OsmInput.detect(gzip));
+        assertEquals(OsmInput.Format.BZIP2, OsmInput.detect(bzip2));
+        assertEquals(OsmInput.Format.PBF, OsmInput.detect(pbf));
+    }
+
+    @Test
+    public void testFormatsReadAlike() throws IOException {
+        List<String> expected = events(xml);
+        assertTrue(expected.size() > 2 * PbfWriter.BLOCK_SIZE);
+        for (Path file : Arrays.asList(gzip, bzip2, pbf)) {
+            assertEquals(file.toString(), expected, events(file));
+        }
+        assertTrue(Files.size(pbf) < Files.size(xml) / 4);
+    }
+
+    @Test
+    public void testFormatsBuildTheSameGraph() throws IOException {
+        GraphDB expected = new GraphDB(xml.toString());
+        for (Path file : Arrays.asList(gzip, pbf)) {
+            for (GraphDB actual : Arrays.asList(new GraphDB(file.toString()),
+                    OsmIngest.read(file.toString()))) {
+                CSRGraph a = expected.csr();
+                CSRGraph b = actual.csr();
+                assertEquals(a.size(), b.size());
+                assertEquals(a.numEdges(), b.numEdges());
+                for (int v = 0; v < a.size(); v++) {
+                    assertEquals(a.id(v), b.id(v));
+                    assertEquals(a.lon(v), b.lon(v), 0);
+                    assertEquals(a.lat(v), b.lat(v), 0);
+                    assertEquals(a.endEdge(v), b.endEdge(v));
+                }
+                for (int e = 0; e < a.numEdges(); e++) {
+                    assertEquals(a.target(e), b.target(e));
+                    assertEquals(expected.edgeAttributes().way(e),
+                            actual.edgeAttributes().way(e));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedPbf() throws IOException {
+        byte[] data = Files.readAllBytes(pbf);
+        Path truncated = temp(".osm.pbf");
+        Files.write(truncated, Arrays.copyOf(data, data.length / 2));
+        boolean rejected = false;
+        try {
+            events(truncated);
+        } catch (IOException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.Test;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that OsmXmlReader reports exactly what GraphBuildingHandler reports on a SAX parser.
+ */
+public class TestOsmXmlReader {
+    private static final String[] FIXTURES = {"../library-sp18/data/tiny-clean.osm.xml",
+        "../library-sp18/data/berkeley-2018.osm.xml"};
+
+    /** Writes every callback down, with coordinates as their exact bits. */
+    static class Recorder implements OsmSink {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void node(long id, double lon, double lat) {
+            events.add("node " + id + " " + Double.doubleToRawLongBits(lon) + " "
+                    + Double.doubleToRawLongBits(lat));
+        }
+
+        @Override
+        public void nodeName(long id, String name) {
+            events.add("name " + id + " [" + name + "]");
+        }
+
+        @Override
+        public void way(GraphDB.Way way) {
+            events.add("way " + way.wayID + " " + way.nodeIds + " [" + way.name + "] ["
+                    + way.highway + "] [" + way.maxSpeed + "] " + way.access);
+        }
+    }
+
+    private static List<String> sax(byte[] xml) throws Exception {
+        Recorder recorder = new Recorder();
+        SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(xml),
+                new GraphBuildingHandler(recorder));
+        return recorder.events;
+    }
+
+    private static List<String> bytes(byte[] xml) throws IOException {
+        Recorder recorder = new Recorder();
+        /* Hand the bytes over a few at a time, so tokens straddle buffer refills. */
+        InputStream in = new ByteArrayInputStream(xml) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        new OsmXmlReader(in, recorder).read();
+        return recorder.events;
+    }
+
+    private static void assertSameEvents(String xml) throws Exception {
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = sax(data);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, bytes(data));
+    }
+
+    @Test
+    public void testMarkupAndEscapes() throws Exception {
+        assertSameEvents("\uFEFF<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<!DOCTYPE osm [<!ENTITY unused 'x'>]>\n"
+                + "<!-- a comment with <node> inside -->\n"
+                + "<osm version=\"0.6\">\r\n"
+                + "<bounds minlat=\"37\" minlon=\"-123\" maxlat=\"38\" maxlon=\"-122\"/>\n"
+                + "<node id='1' lat='37.8700001' lon='-122.2599999'>"
+                + "<tag k='name' v='Caf&#233; &amp; Bar &quot;&#x263A;&quot;'/></node>\n"
+                + "<node\n  id=\"2\"\tlat = \"+37.87\" lon=\"-122.26\"/>\n"
+                + "<node id=\"3\" lat=\"3.787E1\" lon=\"-0.0\"><tag k=\"amenity\" v=\"cafe\"/>"
+                + "<tag k=\"name\" v=\"Line&#10;Break\r\nand\ttab\"/></node>\n"
+                + "<node id=\"4\" lat=\"37.123456789012345678\" lon=\"-122.\"/>\n"
+                + "<node id=\"5\" lat=\"0.0000000000000000000000001\" lon=\"1.5\"/>\n"
+                + "<node id=\"9223372036854775807\" lat=\"37.8\" lon=\"-122.3\"/>\n"
+                + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"&lt;Main&gt;\"/>"
+                + "<tag k=\"maxspeed\" v=\"25 mph\"/><tag k=\"surface\" v=\"asphalt\"/>"
+                + "</way>\n"
+                + "<way id=\"11\"><![CDATA[ <nd ref=\"9\"/> ]]]><nd ref=\"4\"/><nd ref=\"5\"/>"
+                + "<tag k=\"highway\" v=\"footway\"/><tag k=\"bicycle\" v=\"yes\"/>"
+                + "<tag k=\"foot\" v=\"designated\"/></way>\n"
+                + "<way id=\"12\"><nd ref=\"1\"/><nd ref=\"5\"/>"
+                + "<tag k=\"waterway\" v=\"river\"/></way>\n"
+                + "<relation id=\"20\"><member type=\"way\" ref=\"10\" role=\"\"/>"
+                + "<tag k=\"name\" v=\"Not a node\"/></relation>\n"
+                + "</osm>\n");
+    }
+
+    @Test
+    public void testRandomCoordinates() throws Exception {
+        Random r = new Random(20);
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<osm>\n");
+        for (int i = 0; i < 5000; i++) {
+            double lon = -180 + 360 * r.nextDouble();
+            double lat = -90 + 180 * r.nextDouble();
+            String lonText = i % 3 == 0 ? String.valueOf(lon)
+                    : String.format(Locale.ROOT, "%.7f", lon);
+            String latText = i % 5 == 0 ? String.valueOf(lat)
+                    : String.format(Locale.ROOT, "%." + (i % 12) + "f", lat);
+            sb.append("<node id=\"").append(r.nextLong() >>> 1).append("\" lat=\"")
+                    .append(latText).append("\" lon=\"").append(lonText).append("\"/>\n");
+        }
+        sb.append("</osm>\n");
+        assertSameEvents(sb.toString());
+    }
+
+    @Test
+    public void testFixtures() throws Exception {
+        for (String fixture : FIXTURES) {
+            Path path = Paths.get(fixture);
+            if (Files.exists(path)) {
+                byte[] data = Files.readAllBytes(path);
+                assertEquals(sax(data), bytes(data));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsMalformedInput() {
+        String[] inputs = {"<osm><node id=\"1\" lat=\"37.8\" lon=\"x\"/></osm>",
+            "<osm><node id=\"1\" lat=\"37.8\"/></osm>",
+            "<osm><node id=\"1\" lat=\"37.8\" lon=\"-122\"",
+            "<osm><way id=\"1\"><tag k=\"name\" v=\"&bogus;\"/></way></osm>",
+            "<osm><node id=1 lat=\"37.8\" lon=\"-122\"/></osm>"};
+        for (String input : inputs) {
+            boolean rejected = false;
+            try {
+                bytes(input.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                rejected = true;
+            }
+            assertTrue(input, rejected);
+        }
+    }
+}
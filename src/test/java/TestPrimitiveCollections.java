@@ -0,0 +1,148 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks LongIntMap, LongDoubleMap and LongArrayList against the JDK collections they stand
+ * in for, under random puts, overwrites and removals. Keys come from a small range so probe
+ * runs collide and wrap around the table, and include 0, which the maps store apart.
+ */
+public class TestPrimitiveCollections {
+    private static final int NUM_OPERATIONS = 200000;
+
+    private static long randomKey(Random r) {
+        return r.nextInt(10) == 0 ? r.nextLong() : r.nextInt(5000) - 100;
+    }
+
+    private static long[] sortedKeys(Map<Long, ?> expected) {
+        long[] keys = new long[expected.size()];
+        int i = 0;
+        for (long key : expected.keySet()) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    @Test
+    public void testLongIntMapMatchesHashMap() {
+        Random r = new Random(24);
+        LongIntMap map = new LongIntMap(-1);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int op = 0; op < NUM_OPERATIONS; op++) {
+            long key = randomKey(r);
+            Integer old = expected.get(key);
+            int oldValue = old == null ? -1 : old;
+            switch (r.nextInt(4)) {
+                case 0:
+                case 1:
+                    int value = r.nextInt();
+                    expected.put(key, value);
+                    assertEquals(oldValue, map.put(key, value));
+                    break;
+                case 2:
+                    expected.remove(key);
+                    assertEquals(oldValue, map.remove(key));
+                    break;
+                default:
+                    assertEquals(oldValue, map.get(key));
+                    assertEquals(old != null, map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(sortedKeys(expected), keys);
+    }
+
+    @Test
+    public void testLongDoubleMapMatchesHashMap() {
+        Random r = new Random(25);
+        LongDoubleMap map = new LongDoubleMap(Double.NaN);
+        Map<Long, Double> expected = new HashMap<>();
+        for (int op = 0; op < NUM_OPERATIONS; op++) {
+            long key = randomKey(r);
+            Double old = expected.get(key);
+            double oldValue = old == null ? Double.NaN : old;
+            switch (r.nextInt(4)) {
+                case 0:
+                case 1:
+                    double value = r.nextDouble() * 360 - 180;
+                    expected.put(key, value);
+                    assertEquals(oldValue, map.put(key, value), 0);
+                    break;
+                case 2:
+                    expected.remove(key);
+                    assertEquals(oldValue, map.remove(key), 0);
+                    break;
+                default:
+                    assertEquals(oldValue, map.get(key), 0);
+                    assertEquals(old != null, map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(sortedKeys(expected), keys);
+    }
+
+    @Test
+    public void testMapsGrowFromExpectedSize() {
+        LongIntMap ints = new LongIntMap(3, -1);
+        LongDoubleMap doubles = new LongDoubleMap(3, Double.NaN);
+        for (int i = 0; i < 100000; i++) {
+            ints.put(7L * i, i);
+            doubles.put(7L * i, i / 2.0);
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i, ints.get(7L * i));
+            assertEquals(i / 2.0, doubles.get(7L * i), 0);
+        }
+        assertEquals(-1, ints.get(1));
+        assertTrue(Double.isNaN(doubles.get(1)));
+    }
+
+    @Test
+    public void testLongArrayListMatchesArrayList() {
+        Random r = new Random(26);
+        LongArrayList list = new LongArrayList(1);
+        List<Long> expected = new ArrayList<>();
+        assertTrue(list.isEmpty());
+        for (int i = 0; i < 10000; i++) {
+            long value = r.nextLong();
+            list.add(value);
+            expected.add(value);
+            if (r.nextInt(10) == 0) {
+                int j = r.nextInt(expected.size());
+                list.set(j, -value);
+                expected.set(j, -value);
+            }
+        }
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((long) expected.get(i), list.get(i));
+        }
+        assertEquals(expected.toString(), list.toString());
+        assertEquals(expected.size(), list.toArray().length);
+
+        boolean rejected = false;
+        try {
+            list.get(list.size());
+        } catch (IndexOutOfBoundsException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}
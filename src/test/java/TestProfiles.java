@@ -0,0 +1,108 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that one parse serves the car, bike and walk profiles on a small map.
+ * <pre>
+ *   1 ------------ 2 ------------ 3     Main Street (residential)
+ *   |                             |
+ *   4 ---- 5 ------------ 6 ----- 7     Campus Path (footway) from 4 to 6,
+ *                                       Bike Lane (cycleway, foot=no) from 6 to 7
+ * </pre>
+ * Node 8 hangs off a motorway next to node 1, so only cars can reach it.
+ */
+public class TestProfiles {
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws IOException {
+        if (graph != null) {
+            return;
+        }
+        String osm = GraphFixtures.HEADER
+                + "<node id=\"1\" lat=\"38.002\" lon=\"-122.004\"/>\n"
+                + "<node id=\"2\" lat=\"38.002\" lon=\"-122.002\"/>\n"
+                + "<node id=\"3\" lat=\"38.002\" lon=\"-122.0\"/>\n"
+                + "<node id=\"4\" lat=\"38.0\" lon=\"-122.004\"/>\n"
+                + "<node id=\"5\" lat=\"38.0\" lon=\"-122.003\"/>\n"
+                + "<node id=\"6\" lat=\"38.0\" lon=\"-122.001\"/>\n"
+                + "<node id=\"7\" lat=\"38.0\" lon=\"-122.0\"/>\n"
+                + "<node id=\"8\" lat=\"38.003\" lon=\"-122.004\"/>\n"
+                + "<way id=\"10\"><nd ref=\"4\"/><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                + "<nd ref=\"7\"/><tag k=\"highway\" v=\"residential\"/>"
+                + "<tag k=\"name\" v=\"Main Street\"/></way>\n"
+                + "<way id=\"11\"><nd ref=\"4\"/><nd ref=\"5\"/><nd ref=\"6\"/>"
+                + "<tag k=\"highway\" v=\"footway\"/><tag k=\"bicycle\" v=\"yes\"/>"
+                + "<tag k=\"name\" v=\"Campus Path\"/></way>\n"
+                + "<way id=\"12\"><nd ref=\"6\"/><nd ref=\"7\"/>"
+                + "<tag k=\"highway\" v=\"cycleway\"/><tag k=\"foot\" v=\"no\"/>"
+                + "<tag k=\"name\" v=\"Bike Lane\"/></way>\n"
+                + "<way id=\"13\"><nd ref=\"1\"/><nd ref=\"8\"/>"
+                + "<tag k=\"highway\" v=\"motorway\"/></way>\n"
+                + "</osm>\n";
+        Path file = GraphFixtures.writeOsm("profiles", osm);
+        graph = new GraphDB(file.toString());
+    }
+
+    private static List<Long> route(long from, long to, Router.Profile profile) {
+        return Router.route(graph, graph.lon(from), graph.lat(from), graph.lon(to),
+                graph.lat(to), Router.Algorithm.ASTAR, Router.Weighting.DISTANCE,
+                profile).path;
+    }
+
+    @Test
+    public void testCarKeepsTheRoadGraph() {
+        List<Long> vertices = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            vertices.add(v);
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 7L, 8L), vertices);
+        List<Long> neighbors = new ArrayList<>();
+        for (long w : graph.adjacent(4)) {
+            neighbors.add(w);
+        }
+        assertEquals(Arrays.asList(1L), neighbors);
+        /* Node 5 lies only on the footway, so cars snap to a road node instead. */
+        assertEquals(4L, graph.closest(-122.0031, 38.0));
+        assertEquals(Arrays.asList(4L, 1L, 2L, 3L, 7L), route(4, 7, Router.Profile.CAR));
+    }
+
+    @Test
+    public void testBikeUsesPathAndCycleway() {
+        assertEquals(Arrays.asList(4L, 5L, 6L, 7L), route(4, 7, Router.Profile.BIKE));
+        /* Bikes stay off motorways. */
+        assertTrue(route(1, 8, Router.Profile.BIKE).size() <= 1);
+    }
+
+    @Test
+    public void testWalkAvoidsFootNo() {
+        List<Long> walk = route(4, 7, Router.Profile.WALK);
+        assertEquals(Arrays.asList(4L, 1L, 2L, 3L, 7L), walk);
+        assertFalse(route(4, 6, Router.Profile.WALK).contains(1L));
+        assertEquals(graph.csr().index(5),
+                graph.closestIndex(Router.Profile.WALK, -122.0031, 38.0));
+    }
+
+    @Test
+    public void testTimeWeightingPerProfile() {
+        SearchResult walk = Router.route(graph, graph.lon(4), graph.lat(4), graph.lon(6),
+                graph.lat(6), Router.Algorithm.CH, Router.Weighting.TIME,
+                Router.Profile.WALK);
+        double miles = graph.distance(4, 5) + graph.distance(5, 6);
+        assertEquals(miles / 3 * 3600, walk.length, 1e-6);
+        SearchResult bike = Router.route(graph, graph.lon(4), graph.lat(4), graph.lon(6),
+                graph.lat(6), Router.Algorithm.ALT, Router.Weighting.TIME,
+                Router.Profile.BIKE);
+        assertEquals(miles / 12 * 3600, bike.length, 1e-6);
+    }
+}
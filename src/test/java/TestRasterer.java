@@ -47,7 +47,7 @@ public class TestRasterer {
         }
     }
 
-    private List<Map<String, Double>> paramsFromFile() throws Exception {
+    List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
         int lineIdx = 2; // ignore comment lines
@@ -65,7 +65,7 @@ public class TestRasterer {
         return testParams;
     }
 
-    private List<Map<String, Object>> resultsFromFile() throws Exception {
+    List<Map<String, Object>> resultsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(RESULTS_FILE), Charset.defaultCharset());
         List<Map<String, Object>> expected = new ArrayList<>();
         int lineIdx = 4; // ignore comment lines
@@ -95,8 +95,8 @@ public class TestRasterer {
         return expected;
     }
 
-    private void checkParamsMap(String err, Map<String, Object> expected,
-                                            Map<String, Object> actual) {
+    void checkParamsMap(String err, Map<String, Object> expected,
+                        Map<String, Object> actual) {
         for (String key : expected.keySet()) {
             assertTrue(err + "Your results map is missing "
                        + key, actual.containsKey(key));
@@ -0,0 +1,54 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test for a single Rasterer shared by many threads, the way MapServer shares one
+ * across its request threads. Every query from raster_params.txt is repeated thousands of
+ * times in parallel and each answer is checked against raster_results.txt.
+ */
+public class TestRastererConcurrency {
+    private static final int NUM_THREADS = 16;
+    private static final int REPETITIONS = 500;
+
+    @Test
+    public void testParallelGetMapRaster() throws Exception {
+        TestRasterer checker = new TestRasterer();
+        List<Map<String, Double>> testParams = checker.paramsFromFile();
+        List<Map<String, Object>> expectedResults = checker.resultsFromFile();
+        Rasterer rasterer = new Rasterer();
+
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<?>> queries = new ArrayList<>();
+        for (int r = 0; r < REPETITIONS; r++) {
+            for (int i = 0; i < testParams.size(); i++) {
+                Map<String, Double> params = testParams.get(i);
+                Map<String, Object> expected = expectedResults.get(i);
+                queries.add(pool.submit(() -> checker.checkParamsMap(
+                        "Concurrent results did not match for " + params + ".\n",
+                        expected, rasterer.getMapRaster(params))));
+            }
+        }
+        pool.shutdown();
+        try {
+            for (Future<?> query : queries) {
+                query.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AssertionError) {
+                throw (AssertionError) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks every routing algorithm against a plain Dijkstra on random road-like graphs: each
+ * must find a valid path of the shortest length, or report that there is none.
+ */
+public class TestRoutingAlgorithms {
+    private static final int NUM_VERTICES = 3000;
+    private static final int NUM_QUERIES = 300;
+
+    /**
+     * Scatters vertices over the map and links each one to a few of its nearest neighbors,
+     * in both directions. Vertices whose id is a multiple of 97 are left as isolated islands
+     * so that some queries have no route.
+     */
+    static CSRGraph randomGraph(Random r) {
+        int n = NUM_VERTICES;
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = 5L * i + 3;
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * 0.08;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * 0.06;
+        }
+        List<List<Integer>> adj = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            adj.add(new ArrayList<>());
+        }
+        for (int v = 0; v < n; v++) {
+            if (v % 97 == 0) {
+                continue;
+            }
+            int[] nearest = nearest(lons, lats, v, 6);
+            int links = 1 + r.nextInt(3);
+            for (int k = 0; k < nearest.length && links > 0; k++) {
+                int w = nearest[k];
+                if (w % 97 != 0 && !adj.get(v).contains(w)) {
+                    adj.get(v).add(w);
+                    adj.get(w).add(v);
+                    links -= 1;
+                }
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + adj.get(v).size();
+        }
+        int[] targets = new int[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            List<Integer> row = adj.get(v);
+            row.sort(null);
+            for (int i = 0; i < row.size(); i++) {
+                targets[offsets[v] + i] = row.get(i);
+            }
+        }
+        return new CSRGraph(ids, lons, lats, offsets, targets);
+    }
+
+    /** Returns the k vertices other than v closest to it, closest first. */
+    private static int[] nearest(double[] lons, double[] lats, int v, int k) {
+        int[] best = new int[k];
+        double[] bestDistance = new double[k];
+        Arrays.fill(bestDistance, Double.POSITIVE_INFINITY);
+        for (int w = 0; w < lons.length; w++) {
+            double d = GraphDB.distance(lons[v], lats[v], lons[w], lats[w]);
+            if (w == v || d >= bestDistance[k - 1]) {
+                continue;
+            }
+            int i = k - 1;
+            for (; i > 0 && bestDistance[i - 1] > d; i--) {
+                best[i] = best[i - 1];
+                bestDistance[i] = bestDistance[i - 1];
+            }
+            best[i] = w;
+            bestDistance[i] = d;
+        }
+        return best;
+    }
+
+    /** Returns the shortest distance from source to every vertex. */
+    static double[] dijkstra(CSRGraph g, int source) {
+        double[] dist = new double[g.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[source] = 0;
+        PriorityQueue<double[]> pq = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        pq.add(new double[]{0, source});
+        while (!pq.isEmpty()) {
+            double[] top = pq.poll();
+            int v = (int) top[1];
+            if (top[0] > dist[v]) {
+                continue;
+            }
+            for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                int w = g.target(e);
+                if (dist[v] + g.weight(e) < dist[w]) {
+                    dist[w] = dist[v] + g.weight(e);
+                    pq.add(new double[]{dist[w], w});
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Checks that path runs from source to target along edges and returns its length. */
+    static double checkPath(CSRGraph g, List<Long> path, int source, int target) {
+        assertEquals(g.id(source), (long) path.get(0));
+        assertEquals(g.id(target), (long) path.get(path.size() - 1));
+        double length = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            int v = g.index(path.get(i));
+            int w = g.index(path.get(i + 1));
+            boolean found = false;
+            for (int e = g.firstEdge(v); e < g.endEdge(v) && !found; e++) {
+                if (g.target(e) == w) {
+                    length += g.weight(e);
+                    found = true;
+                }
+            }
+            assertTrue("No edge " + path.get(i) + " -> " + path.get(i + 1), found);
+        }
+        return length;
+    }
+
+    static void checkResult(CSRGraph g, SearchResult result, int source, int target,
+                            double expected) {
+        if (expected == Double.POSITIVE_INFINITY) {
+            assertTrue(result.path.isEmpty());
+            return;
+        }
+        double length = checkPath(g, result.path, source, target);
+        assertEquals(expected, length, 1e-9);
+        assertEquals(expected, result.length, 1e-9);
+        assertTrue(result.settled > 0 || source == target);
+    }
+
+    @Test
+    public void testAStarAndBidirectionalMatchDijkstra() {
+        Random r = new Random(110);
+        CSRGraph g = randomGraph(r);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int source = r.nextInt(g.size());
+            int target = i % 10 == 0 ? source : r.nextInt(g.size());
+            double expected = dijkstra(g, source)[target];
+            checkResult(g, AStarSearch.search(g, source, target), source, target, expected);
+            checkResult(g, BidirectionalAStar.search(g, source, target), source, target,
+                    expected);
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyMatchesDijkstra() {
+        Random r = new Random(120);
+        CSRGraph g = randomGraph(r);
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int source = r.nextInt(g.size());
+            int target = i % 10 == 0 ? source : r.nextInt(g.size());
+            double expected = dijkstra(g, source)[target];
+            checkResult(g, ch.search(source, target), source, target, expected);
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyRoundTrip() throws IOException {
+        Random r = new Random(121);
+        CSRGraph g = randomGraph(r);
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        Path file = Files.createTempFile("hierarchy", ".ch");
+        file.toFile().deleteOnExit();
+        ch.write(file, 42, 1000);
+
+        assertNull(ContractionHierarchy.read(file, g, 43, 1000));
+        assertNull(ContractionHierarchy.read(file, randomGraph(new Random(1)), 42, 1000));
+        ContractionHierarchy loaded = ContractionHierarchy.read(file, g, 42, 1000);
+        assertEquals(ch.numEdges(), loaded.numEdges());
+        assertEquals(ch.numShortcuts(), loaded.numShortcuts());
+        for (int i = 0; i < 50; i++) {
+            int source = r.nextInt(g.size());
+            int target = r.nextInt(g.size());
+            assertEquals(ch.search(source, target).path, loaded.search(source, target).path);
+        }
+    }
+
+    @Test
+    public void testAltMatchesDijkstra() {
+        Random r = new Random(130);
+        CSRGraph g = randomGraph(r);
+        Landmarks landmarks = Landmarks.build(g, 8);
+        assertEquals(8, landmarks.size());
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int source = r.nextInt(g.size());
+            int target = i % 10 == 0 ? source : r.nextInt(g.size());
+            double expected = dijkstra(g, source)[target];
+            checkResult(g, landmarks.search(source, target), source, target, expected);
+        }
+    }
+
+    @Test
+    public void testLandmarksRoundTrip() throws IOException {
+        Random r = new Random(131);
+        CSRGraph g = randomGraph(r);
+        Landmarks landmarks = Landmarks.build(g, 8);
+        Path file = Files.createTempFile("landmarks", ".alt");
+        file.toFile().deleteOnExit();
+        landmarks.write(file, 42, 1000);
+
+        assertNull(Landmarks.read(file, g, 42, 1001));
+        assertNull(Landmarks.read(file, randomGraph(new Random(1)), 42, 1000));
+        Landmarks loaded = Landmarks.read(file, g, 42, 1000);
+        assertEquals(landmarks.size(), loaded.size());
+        for (int i = 0; i < landmarks.size(); i++) {
+            assertEquals(landmarks.landmark(i), loaded.landmark(i));
+        }
+        for (int i = 0; i < 50; i++) {
+            int source = r.nextInt(g.size());
+            int target = r.nextInt(g.size());
+            SearchResult expected = landmarks.search(source, target);
+            SearchResult actual = loaded.search(source, target);
+            assertEquals(expected.path, actual.path);
+            assertEquals(expected.settled, actual.settled);
+        }
+    }
+
+    @Test
+    public void testTravelTimeMatchesDijkstra() {
+        Random r = new Random(150);
+        CSRGraph miles = randomGraph(r);
+        /* A few way records: with and without speed limits, and one unknown class. */
+        EdgeAttributes.Builder ways = new EdgeAttributes.Builder();
+        String[][] records = {{"residential", null}, {"primary", "40 mph"},
+            {"motorway", "100"}, {"tertiary", "none"}, {"track", null}};
+        for (String[] record : records) {
+            GraphDB.Way way = new GraphDB.Way(0L);
+            way.setHighway(record[0]);
+            way.setSpeed(record[1]);
+            ways.add(way);
+        }
+        int[] edgeWays = new int[miles.numEdges()];
+        for (int v = 0; v < miles.size(); v++) {
+            for (int e = miles.firstEdge(v); e < miles.endEdge(v); e++) {
+                int w = miles.target(e);
+                /* Both directions of a road get the same record. */
+                edgeWays[e] = (Math.min(v, w) * 31 + Math.max(v, w)) % (records.length + 1)
+                        - 1;
+            }
+        }
+        CSRGraph g = TravelTimes.graph(miles, ways.build(edgeWays), Router.Profile.CAR);
+        for (int e = 0; e < g.numEdges(); e++) {
+            assertTrue(g.weight(e) >= miles.weight(e) * 3600 / 65);
+        }
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        Landmarks landmarks = Landmarks.build(g, 8);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int source = r.nextInt(g.size());
+            int target = i % 10 == 0 ? source : r.nextInt(g.size());
+            double expected = dijkstra(g, source)[target];
+            checkResult(g, AStarSearch.search(g, source, target), source, target, expected);
+            checkResult(g, BidirectionalAStar.search(g, source, target), source, target,
+                    expected);
+            checkResult(g, ch.search(source, target), source, target, expected);
+            checkResult(g, landmarks.search(source, target), source, target, expected);
+        }
+    }
+
+    @Test
+    public void testDistanceMatrixMatchesDijkstra() {
+        Random r = new Random(140);
+        CSRGraph g = randomGraph(r);
+        int[] sources = new int[12];
+        int[] targets = new int[40];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = r.nextInt(g.size());
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targets[j] = j % 7 == 0 ? 97 * j % g.size() : r.nextInt(g.size());
+        }
+        targets[1] = targets[2];
+        targets[3] = sources[0];
+
+        double[][] matrix = DistanceMatrix.compute(g, sources, targets);
+        assertEquals(sources.length, matrix.length);
+        for (int i = 0; i < sources.length; i++) {
+            double[] expected = dijkstra(g, sources[i]);
+            for (int j = 0; j < targets.length; j++) {
+                double d = expected[targets[j]];
+                assertEquals(d == Double.POSITIVE_INFINITY ? DistanceMatrix.UNREACHABLE : d,
+                        matrix[i][j], 1e-9);
+            }
+        }
+    }
+}